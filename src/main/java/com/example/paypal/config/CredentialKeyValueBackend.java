@@ -0,0 +1,18 @@
+package com.example.paypal.config;
+
+import java.time.Duration;
+
+// SPI for an external key-value store (Redis, Memcached, ...) shared by every node. Register an
+// implementation as a bean to use it with paypal.credentials.mode=KEY_VALUE.
+public interface CredentialKeyValueBackend {
+
+    void put(String key, String value, Duration ttl);
+
+    // Null when the key is absent or has expired
+    String get(String key);
+
+    // False for a backend that lives in this process and forgets everything when it exits
+    default boolean outlivesRestart() {
+        return true;
+    }
+}
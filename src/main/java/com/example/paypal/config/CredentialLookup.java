@@ -0,0 +1,50 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.PayPalCredential;
+
+// What a token lookup found; an expired token is told apart from one the store never saw or already forgot
+public final class CredentialLookup {
+
+    public enum Outcome {
+        HIT, MISS, EXPIRED
+    }
+
+    private static final CredentialLookup MISS = new CredentialLookup(Outcome.MISS, null, 0);
+    private static final CredentialLookup EXPIRED = new CredentialLookup(Outcome.EXPIRED, null, 0);
+
+    private final Outcome outcome;
+    private final PayPalCredential credential;
+    private final long expiresAtMillis;
+
+    private CredentialLookup(Outcome outcome, PayPalCredential credential, long expiresAtMillis) {
+        this.outcome = outcome;
+        this.credential = credential;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public static CredentialLookup hit(PayPalCredential credential, long expiresAtMillis) {
+        return new CredentialLookup(Outcome.HIT, credential, expiresAtMillis);
+    }
+
+    public static CredentialLookup miss() {
+        return MISS;
+    }
+
+    public static CredentialLookup expired() {
+        return EXPIRED;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    // Null unless the outcome is HIT
+    public PayPalCredential getCredential() {
+        return credential;
+    }
+
+    // Wall-clock time the token stops resolving, 0 unless the outcome is HIT
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+}
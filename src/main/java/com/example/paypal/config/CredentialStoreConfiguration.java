@@ -0,0 +1,56 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.CredentialStoreMode;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+@Configuration
+public class CredentialStoreConfiguration {
+
+    @Value("${paypal.credentials.ttl:12h}")
+    private Duration ttl;
+
+    @Value("${paypal.credentials.sweep-interval:1m}")
+    private Duration sweepInterval;
+
+    @Value("${paypal.credentials.near-cache.ttl:30s}")
+    private Duration nearCacheTtl;
+
+    @Value("${paypal.credentials.near-cache.max-entries:10000}")
+    private int nearCacheMaxEntries;
+
+    @Bean
+    public CredentialStore credentialStore(@Value("${paypal.credentials.mode:MEMORY}") CredentialStoreMode mode,
+                                           CredentialTokenCodec tokenCodec,
+                                           ObjectProvider<CredentialKeyValueBackend> keyValueBackend,
+                                           @Value("${paypal.credentials.max-entries:100000}") int maxEntries,
+                                           @Value("${paypal.credentials.segments:16}") int segments,
+                                           @Value("${paypal.credentials.decoded-cache-size:1024}") int decodedCacheSize,
+                                           @Value("${paypal.credentials.file.path:data/credentials.db}") String filePath,
+                                           @Value("${paypal.credentials.file.slots:65536}") int fileSlots,
+                                           @Value("${paypal.credentials.file.slot-size:1024}") int fileSlotSize,
+                                           @Value("${paypal.credentials.file.flush-interval:1s}") Duration fileFlushInterval) {
+        switch (mode) {
+            case STATELESS:
+                return new StatelessCredentialStore(tokenCodec, ttl, decodedCacheSize);
+            case FILE:
+                return nearCached(new MappedFileCredentialStore(tokenCodec, Paths.get(filePath), fileSlots, fileSlotSize,
+                        ttl, sweepInterval, fileFlushInterval));
+            case KEY_VALUE:
+                CredentialKeyValueBackend backend = keyValueBackend.getIfAvailable(LocalCredentialKeyValueBackend::new);
+                return nearCached(new KeyValueCredentialStore(backend, tokenCodec, ttl));
+            case MEMORY:
+            default:
+                return new InMemoryCredentialStore(ttl, maxEntries, segments, sweepInterval);
+        }
+    }
+
+    private CredentialStore nearCached(CredentialStore backend) {
+        return new NearCachedCredentialStore(backend, nearCacheTtl, ttl, nearCacheMaxEntries);
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PayPalCredential;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Seals a credential and its expiry into an AES-GCM token that any node holding the keys can open
+@Component
+public class CredentialTokenCodec {
+
+    static final String PREFIX = "s1.";
+    static final String VALUE_PREFIX = "v1.";
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private final Map<String, SecretKeySpec> keys;
+    private final String activeKeyId;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(CredentialTokenCodec::newCipher);
+
+    // Format: "id:base64key,id:base64key", the first key encrypts, every listed key decrypts
+    public CredentialTokenCodec(@Value("${paypal.credentials.token-keys:}") String keySpec) {
+        Map<String, SecretKeySpec> parsed = new LinkedHashMap<>();
+        for (String part : StringUtils.commaDelimitedListToStringArray(keySpec)) {
+            String trimmed = part.trim();
+            int separator = trimmed.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalStateException("paypal.credentials.token-keys entries must be id:base64key");
+            }
+            String id = trimmed.substring(0, separator);
+            if (id.indexOf('.') >= 0) {
+                throw new IllegalStateException("Token key id must not contain '.': " + id);
+            }
+            byte[] key = Base64.getDecoder().decode(trimmed.substring(separator + 1));
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalStateException("Token key " + id + " must be 128, 192 or 256 bits");
+            }
+            parsed.put(id, new SecretKeySpec(key, "AES"));
+        }
+        this.keys = Collections.unmodifiableMap(parsed);
+        this.activeKeyId = parsed.isEmpty() ? null : parsed.keySet().iterator().next();
+    }
+
+    public boolean isConfigured() {
+        return activeKeyId != null;
+    }
+
+    public String encode(PayPalCredential credential, long expiresAtMillis) {
+        if (!isConfigured()) {
+            throw new IllegalStateException("No credential token keys configured");
+        }
+        byte[] clientId = credential.getClientId().getBytes(StandardCharsets.UTF_8);
+        byte[] secret = credential.getClientSecret().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer plain = ByteBuffer.allocate(1 + 8 + 8 + 4 + clientId.length + secret.length);
+        plain.put((byte) credential.getMode().ordinal())
+                .putLong(expiresAtMillis)
+                .putLong(credential.getCreatedAt().toEpochMilli())
+                .putInt(clientId.length)
+                .put(clientId)
+                .put(secret);
+        return seal(PREFIX, plain.array());
+    }
+
+    // Seals other values the application must keep on disk, such as a credential token in the deferred capture
+    // journal. Their own prefix keeps a sealed value from ever being accepted as a credential token.
+    public String sealValue(String value) {
+        if (!isConfigured()) {
+            throw new IllegalStateException("No credential token keys configured");
+        }
+        return seal(VALUE_PREFIX, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Null unless sealed by sealValue with a key we still hold
+    public String openValue(String sealed) {
+        byte[] plain = open(VALUE_PREFIX, sealed);
+        return plain != null ? new String(plain, StandardCharsets.UTF_8) : null;
+    }
+
+    // Returns null for anything that is not a token we issued with a key we still hold
+    public Decoded decode(String token) {
+        byte[] sealed = open(PREFIX, token);
+        if (sealed == null) {
+            return null;
+        }
+        try {
+            ByteBuffer plain = ByteBuffer.wrap(sealed);
+            EnvironmentMode[] modes = EnvironmentMode.values();
+            int modeIndex = plain.get();
+            long expiresAtMillis = plain.getLong();
+            long createdAtMillis = plain.getLong();
+            int clientIdLength = plain.getInt();
+            if (modeIndex < 0 || modeIndex >= modes.length || clientIdLength < 0 || clientIdLength > plain.remaining()) {
+                return null;
+            }
+            // Offsets rather than position(int), whose ByteBuffer return type a JDK 9+ build would link against
+            int clientIdStart = plain.position();
+            int secretStart = clientIdStart + clientIdLength;
+            String clientId = new String(sealed, clientIdStart, clientIdLength, StandardCharsets.UTF_8);
+            String secret = new String(sealed, secretStart, sealed.length - secretStart, StandardCharsets.UTF_8);
+            PayPalCredential credential = new PayPalCredential(clientId, secret, modes[modeIndex],
+                    Instant.ofEpochMilli(createdAtMillis));
+            return new Decoded(credential, expiresAtMillis);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    public static boolean isStateless(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    private String seal(String prefix, byte[] plain) {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        String header = prefix + activeKeyId + ".";
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, keys.get(activeKeyId), new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(header.getBytes(StandardCharsets.US_ASCII));
+            byte[] sealed = cipher.doFinal(plain);
+            byte[] body = new byte[NONCE_BYTES + sealed.length];
+            System.arraycopy(nonce, 0, body, 0, NONCE_BYTES);
+            System.arraycopy(sealed, 0, body, NONCE_BYTES, sealed.length);
+            return header + Base64.getUrlEncoder().withoutPadding().encodeToString(body);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not seal credential token", e);
+        }
+    }
+
+    // The plaintext of a value sealed under prefix with a key we still hold, otherwise null
+    private byte[] open(String prefix, String sealed) {
+        if (sealed == null || !sealed.startsWith(prefix)) {
+            return null;
+        }
+        int keyEnd = sealed.indexOf('.', prefix.length());
+        if (keyEnd < 0) {
+            return null;
+        }
+        SecretKeySpec key = keys.get(sealed.substring(prefix.length(), keyEnd));
+        if (key == null) {
+            return null;
+        }
+        try {
+            byte[] body = Base64.getUrlDecoder().decode(sealed.substring(keyEnd + 1));
+            if (body.length <= NONCE_BYTES) {
+                return null;
+            }
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, body, 0, NONCE_BYTES));
+            cipher.updateAAD(sealed.substring(0, keyEnd + 1).getBytes(StandardCharsets.US_ASCII));
+            return cipher.doFinal(body, NONCE_BYTES, body.length - NONCE_BYTES);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    }
+
+    public static final class Decoded {
+
+        private final PayPalCredential credential;
+        private final long expiresAtMillis;
+
+        private Decoded(PayPalCredential credential, long expiresAtMillis) {
+            this.credential = credential;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        public PayPalCredential getCredential() {
+            return credential;
+        }
+
+        public long getExpiresAtMillis() {
+            return expiresAtMillis;
+        }
+    }
+}
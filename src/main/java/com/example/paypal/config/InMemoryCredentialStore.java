@@ -0,0 +1,185 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.PayPalCredential;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class InMemoryCredentialStore implements CredentialStore, DisposableBean {
+
+    private final long ttlMillis;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final ScheduledExecutorService sweeper;
+
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public InMemoryCredentialStore(Duration ttl, int maxEntries, int segmentCount, Duration sweepInterval) {
+        this.ttlMillis = ttl.toMillis();
+        int count = segmentCount <= 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+        int perSegment = Math.max(1, (maxEntries + count - 1) / count);
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.segmentMask = count - 1;
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("credential-store-sweeper-");
+        threadFactory.setDaemon(true);
+        this.sweeper = new ScheduledThreadPoolExecutor(1, threadFactory);
+        long sweepMillis = Math.max(100, sweepInterval.toMillis());
+        this.sweeper.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String save(PayPalCredential credential) {
+        String token = UUID.randomUUID().toString();
+        segmentFor(token).put(token, new StoredCredential(credential, System.currentTimeMillis() + ttlMillis));
+        return token;
+    }
+
+    @Override
+    public CredentialLookup lookup(String token) {
+        if (token == null) {
+            return CredentialLookup.miss();
+        }
+        return segmentFor(token).get(token, System.currentTimeMillis());
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public void destroy() {
+        sweeper.shutdownNow();
+    }
+
+    void sweep() {
+        long now = System.currentTimeMillis();
+        for (Segment segment : segments) {
+            segment.removeExpired(now);
+        }
+    }
+
+    private Segment segmentFor(String token) {
+        int hash = token.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & segmentMask];
+    }
+
+    private static final class StoredCredential {
+
+        private final PayPalCredential credential;
+        private final long expiresAtMillis;
+
+        private StoredCredential(PayPalCredential credential, long expiresAtMillis) {
+            this.credential = credential;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAtMillis;
+        }
+    }
+
+    // One lock per segment; the access-ordered map gives LRU eviction when the segment is full
+    private final class Segment {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, StoredCredential> entries;
+
+        private Segment(int capacity) {
+            this.entries = new LinkedHashMap<String, StoredCredential>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, StoredCredential> eldest) {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+                    if (eldest.getValue().isExpired(System.currentTimeMillis())) {
+                        expirations.increment();
+                    } else {
+                        evictions.increment();
+                    }
+                    return true;
+                }
+            };
+        }
+
+        private void put(String token, StoredCredential entry) {
+            lock.lock();
+            try {
+                entries.put(token, entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private CredentialLookup get(String token, long now) {
+            lock.lock();
+            try {
+                StoredCredential entry = entries.get(token);
+                if (entry == null) {
+                    return CredentialLookup.miss();
+                }
+                if (entry.isExpired(now)) {
+                    entries.remove(token);
+                    expirations.increment();
+                    return CredentialLookup.expired();
+                }
+                return CredentialLookup.hit(entry.credential, entry.expiresAtMillis);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void removeExpired(long now) {
+            lock.lock();
+            try {
+                Iterator<StoredCredential> iterator = entries.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().isExpired(now)) {
+                        iterator.remove();
+                        expirations.increment();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
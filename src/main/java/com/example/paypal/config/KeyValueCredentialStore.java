@@ -0,0 +1,76 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.PayPalCredential;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+public class KeyValueCredentialStore implements CredentialStore {
+
+    private static final String KEY_PREFIX = "paypal:credential:";
+
+    private final CredentialKeyValueBackend backend;
+    private final CredentialTokenCodec tokenCodec;
+    private final Duration ttl;
+    private final LongAdder expirations = new LongAdder();
+
+    public KeyValueCredentialStore(CredentialKeyValueBackend backend, CredentialTokenCodec tokenCodec, Duration ttl) {
+        if (!tokenCodec.isConfigured()) {
+            throw new IllegalStateException("paypal.credentials.mode=KEY_VALUE requires paypal.credentials.token-keys, records are sealed at rest");
+        }
+        this.backend = backend;
+        this.tokenCodec = tokenCodec;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public String save(PayPalCredential credential) {
+        String token = UUID.randomUUID().toString();
+        String sealed = tokenCodec.encode(credential, System.currentTimeMillis() + ttl.toMillis());
+        backend.put(KEY_PREFIX + token, sealed, ttl);
+        return token;
+    }
+
+    @Override
+    public CredentialLookup lookup(String token) {
+        if (token == null) {
+            return CredentialLookup.miss();
+        }
+        String sealed = backend.get(KEY_PREFIX + token);
+        if (sealed == null) {
+            return CredentialLookup.miss();
+        }
+        CredentialTokenCodec.Decoded decoded = tokenCodec.decode(sealed);
+        if (decoded == null) {
+            return CredentialLookup.miss();
+        }
+        // The backend TTL is advisory; the sealed expiry is authoritative
+        if (System.currentTimeMillis() >= decoded.getExpiresAtMillis()) {
+            expirations.increment();
+            return CredentialLookup.expired();
+        }
+        return CredentialLookup.hit(decoded.getCredential(), decoded.getExpiresAtMillis());
+    }
+
+    @Override
+    public boolean outlivesRestart() {
+        return backend.outlivesRestart();
+    }
+
+    // Entries live in the external store
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    @Override
+    public long evictions() {
+        return 0;
+    }
+
+    @Override
+    public long expirations() {
+        return expirations.sum();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.paypal.config;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-process stand-in for an external key-value store, used when no other backend bean is registered
+public class LocalCredentialKeyValueBackend implements CredentialKeyValueBackend {
+
+    private final Map<String, Value> values = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(String key, String value, Duration ttl) {
+        long now = System.currentTimeMillis();
+        if (values.size() % 1024 == 0) {
+            values.values().removeIf(existing -> now >= existing.expiresAtMillis);
+        }
+        values.put(key, new Value(value, now + ttl.toMillis()));
+    }
+
+    @Override
+    public boolean outlivesRestart() {
+        return false;
+    }
+
+    @Override
+    public String get(String key) {
+        Value value = values.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= value.expiresAtMillis) {
+            values.remove(key, value);
+            return null;
+        }
+        return value.value;
+    }
+
+    private static final class Value {
+
+        private final String value;
+        private final long expiresAtMillis;
+
+        private Value(String value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.PayPalCredential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed-size hash table of sealed credential records in a memory-mapped file. Slots are grouped in
+// buckets; every bucket access holds a file region lock so several processes on one host can share the file.
+public class MappedFileCredentialStore implements CredentialStore, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedFileCredentialStore.class);
+
+    private static final int MAGIC = 0x50504353;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUCKET_SLOTS = 16;
+    private static final long MAX_SEGMENT_BYTES = 1L << 28;
+
+    private static final int TOKEN_LENGTH = 36;
+    private static final int STATE = 0;
+    private static final int EXPIRES_AT = 4;
+    private static final int TOKEN = 12;
+    private static final int VALUE_LENGTH = TOKEN + TOKEN_LENGTH;
+    private static final int VALUE = VALUE_LENGTH + 2;
+
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int DELETED = 2;
+
+    private final CredentialTokenCodec tokenCodec;
+    private final long ttlMillis;
+    private final Path path;
+    private final int slotSize;
+    private final int bucketMask;
+    private final int segmentShift;
+    private final int segmentSlotMask;
+    private final MappedByteBuffer[] segments;
+    private final AtomicBoolean[] dirty;
+    private final ReentrantLock[] bucketLocks;
+    private final ScheduledExecutorService scheduler;
+    // Reopening runs under a ReentrantLock, a monitor held across the open would pin a virtual thread's carrier
+    private final ReentrantLock channelLock = new ReentrantLock();
+    private volatile FileChannel channel;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public MappedFileCredentialStore(CredentialTokenCodec tokenCodec, Path path, int slots, int slotSize,
+                                     Duration ttl, Duration sweepInterval, Duration flushInterval) {
+        if (!tokenCodec.isConfigured()) {
+            throw new IllegalStateException("paypal.credentials.mode=FILE requires paypal.credentials.token-keys, records are sealed at rest");
+        }
+        if (slots < BUCKET_SLOTS || Integer.bitCount(slots) != 1) {
+            throw new IllegalStateException("paypal.credentials.file.slots must be a power of two >= " + BUCKET_SLOTS);
+        }
+        if (slotSize <= VALUE || Integer.bitCount(slotSize) != 1) {
+            throw new IllegalStateException("paypal.credentials.file.slot-size must be a power of two > " + VALUE);
+        }
+        this.tokenCodec = tokenCodec;
+        this.ttlMillis = ttl.toMillis();
+        this.path = path;
+        this.slotSize = slotSize;
+        this.bucketMask = slots / BUCKET_SLOTS - 1;
+
+        int slotsPerSegment = (int) Math.min(slots, Math.max(BUCKET_SLOTS, MAX_SEGMENT_BYTES / slotSize));
+        this.segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+        this.segmentSlotMask = slotsPerSegment - 1;
+        this.segments = new MappedByteBuffer[slots / slotsPerSegment];
+        this.dirty = new AtomicBoolean[segments.length];
+        this.bucketLocks = new ReentrantLock[Math.min(1024, bucketMask + 1)];
+        for (int i = 0; i < bucketLocks.length; i++) {
+            bucketLocks[i] = new ReentrantLock();
+        }
+
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = openChannel();
+            initializeHeader(slots);
+            for (int i = 0; i < segments.length; i++) {
+                long offset = slotSize + (long) i * slotsPerSegment * slotSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) slotsPerSegment * slotSize);
+                dirty[i] = new AtomicBoolean();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open credential file " + path, e);
+        }
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("credential-file-");
+        threadFactory.setDaemon(true);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+        long sweepMillis = Math.max(100, sweepInterval.toMillis());
+        long flushMillis = Math.max(10, flushInterval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::sweep, 0, sweepMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String save(PayPalCredential credential) {
+        long expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+        byte[] value = tokenCodec.encode(credential, expiresAtMillis).getBytes(StandardCharsets.US_ASCII);
+        if (VALUE + value.length > slotSize) {
+            throw new IllegalStateException("Credential record of " + value.length + " bytes does not fit paypal.credentials.file.slot-size");
+        }
+        String token = UUID.randomUUID().toString();
+        int bucket = bucketOf(token);
+        try (BucketLock ignored = lockBucket(bucket, false)) {
+            long now = System.currentTimeMillis();
+            int target = -1;
+            int oldest = -1;
+            long oldestExpiry = Long.MAX_VALUE;
+            for (int i = 0; i < BUCKET_SLOTS && target < 0; i++) {
+                int slot = bucket * BUCKET_SLOTS + i;
+                ByteBuffer segment = segmentOf(slot);
+                int base = offsetOf(slot);
+                int state = segment.getInt(base + STATE);
+                long expiry = segment.getLong(base + EXPIRES_AT);
+                if (state != USED || now >= expiry) {
+                    target = slot;
+                } else if (expiry < oldestExpiry) {
+                    oldest = slot;
+                    oldestExpiry = expiry;
+                }
+            }
+            if (target < 0) {
+                // Bucket full of live tokens: the one closest to expiry makes room
+                target = oldest;
+                evictions.increment();
+            }
+            write(target, token, expiresAtMillis, value);
+        }
+        return token;
+    }
+
+    @Override
+    public CredentialLookup lookup(String token) {
+        if (token == null || token.length() != TOKEN_LENGTH) {
+            return CredentialLookup.miss();
+        }
+        int bucket = bucketOf(token);
+        String sealed = null;
+        try (BucketLock ignored = lockBucket(bucket, true)) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < BUCKET_SLOTS; i++) {
+                int slot = bucket * BUCKET_SLOTS + i;
+                ByteBuffer segment = segmentOf(slot);
+                int base = offsetOf(slot);
+                int state = segment.getInt(base + STATE);
+                if (state == EMPTY) {
+                    break;
+                }
+                if (state == USED && tokenMatches(segment, base, token)) {
+                    if (now >= segment.getLong(base + EXPIRES_AT)) {
+                        // Counted as an expiration by the sweep that tombstones it
+                        return CredentialLookup.expired();
+                    }
+                    sealed = readValue(segment, base);
+                    break;
+                }
+            }
+        }
+        if (sealed == null) {
+            return CredentialLookup.miss();
+        }
+        CredentialTokenCodec.Decoded decoded = tokenCodec.decode(sealed);
+        return decoded != null ? CredentialLookup.hit(decoded.getCredential(), decoded.getExpiresAtMillis())
+                : CredentialLookup.miss();
+    }
+
+    @Override
+    public boolean outlivesRestart() {
+        return true;
+    }
+
+    // Live records as of the last sweep, other processes write to the same file
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        scheduler.shutdownNow();
+        flush();
+        channel.close();
+    }
+
+    void sweep() {
+        long now = System.currentTimeMillis();
+        int live = 0;
+        for (int bucket = 0; bucket <= bucketMask; bucket++) {
+            try (BucketLock ignored = lockBucket(bucket, false)) {
+                for (int i = 0; i < BUCKET_SLOTS; i++) {
+                    int slot = bucket * BUCKET_SLOTS + i;
+                    ByteBuffer segment = segmentOf(slot);
+                    int base = offsetOf(slot);
+                    if (segment.getInt(base + STATE) != USED) {
+                        continue;
+                    }
+                    if (now >= segment.getLong(base + EXPIRES_AT)) {
+                        // Tombstone rather than empty so lookups keep probing past it
+                        segment.putInt(base + STATE, DELETED);
+                        markDirty(slot);
+                        expirations.increment();
+                    } else {
+                        live++;
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.warn("Credential file sweep stopped early: {}", e.getMessage());
+                return;
+            }
+        }
+        size.set(live);
+    }
+
+    void flush() {
+        for (int i = 0; i < segments.length; i++) {
+            if (dirty[i].compareAndSet(true, false)) {
+                segments[i].force();
+            }
+        }
+    }
+
+    private void write(int slot, String token, long expiresAtMillis, byte[] value) {
+        ByteBuffer segment = segmentOf(slot);
+        int base = offsetOf(slot);
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            segment.put(base + TOKEN + i, (byte) token.charAt(i));
+        }
+        segment.putLong(base + EXPIRES_AT, expiresAtMillis);
+        segment.putShort(base + VALUE_LENGTH, (short) value.length);
+        for (int i = 0; i < value.length; i++) {
+            segment.put(base + VALUE + i, value[i]);
+        }
+        segment.putInt(base + STATE, USED);
+        markDirty(slot);
+        size.incrementAndGet();
+    }
+
+    private static boolean tokenMatches(ByteBuffer segment, int base, String token) {
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            if (segment.get(base + TOKEN + i) != (byte) token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readValue(ByteBuffer segment, int base) {
+        int length = segment.getShort(base + VALUE_LENGTH);
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = segment.get(base + VALUE + i);
+        }
+        return new String(value, StandardCharsets.US_ASCII);
+    }
+
+    private int bucketOf(String token) {
+        int hash = token.hashCode();
+        return (hash ^ (hash >>> 16)) & bucketMask;
+    }
+
+    private ByteBuffer segmentOf(int slot) {
+        return segments[slot >>> segmentShift];
+    }
+
+    private int offsetOf(int slot) {
+        return (slot & segmentSlotMask) * slotSize;
+    }
+
+    private void markDirty(int slot) {
+        dirty[slot >>> segmentShift].set(true);
+    }
+
+    // The in-process lock keeps this JVM from requesting overlapping file locks, which the JDK rejects
+    private BucketLock lockBucket(int bucket, boolean shared) {
+        ReentrantLock lock = bucketLocks[bucket % bucketLocks.length];
+        lock.lock();
+        try {
+            long position = slotSize + (long) bucket * BUCKET_SLOTS * slotSize;
+            FileLock fileLock = currentChannel().lock(position, (long) BUCKET_SLOTS * slotSize, shared);
+            return new BucketLock(lock, fileLock);
+        } catch (IOException e) {
+            lock.unlock();
+            throw new UncheckedIOException("Could not lock credential file " + path, e);
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    // An interrupted lock() closes the channel; the mappings survive, so only the lock channel is reopened
+    private FileChannel currentChannel() throws IOException {
+        FileChannel current = channel;
+        if (current.isOpen()) {
+            return current;
+        }
+        channelLock.lock();
+        try {
+            if (!channel.isOpen()) {
+                channel = openChannel();
+            }
+            return channel;
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void initializeHeader(int slots) throws IOException {
+        try (FileLock ignored = channel.lock(0, slotSize, false)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            // Flipped as a Buffer, a JDK 9+ build would otherwise link ByteBuffer.flip() which Java 8 lacks
+            if (channel.size() == 0) {
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(slots).putInt(slotSize);
+                ((Buffer) header).flip();
+                channel.write(header, 0);
+                // Extend the file up front so every mapped segment is backed
+                channel.write(ByteBuffer.wrap(new byte[1]), slotSize + (long) slots * slotSize - 1);
+                channel.force(true);
+                return;
+            }
+            channel.read(header, 0);
+            ((Buffer) header).flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION
+                    || header.getInt() != slots || header.getInt() != slotSize) {
+                throw new IllegalStateException("Credential file " + path + " was created with a different layout");
+            }
+        }
+    }
+
+    private static final class BucketLock implements AutoCloseable {
+
+        private final ReentrantLock lock;
+        private final FileLock fileLock;
+
+        private BucketLock(ReentrantLock lock, FileLock fileLock) {
+            this.lock = lock;
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (fileLock.isValid()) {
+                    fileLock.release();
+                }
+            } catch (IOException ignored) {
+                // Released with the channel anyway
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
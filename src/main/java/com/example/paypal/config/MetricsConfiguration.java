@@ -0,0 +1,68 @@
+package com.example.paypal.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+@Configuration
+public class MetricsConfiguration {
+
+    // Replaces Boot's default JSON converter with one that times writing each response body
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper,
+                                                                                   PaymentMetrics metrics) {
+        return new MappingJackson2HttpMessageConverter(objectMapper) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                    throws IOException, HttpMessageNotWritableException {
+                PaymentTrace trace = PaymentTrace.current();
+                if (trace == null || trace.isHeaderWritten()) {
+                    long startedAt = System.nanoTime();
+                    try {
+                        super.writeInternal(object, type, outputMessage);
+                    } finally {
+                        metrics.recordSerialization(object.getClass(), System.nanoTime() - startedAt);
+                    }
+                    return;
+                }
+                // Headers go out with the first body byte, so a traced body is written to a buffer first and
+                // its serialization time makes it into Server-Timing
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+                long startedAt = System.nanoTime();
+                super.writeInternal(object, type, new HttpOutputMessage() {
+                    @Override
+                    public OutputStream getBody() {
+                        return buffer;
+                    }
+
+                    @Override
+                    public HttpHeaders getHeaders() {
+                        return outputMessage.getHeaders();
+                    }
+                });
+                metrics.recordSerialization(object.getClass(), System.nanoTime() - startedAt);
+                trace.writeHeader(outputMessage.getHeaders());
+                buffer.writeTo(outputMessage.getBody());
+            }
+        };
+    }
+
+    // Synchronous endpoints only, async payments finish on bulkhead threads after the response is started
+    @Bean
+    public FilterRegistrationBean<PaymentTraceFilter> paymentTraceFilter(SlowPaymentLog slowPayments) {
+        FilterRegistrationBean<PaymentTraceFilter> registration = new FilterRegistrationBean<>(
+                new PaymentTraceFilter(slowPayments));
+        registration.addUrlPatterns("/api/payment/process", "/api/credentials/validate");
+        return registration;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.PayPalCredential;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Read-through cache in front of a shared backend so per-payment lookups stay in-process.
+// Misses are never cached: a token issued by another node a moment ago must still resolve. A hit is kept for ttl
+// or until the token itself expires, whichever comes first.
+public class NearCachedCredentialStore implements CredentialStore, DisposableBean {
+
+    private final CredentialStore delegate;
+    private final long ttlNanos;
+    private final long tokenTtlMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder evictions = new LongAdder();
+
+    // tokenTtl is how long the delegate keeps a token it saves
+    public NearCachedCredentialStore(CredentialStore delegate, Duration ttl, Duration tokenTtl, int maxEntries) {
+        this.delegate = delegate;
+        this.ttlNanos = ttl.toNanos();
+        this.tokenTtlMillis = tokenTtl.toMillis();
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public String save(PayPalCredential credential) {
+        // Taken before the save, so it is no later than the expiry the delegate gives the token
+        long expiresAtMillis = System.currentTimeMillis() + tokenTtlMillis;
+        String token = delegate.save(credential);
+        cache(token, credential, expiresAtMillis);
+        return token;
+    }
+
+    @Override
+    public CredentialLookup lookup(String token) {
+        if (token == null) {
+            return CredentialLookup.miss();
+        }
+        Entry entry = entries.get(token);
+        if (entry != null) {
+            if (System.nanoTime() - entry.expiresAtNanos < 0) {
+                return CredentialLookup.hit(entry.credential, entry.expiresAtMillis);
+            }
+            entries.remove(token, entry);
+        }
+        CredentialLookup lookup = delegate.lookup(token);
+        if (lookup.getCredential() != null) {
+            cache(token, lookup.getCredential(), lookup.getExpiresAtMillis());
+        }
+        return lookup;
+    }
+
+    @Override
+    public boolean outlivesRestart() {
+        return delegate.outlivesRestart();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long evictions() {
+        return delegate.evictions() + evictions.sum();
+    }
+
+    @Override
+    public long expirations() {
+        return delegate.expirations();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (delegate instanceof DisposableBean) {
+            ((DisposableBean) delegate).destroy();
+        }
+    }
+
+    private void cache(String token, PayPalCredential credential, long expiresAtMillis) {
+        long tokenLeftNanos = TimeUnit.MILLISECONDS.toNanos(expiresAtMillis - System.currentTimeMillis());
+        if (tokenLeftNanos <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            long now = System.nanoTime();
+            entries.values().removeIf(entry -> now - entry.expiresAtNanos >= 0);
+            if (entries.size() >= maxEntries) {
+                evictions.add(entries.size());
+                entries.clear();
+            }
+        }
+        long expiresAtNanos = System.nanoTime() + Math.min(ttlNanos, tokenLeftNanos);
+        entries.put(token, new Entry(credential, expiresAtNanos, expiresAtMillis));
+    }
+
+    private static final class Entry {
+
+        private final PayPalCredential credential;
+        private final long expiresAtNanos;
+        private final long expiresAtMillis;
+
+        private Entry(PayPalCredential credential, long expiresAtNanos, long expiresAtMillis) {
+            this.credential = credential;
+            this.expiresAtNanos = expiresAtNanos;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.PayPalCredential;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+public class PayPalClientCache implements DisposableBean {
+
+    private final PayPalClientFactory clientFactory;
+    private final Map<CredentialKey, TokenCachingPayPalHttpClient> clients = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final int maxEntries;
+    private final long idleTimeoutNanos;
+    private final long refreshAheadNanos;
+    private final long expirySkewNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PayPalClientCache(PayPalClientFactory clientFactory,
+                             @Value("${paypal.client-cache.max-entries:1000}") int maxEntries,
+                             @Value("${paypal.client-cache.idle-timeout:30m}") Duration idleTimeout,
+                             @Value("${paypal.client-cache.refresh-ahead:5m}") Duration refreshAhead,
+                             @Value("${paypal.client-cache.expiry-skew:60s}") Duration expirySkew) {
+        this.clientFactory = clientFactory;
+        this.maxEntries = maxEntries;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.refreshAheadNanos = refreshAhead.toNanos();
+        this.expirySkewNanos = expirySkew.toNanos();
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("paypal-token-refresh-");
+        threadFactory.setDaemon(true);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        long sweepMillis = Math.max(1000, idleTimeout.toMillis() / 2);
+        this.scheduler.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public TokenCachingPayPalHttpClient client(PayPalCredential credential) {
+        CredentialKey key = CredentialKey.of(credential);
+        TokenCachingPayPalHttpClient client = clients.get(key);
+        if (client != null) {
+            return client;
+        }
+        client = clients.computeIfAbsent(key,
+                ignored -> clientFactory.cachingClient(credential, this));
+        if (clients.size() > maxEntries) {
+            evictLeastRecentlyUsed();
+        }
+        return client;
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long refreshes() {
+        return refreshes.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordRefresh() {
+        refreshes.increment();
+    }
+
+    Executor refreshExecutor() {
+        return scheduler;
+    }
+
+    long refreshAheadNanos() {
+        return refreshAheadNanos;
+    }
+
+    long expirySkewNanos() {
+        return expirySkewNanos;
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<TokenCachingPayPalHttpClient> iterator = clients.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastAccessNanos() > idleTimeoutNanos) {
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (clients.size() > maxEntries) {
+            CredentialKey oldestKey = null;
+            long oldestAccess = 0;
+            for (Map.Entry<CredentialKey, TokenCachingPayPalHttpClient> entry : clients.entrySet()) {
+                long access = entry.getValue().lastAccessNanos();
+                if (oldestKey == null || access - oldestAccess < 0) {
+                    oldestKey = entry.getKey();
+                    oldestAccess = access;
+                }
+            }
+            if (oldestKey == null || clients.remove(oldestKey) == null) {
+                return;
+            }
+            evictions.increment();
+        }
+    }
+}
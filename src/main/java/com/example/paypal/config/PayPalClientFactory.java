@@ -4,22 +4,62 @@ import com.example.paypal.model.EnvironmentMode;
 import com.example.paypal.model.PayPalCredential;
 import com.paypal.core.PayPalEnvironment;
 import com.paypal.core.PayPalHttpClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
 
 @Component
 public class PayPalClientFactory {
 
+    private final PayPalTransport transport;
+    private final PaymentMetrics metrics;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final String baseUrlOverride;
+    private final String sdkVersion;
+
+    public PayPalClientFactory(PayPalTransport transport,
+                               @Value("${paypal.http.connect-timeout:10s}") Duration connectTimeout,
+                               @Value("${paypal.http.read-timeout:30s}") Duration readTimeout,
+                               @Value("${paypal.api.base-url:}") String baseUrlOverride,
+                               @Value("${paypal.sdk.version}") String sdkVersion,
+                               PaymentMetrics metrics) {
+        this.transport = transport;
+        this.metrics = metrics;
+        this.baseUrlOverride = StringUtils.hasText(baseUrlOverride) ? baseUrlOverride : null;
+        this.sdkVersion = sdkVersion;
+        this.connectTimeoutMillis = (int) connectTimeout.toMillis();
+        this.readTimeoutMillis = (int) readTimeout.toMillis();
+    }
+
     public PayPalHttpClient fromCredential(PayPalCredential credential) {
-        PayPalEnvironment environment = toEnvironment(credential);
+        PayPalEnvironment environment = environment(credential);
         return new PayPalHttpClient(environment);
     }
 
-    private PayPalEnvironment toEnvironment(PayPalCredential credential) {
+    TokenCachingPayPalHttpClient cachingClient(PayPalCredential credential, PayPalClientCache cache) {
+        TokenCachingPayPalHttpClient client = new TokenCachingPayPalHttpClient(environment(credential), transport, cache,
+                credential.getMode(), sdkVersion, metrics);
+        client.setConnectTimeout(connectTimeoutMillis);
+        client.setReadTimeout(readTimeoutMillis);
+        return client;
+    }
+
+    public PayPalEnvironment environment(PayPalCredential credential) {
+        if (baseUrlOverride != null) {
+            // Points every credential at a stub or simulator instead of PayPal
+            return new PayPalEnvironment(credential.getClientId(), credential.getClientSecret(), baseUrlOverride, baseUrlOverride);
+        }
         EnvironmentMode mode = credential.getMode();
         if (mode == EnvironmentMode.LIVE) {
             return new PayPalEnvironment.Live(credential.getClientId(), credential.getClientSecret());
         }
         return new PayPalEnvironment.Sandbox(credential.getClientId(), credential.getClientSecret());
     }
-}
 
+    public PayPalTransport transport() {
+        return transport;
+    }
+}
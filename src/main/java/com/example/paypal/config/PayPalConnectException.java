@@ -0,0 +1,14 @@
+package com.example.paypal.config;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+// A transport failed before any part of the request went out, so even a create without a request id is safe to
+// repeat. Transports raise this from what they were doing at the time, not from the wording of the cause.
+public class PayPalConnectException extends ConnectException {
+
+    public PayPalConnectException(String host, IOException cause) {
+        super("Could not connect to " + host + ": " + cause.getMessage());
+        initCause(cause);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.Deadline;
+import com.paypal.http.Headers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+// Moves one already-encoded request over the wire; TokenCachingPayPalHttpClient does the SDK encoding on either side
+public interface PayPalTransport {
+
+    // Connect and read timeouts bound each phase; the deadline bounds the whole exchange, waiting for a connection
+    // and reading the body included
+    Response execute(String method, String url, Headers headers, byte[] body,
+                     int connectTimeoutMillis, int readTimeoutMillis, Deadline deadline) throws IOException;
+
+    default Map<String, Number> stats() {
+        return Collections.emptyMap();
+    }
+
+    final class Response implements Closeable {
+
+        private final int statusCode;
+        private final Headers headers;
+        private final InputStream body;
+        private final Closeable resource;
+
+        public Response(int statusCode, Headers headers, InputStream body, Closeable resource) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.resource = resource;
+        }
+
+        public int statusCode() {
+            return statusCode;
+        }
+
+        public Headers headers() {
+            return headers;
+        }
+
+        public InputStream body() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (resource != null) {
+                resource.close();
+            }
+        }
+    }
+}
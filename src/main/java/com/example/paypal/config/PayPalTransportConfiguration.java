@@ -0,0 +1,39 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.ThreadingMode;
+import com.example.paypal.model.TransportMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class PayPalTransportConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(PayPalTransportConfiguration.class);
+
+    @Bean
+    public PayPalTransport payPalTransport(@Value("${paypal.http.transport:JDK}") TransportMode mode,
+                                           @Value("${paypal.http.pool.max-idle-connections:20}") int maxIdleConnections,
+                                           @Value("${paypal.http.pool.keep-alive:5m}") Duration keepAlive,
+                                           @Value("${paypal.http.pool.max-requests-per-route:64}") int maxRequestsPerRoute,
+                                           @Value("${paypal.http.pool.acquire-timeout:5s}") Duration acquireTimeout,
+                                           @Value("${paypal.http.pool.http2:true}") boolean http2,
+                                           @Value("${paypal.http.connect-timeout:10s}") Duration connectTimeout,
+                                           @Value("${paypal.http.read-timeout:30s}") Duration readTimeout,
+                                           @Value("${paypal.threads.mode:PLATFORM}") ThreadingMode threadingMode) {
+        if (mode == TransportMode.POOLED) {
+            if (http2 && threadingMode == ThreadingMode.VIRTUAL) {
+                // OkHttp's HTTP/2 streams wait for frames inside monitors, which pins virtual threads to their carriers
+                log.info("HTTP/2 disabled for the pooled transport while running on virtual threads");
+                http2 = false;
+            }
+            return new PooledPayPalTransport(maxIdleConnections, keepAlive, maxRequestsPerRoute, acquireTimeout,
+                    connectTimeout, readTimeout, http2);
+        }
+        return new UrlConnectionTransport();
+    }
+}
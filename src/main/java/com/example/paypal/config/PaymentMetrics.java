@@ -0,0 +1,180 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.EnvironmentMode;
+import com.paypal.core.request.AccessTokenRequest;
+import com.paypal.core.request.RefreshTokenRequest;
+import com.paypal.http.HttpRequest;
+import com.paypal.orders.OrdersCaptureRequest;
+import com.paypal.orders.OrdersCreateRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Timers and counters for each stage of a payment. Meters are looked up once per tag combination and kept in
+// arrays indexed by enum ordinals, so recording is a nanoTime pair and an array read on the hot path.
+// SLO buckets come from management.metrics.distribution.slo.* in application.properties. The same readings feed
+// the PaymentTrace of the current request, if it has one.
+@Component
+public class PaymentMetrics {
+
+    public enum Operation {
+        TOKEN, CREATE, CAPTURE, GET, OTHER
+    }
+
+    public enum Outcome {
+        SUCCESS, CLIENT_ERROR, SERVER_ERROR, IO_ERROR
+    }
+
+    public enum TokenSource {
+        CACHED, FETCHED
+    }
+
+    public enum OrderStatus {
+        COMPLETED, DECLINED, FAILED, OTHER
+    }
+
+    private static final int ENVIRONMENTS = EnvironmentMode.values().length;
+
+    private final MeterRegistry registry;
+    private final Timer[] requests = new Timer[Operation.values().length * ENVIRONMENTS * Outcome.values().length];
+    private final Timer[] tokenAcquisitions = new Timer[TokenSource.values().length * ENVIRONMENTS];
+    private final Timer[] payloadBuilds = new Timer[ENVIRONMENTS];
+    private final Timer[] credentialLookups = new Timer[CredentialLookup.Outcome.values().length];
+    private final Counter[] orders = new Counter[OrderStatus.values().length * ENVIRONMENTS];
+    private final Map<Class<?>, Timer> serializations = new ConcurrentHashMap<>();
+
+    public PaymentMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public static Operation operation(HttpRequest<?> request) {
+        if (request instanceof OrdersCreateRequest) {
+            return Operation.CREATE;
+        }
+        if (request instanceof OrdersCaptureRequest) {
+            return Operation.CAPTURE;
+        }
+        if (request instanceof AccessTokenRequest || request instanceof RefreshTokenRequest) {
+            return Operation.TOKEN;
+        }
+        return "GET".equalsIgnoreCase(request.verb()) ? Operation.GET : Operation.OTHER;
+    }
+
+    public static Outcome outcome(int status) {
+        if (status >= 200 && status < 300) {
+            return Outcome.SUCCESS;
+        }
+        return status >= 500 ? Outcome.SERVER_ERROR : Outcome.CLIENT_ERROR;
+    }
+
+    // One HTTP round trip to PayPal, retries are separate requests
+    public void recordRequest(Operation operation, EnvironmentMode mode, Outcome outcome, long nanos) {
+        int index = (operation.ordinal() * ENVIRONMENTS + mode.ordinal()) * Outcome.values().length + outcome.ordinal();
+        Timer timer = requests[index];
+        if (timer == null) {
+            timer = Timer.builder("paypal.requests")
+                    .description("PayPal API round trips")
+                    .tag("operation", tag(operation))
+                    .tag("environment", tag(mode))
+                    .tag("outcome", outcome.name())
+                    .register(registry);
+            requests[index] = timer;
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+        if (operation == Operation.CREATE) {
+            PaymentTrace.record(PaymentTrace.Phase.CREATE, nanos);
+        } else if (operation == Operation.CAPTURE) {
+            PaymentTrace.record(PaymentTrace.Phase.CAPTURE, nanos);
+        }
+    }
+
+    public void recordTokenAcquisition(TokenSource source, EnvironmentMode mode, long nanos) {
+        int index = source.ordinal() * ENVIRONMENTS + mode.ordinal();
+        Timer timer = tokenAcquisitions[index];
+        if (timer == null) {
+            timer = Timer.builder("paypal.token.acquisition")
+                    .description("Time to get an OAuth token for a PayPal call, from the cache or a fetch")
+                    .tag("source", tag(source))
+                    .tag("environment", tag(mode))
+                    .register(registry);
+            tokenAcquisitions[index] = timer;
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+        // A fetch's own round trip is part of this, not a phase of its own
+        PaymentTrace.record(PaymentTrace.Phase.TOKEN, nanos);
+    }
+
+    public void recordPayloadBuild(EnvironmentMode mode, long nanos) {
+        Timer timer = payloadBuilds[mode.ordinal()];
+        if (timer == null) {
+            timer = Timer.builder("payment.payload.build")
+                    .description("Encoding the order create request body")
+                    .tag("environment", tag(mode))
+                    .register(registry);
+            payloadBuilds[mode.ordinal()] = timer;
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+        PaymentTrace.record(PaymentTrace.Phase.PAYLOAD, nanos);
+    }
+
+    public void recordCredentialLookup(CredentialLookup.Outcome outcome, long nanos) {
+        Timer timer = credentialLookups[outcome.ordinal()];
+        if (timer == null) {
+            timer = Timer.builder("credential.store.lookups")
+                    .description("Credential token lookups")
+                    .tag("outcome", tag(outcome))
+                    .register(registry);
+            credentialLookups[outcome.ordinal()] = timer;
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+        PaymentTrace.record(PaymentTrace.Phase.CREDENTIAL, nanos);
+    }
+
+    // FAILED also covers payments that ended in an error rather than an order status
+    public void recordOrder(OrderStatus status, EnvironmentMode mode) {
+        int index = status.ordinal() * ENVIRONMENTS + mode.ordinal();
+        Counter counter = orders[index];
+        if (counter == null) {
+            counter = Counter.builder("payment.orders")
+                    .description("Payments by final order status")
+                    .tag("status", status.name())
+                    .tag("environment", tag(mode))
+                    .register(registry);
+            orders[index] = counter;
+        }
+        counter.increment();
+    }
+
+    public static OrderStatus orderStatus(String status) {
+        if ("COMPLETED".equalsIgnoreCase(status)) {
+            return OrderStatus.COMPLETED;
+        }
+        if ("DECLINED".equalsIgnoreCase(status)) {
+            return OrderStatus.DECLINED;
+        }
+        if ("FAILED".equalsIgnoreCase(status)) {
+            return OrderStatus.FAILED;
+        }
+        return OrderStatus.OTHER;
+    }
+
+    // Response bodies are our own DTOs and diagnostics maps, a handful of types
+    public void recordSerialization(Class<?> type, long nanos) {
+        serializations.computeIfAbsent(type, ignored -> Timer.builder("payment.response.serialization")
+                .description("Writing JSON response bodies")
+                .tag("type", type.getSimpleName())
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        PaymentTrace.record(PaymentTrace.Phase.SERIALIZE, nanos);
+    }
+
+    private static String tag(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.paypal.config;
+
+import org.springframework.http.HttpHeaders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Phase timings of the request running on this thread, for its Server-Timing header and the slow payment log.
+// Only traced endpoints have one; PaymentMetrics feeds it from the same nanoTime readings it records anyway.
+public final class PaymentTrace {
+
+    public enum Phase {
+        CREDENTIAL, PAYLOAD, TOKEN, CREATE, CAPTURE, SERIALIZE
+    }
+
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private static final int MAX_DEBUG_IDS = 8;
+    private static final ThreadLocal<PaymentTrace> CURRENT = new ThreadLocal<>();
+
+    private final long startedAtNanos = System.nanoTime();
+    // Retried calls and repeat lookups add up under one phase
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final int[] phaseCounts = new int[Phase.values().length];
+    private List<String> debugIds = Collections.emptyList();
+    private boolean headerWritten;
+
+    private PaymentTrace() {
+    }
+
+    static PaymentTrace start() {
+        PaymentTrace trace = new PaymentTrace();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    static PaymentTrace current() {
+        return CURRENT.get();
+    }
+
+    static void record(Phase phase, long nanos) {
+        PaymentTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.phaseNanos[phase.ordinal()] += nanos;
+            trace.phaseCounts[phase.ordinal()]++;
+        }
+    }
+
+    // PayPal's id for a call, what their support asks for when a request needs looking into
+    static void recordDebugId(String debugId) {
+        PaymentTrace trace = CURRENT.get();
+        if (trace != null && debugId != null && trace.debugIds.size() < MAX_DEBUG_IDS) {
+            if (trace.debugIds.isEmpty()) {
+                trace.debugIds = new ArrayList<>(2);
+            }
+            trace.debugIds.add(debugId);
+        }
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startedAtNanos;
+    }
+
+    boolean isHeaderWritten() {
+        return headerWritten;
+    }
+
+    void writeHeader(HttpHeaders headers) {
+        headers.add(SERVER_TIMING_HEADER, serverTiming());
+        headerWritten = true;
+    }
+
+    void markHeaderWritten() {
+        headerWritten = true;
+    }
+
+    // e.g. credential;dur=0.05, token;dur=0.01, create;dur=21.3, capture;dur=9.8, total;dur=32.0
+    String serverTiming() {
+        StringBuilder header = new StringBuilder(160);
+        for (Phase phase : Phase.values()) {
+            if (phaseCounts[phase.ordinal()] > 0) {
+                appendMetric(header, phase.name().toLowerCase(Locale.ROOT), phaseNanos[phase.ordinal()]);
+            }
+        }
+        appendMetric(header, "total", elapsedNanos());
+        return header.toString();
+    }
+
+    Map<String, Double> phaseMillis() {
+        Map<String, Double> phases = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            if (phaseCounts[phase.ordinal()] > 0) {
+                phases.put(phase.name().toLowerCase(Locale.ROOT), millis(phaseNanos[phase.ordinal()]));
+            }
+        }
+        return phases;
+    }
+
+    List<String> debugIds() {
+        return debugIds;
+    }
+
+    static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    private static void appendMetric(StringBuilder header, String name, long nanos) {
+        if (header.length() > 0) {
+            header.append(", ");
+        }
+        header.append(name).append(";dur=").append(millis(nanos));
+    }
+}
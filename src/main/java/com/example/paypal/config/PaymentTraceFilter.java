@@ -0,0 +1,54 @@
+package com.example.paypal.config;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+// Traces the synchronous payment and credential endpoints. JSON bodies get their Server-Timing header from the
+// message converter, which can still time serialization; errors get it just before sendError, since Tomcat takes
+// no more headers once the error page is pending.
+class PaymentTraceFilter extends OncePerRequestFilter {
+
+    private final SlowPaymentLog slowPayments;
+
+    PaymentTraceFilter(SlowPaymentLog slowPayments) {
+        this.slowPayments = slowPayments;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        PaymentTrace trace = PaymentTrace.start();
+        try {
+            chain.doFilter(request, new HttpServletResponseWrapper(response) {
+                @Override
+                public void sendError(int status, String message) throws IOException {
+                    writeHeader(trace, response);
+                    super.sendError(status, message);
+                }
+
+                @Override
+                public void sendError(int status) throws IOException {
+                    writeHeader(trace, response);
+                    super.sendError(status);
+                }
+            });
+        } finally {
+            PaymentTrace.end();
+            writeHeader(trace, response);
+            slowPayments.offer(request.getRequestURI(), response.getStatus(), trace);
+        }
+    }
+
+    private static void writeHeader(PaymentTrace trace, HttpServletResponse response) {
+        if (!trace.isHeaderWritten() && !response.isCommitted()) {
+            response.addHeader(PaymentTrace.SERVER_TIMING_HEADER, trace.serverTiming());
+            trace.markHeaderWritten();
+        }
+    }
+}
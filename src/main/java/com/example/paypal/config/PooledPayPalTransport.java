@@ -0,0 +1,216 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.Deadline;
+import com.paypal.http.Headers;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// OkHttp with a shared keep-alive pool, TLS session reuse and HTTP/2 negotiated over ALPN where the JDK supports it.
+// OkHttp only caps concurrency for async calls, so synchronous calls go through a semaphore per route.
+public class PooledPayPalTransport implements PayPalTransport, DisposableBean {
+
+    private final OkHttpClient client;
+    private final int maxRequestsPerRoute;
+    private final long acquireTimeoutNanos;
+    private final Map<String, Semaphore> routes = new ConcurrentHashMap<>();
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder newConnections = new LongAdder();
+    private final LongAdder tlsHandshakes = new LongAdder();
+    private final LongAdder http2Acquisitions = new LongAdder();
+    private final LongAdder acquireTimeouts = new LongAdder();
+    private final LongAdder acquireWaitNanos = new LongAdder();
+    private final AtomicLong maxAcquireWaitNanos = new AtomicLong();
+
+    public PooledPayPalTransport(int maxIdleConnections, Duration keepAlive, int maxRequestsPerRoute,
+                                 Duration acquireTimeout, Duration connectTimeout, Duration readTimeout, boolean http2) {
+        this.maxRequestsPerRoute = maxRequestsPerRoute;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(false)
+                .followRedirects(false)
+                .eventListener(new ConnectionStatsListener())
+                .build();
+    }
+
+    @Override
+    public Response execute(String method, String url, Headers headers, byte[] body,
+                            int connectTimeoutMillis, int readTimeoutMillis, Deadline deadline) throws IOException {
+        Request.Builder builder = new Request.Builder().url(url);
+        for (String name : headers) {
+            builder.header(name, headers.header(name));
+        }
+        RequestBody requestBody = null;
+        if (body != null) {
+            String contentType = headers.header("Content-Type");
+            requestBody = RequestBody.create(body, contentType != null ? MediaType.parse(contentType) : null);
+        }
+        RequestPhase phase = new RequestPhase();
+        Request request = builder.method(method, requestBody).tag(RequestPhase.class, phase).build();
+
+        Semaphore route = routes.computeIfAbsent(request.url().host() + ":" + request.url().port(),
+                ignored -> new Semaphore(maxRequestsPerRoute));
+        acquireRoute(route, request, deadline);
+        boolean handedOff = false;
+        try {
+            Call call = clientFor(connectTimeoutMillis, readTimeoutMillis).newCall(request);
+            if (deadline.isBounded()) {
+                // Runs until the body is closed, so a slow trickle of bytes cannot outlive the deadline either
+                call.timeout().timeout(Math.max(1, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+            }
+            okhttp3.Response response = call.execute();
+            Headers responseHeaders = new Headers();
+            for (String name : response.headers().names()) {
+                responseHeaders.header(name, response.header(name));
+            }
+            ResponseBody responseBody = response.body();
+            // The route permit is held until the caller has drained the body
+            Response result = new Response(response.code(), responseHeaders, responseBody.byteStream(), () -> {
+                try {
+                    response.close();
+                } finally {
+                    route.release();
+                }
+            });
+            handedOff = true;
+            return result;
+        } catch (IOException e) {
+            // Cut off by the deadline rather than refused; TokenCachingPayPalHttpClient reports it as a timeout
+            if (deadline.isExpired() && e instanceof InterruptedIOException) {
+                throw e;
+            }
+            if (!phase.requestStarted && !(e instanceof ConnectException)) {
+                throw new PayPalConnectException(request.url().host(), e);
+            }
+            throw e;
+        } finally {
+            if (!handedOff) {
+                route.release();
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Number> stats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        long acquired = acquisitions.sum();
+        long opened = newConnections.sum();
+        stats.put("connectionAcquisitions", acquired);
+        stats.put("newConnections", opened);
+        stats.put("reusedConnections", Math.max(0, acquired - opened));
+        stats.put("tlsHandshakes", tlsHandshakes.sum());
+        stats.put("http2Acquisitions", http2Acquisitions.sum());
+        stats.put("pooledConnections", client.connectionPool().connectionCount());
+        stats.put("idleConnections", client.connectionPool().idleConnectionCount());
+        stats.put("routePermitTimeouts", acquireTimeouts.sum());
+        stats.put("routePermitWaitMillisTotal", TimeUnit.NANOSECONDS.toMillis(acquireWaitNanos.sum()));
+        stats.put("routePermitWaitMillisMax", TimeUnit.NANOSECONDS.toMillis(maxAcquireWaitNanos.get()));
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private OkHttpClient clientFor(int connectTimeoutMillis, int readTimeoutMillis) {
+        if (connectTimeoutMillis == client.connectTimeoutMillis() && readTimeoutMillis == client.readTimeoutMillis()) {
+            return client;
+        }
+        // Derived clients share the pool and dispatcher
+        return client.newBuilder()
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private void acquireRoute(Semaphore route, Request request, Deadline deadline) throws IOException {
+        long startedAt = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = route.tryAcquire(Math.min(acquireTimeoutNanos, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + request.url().host());
+        }
+        long waited = System.nanoTime() - startedAt;
+        acquireWaitNanos.add(waited);
+        maxAcquireWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            acquireTimeouts.increment();
+            if (deadline.isExpired()) {
+                throw new SocketTimeoutException("Deadline expired waiting for a connection to " + request.url().host());
+            }
+            // Nothing was sent, so this is as safe to retry as a refused connection
+            throw new ConnectException("Timed out waiting for a connection to " + request.url().host());
+        }
+    }
+
+    // Set once request headers start going out on a connection; a failure before that sent nothing
+    private static final class RequestPhase {
+
+        private volatile boolean requestStarted;
+    }
+
+    private final class ConnectionStatsListener extends EventListener {
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            RequestPhase phase = call.request().tag(RequestPhase.class);
+            if (phase != null) {
+                phase.requestStarted = true;
+            }
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            newConnections.increment();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsHandshakes.increment();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            acquisitions.increment();
+            if (connection.protocol() == Protocol.HTTP_2) {
+                http2Acquisitions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.paypal.config;
+
+// Request body that is already serialized; the caching client sends these bytes as-is instead of running the SDK encoder
+public final class PreEncodedBody {
+
+    private final byte[] bytes;
+
+    public PreEncodedBody(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.paypal.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The most recent traced requests that took at least threshold, with their phases and PayPal debug ids. Writers
+// claim a slot with one atomic increment and overwrite the oldest entry; nothing blocks on the request path.
+@Component
+public class SlowPaymentLog {
+
+    private final long thresholdNanos;
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong recorded = new AtomicLong();
+
+    public SlowPaymentLog(@Value("${paypal.diagnostics.slow-payments.threshold:1s}") Duration threshold,
+                          @Value("${paypal.diagnostics.slow-payments.capacity:64}") int capacity) {
+        this.thresholdNanos = threshold.toNanos();
+        this.entries = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    void offer(String path, int status, PaymentTrace trace) {
+        long elapsed = trace.elapsedNanos();
+        if (elapsed < thresholdNanos) {
+            return;
+        }
+        Entry entry = new Entry(Instant.now(), path, status, elapsed, trace.phaseMillis(), trace.debugIds());
+        entries.set((int) (recorded.getAndIncrement() % entries.length()), entry);
+    }
+
+    public Map<String, Object> stats() {
+        List<Entry> recent = new ArrayList<>(entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            Entry entry = entries.get(i);
+            if (entry != null) {
+                recent.add(entry);
+            }
+        }
+        recent.sort(Comparator.comparingLong((Entry entry) -> entry.elapsedNanos).reversed());
+        List<Map<String, Object>> slowest = new ArrayList<>(recent.size());
+        for (Entry entry : recent) {
+            slowest.add(entry.toMap());
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("thresholdMillis", Duration.ofNanos(thresholdNanos).toMillis());
+        stats.put("capacity", entries.length());
+        stats.put("recorded", recorded.get());
+        stats.put("slowest", slowest);
+        return stats;
+    }
+
+    private static final class Entry {
+
+        private final Instant at;
+        private final String path;
+        private final int status;
+        private final long elapsedNanos;
+        private final Map<String, Double> phases;
+        private final List<String> debugIds;
+
+        private Entry(Instant at, String path, int status, long elapsedNanos, Map<String, Double> phases,
+                      List<String> debugIds) {
+            this.at = at;
+            this.path = path;
+            this.status = status;
+            this.elapsedNanos = elapsedNanos;
+            this.phases = phases;
+            this.debugIds = debugIds;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("at", at.toString());
+            map.put("path", path);
+            map.put("status", status);
+            map.put("totalMillis", PaymentTrace.millis(elapsedNanos));
+            // Time outside the listed phases is ours: filters, validation, limiter and breaker checks, backoff
+            map.put("phasesMillis", phases);
+            map.put("paypalDebugIds", debugIds);
+            return map;
+        }
+    }
+}
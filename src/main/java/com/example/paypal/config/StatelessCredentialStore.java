@@ -0,0 +1,78 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.PayPalCredential;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class StatelessCredentialStore implements CredentialStore {
+
+    private final CredentialTokenCodec tokenCodec;
+    private final long ttlMillis;
+    private final Map<String, CredentialTokenCodec.Decoded> decodedTokens = new ConcurrentHashMap<>();
+    private final int decodedCacheSize;
+    private final LongAdder expirations = new LongAdder();
+
+    public StatelessCredentialStore(CredentialTokenCodec tokenCodec, Duration ttl, int decodedCacheSize) {
+        if (!tokenCodec.isConfigured()) {
+            throw new IllegalStateException("paypal.credentials.mode=STATELESS requires paypal.credentials.token-keys");
+        }
+        this.tokenCodec = tokenCodec;
+        this.ttlMillis = ttl.toMillis();
+        this.decodedCacheSize = decodedCacheSize;
+    }
+
+    @Override
+    public String save(PayPalCredential credential) {
+        return tokenCodec.encode(credential, System.currentTimeMillis() + ttlMillis);
+    }
+
+    @Override
+    public CredentialLookup lookup(String token) {
+        if (token == null) {
+            return CredentialLookup.miss();
+        }
+        CredentialTokenCodec.Decoded decoded = decodedTokens.get(token);
+        if (decoded == null) {
+            decoded = tokenCodec.decode(token);
+            if (decoded == null) {
+                return CredentialLookup.miss();
+            }
+            // Crude bound: a cold cache only costs one decrypt per token
+            if (decodedTokens.size() >= decodedCacheSize) {
+                decodedTokens.clear();
+            }
+            decodedTokens.put(token, decoded);
+        }
+        if (System.currentTimeMillis() >= decoded.getExpiresAtMillis()) {
+            decodedTokens.remove(token);
+            expirations.increment();
+            return CredentialLookup.expired();
+        }
+        return CredentialLookup.hit(decoded.getCredential(), decoded.getExpiresAtMillis());
+    }
+
+    // The token carries the credential, any node with the keys resolves it
+    @Override
+    public boolean outlivesRestart() {
+        return true;
+    }
+
+    // Nothing is held per token beyond the decrypt cache
+    @Override
+    public int size() {
+        return decodedTokens.size();
+    }
+
+    @Override
+    public long evictions() {
+        return 0;
+    }
+
+    @Override
+    public long expirations() {
+        return expirations.sum();
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.paypal.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// paypal.threads.mode=VIRTUAL hands every Tomcat request to its own virtual thread instead of the worker pool
+@Configuration
+@ConditionalOnProperty(name = "paypal.threads.mode", havingValue = "VIRTUAL")
+public class ThreadingConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadingConfiguration.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        // Fails startup on an older JVM rather than quietly running on platform threads
+        VirtualThreads.factory("tomcat-handler-");
+        log.info("Tomcat requests run on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.perTaskExecutor("tomcat-handler-"));
+    }
+}
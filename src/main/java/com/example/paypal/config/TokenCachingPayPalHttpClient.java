@@ -0,0 +1,228 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.Deadline;
+import com.example.paypal.model.EnvironmentMode;
+import com.paypal.core.PayPalEnvironment;
+import com.paypal.core.PayPalHttpClient;
+import com.paypal.core.object.AccessToken;
+import com.paypal.core.request.AccessTokenRequest;
+import com.paypal.core.request.RefreshTokenRequest;
+import com.paypal.http.Headers;
+import com.paypal.http.HttpRequest;
+import com.paypal.http.HttpResponse;
+import com.paypal.http.exceptions.HttpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class TokenCachingPayPalHttpClient extends PayPalHttpClient {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenCachingPayPalHttpClient.class);
+
+    private static final String DEBUG_ID_HEADER = "PayPal-Debug-Id";
+    private static final String TECH_STACK = "Java" + System.getProperty("java.version");
+
+    private final PayPalEnvironment environment;
+    private final PayPalTransport transport;
+    private final PayPalClientCache cache;
+    private final EnvironmentMode mode;
+    private final String sdkVersion;
+    private final PaymentMetrics metrics;
+    // Guards the token exchange so only one fetch runs at a time for this credential
+    private final ReentrantLock fetchLock = new ReentrantLock();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private volatile CachedToken token;
+    private volatile long lastAccessNanos = System.nanoTime();
+
+    TokenCachingPayPalHttpClient(PayPalEnvironment environment, PayPalTransport transport, PayPalClientCache cache,
+                                 EnvironmentMode mode, String sdkVersion, PaymentMetrics metrics) {
+        super(environment);
+        this.environment = environment;
+        this.transport = transport;
+        this.cache = cache;
+        this.mode = mode;
+        this.sdkVersion = sdkVersion;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <T> HttpResponse<T> execute(HttpRequest<T> request) throws IOException {
+        return execute(request, Deadline.none());
+    }
+
+    // Same request/response handling as the SDK's HttpClient, but the bytes travel over the configured transport
+    // and the connect and read timeouts shrink to what is left of the deadline, token fetch included
+    public <T> HttpResponse<T> execute(HttpRequest<T> request, Deadline deadline) throws IOException {
+        lastAccessNanos = System.nanoTime();
+        HttpRequest<T> prepared = request.copy();
+        Headers headers = prepared.headers();
+        headers.headerIfNotPresent("User-Agent", getUserAgent());
+        headers.header("sdk_name", "Checkout SDK");
+        headers.header("sdk_version", sdkVersion);
+        headers.header("sdk_tech_stack", TECH_STACK);
+        headers.header("api_integration_type", "PAYPALSDK");
+        headers.headerIfNotPresent("Accept-Encoding", "gzip");
+        if (!isAuthRequest(request) && headers.header("Authorization") == null) {
+            headers.header("Authorization", authorization(deadline));
+        }
+        Object requestBody = prepared.requestBody();
+        byte[] body = null;
+        if (requestBody instanceof PreEncodedBody) {
+            body = ((PreEncodedBody) requestBody).bytes();
+        } else if (requestBody != null) {
+            body = getEncoder().serializeRequest(prepared);
+        }
+
+        // Token acquisition is timed on its own, this is the round trip for the request itself
+        long startedAt = System.nanoTime();
+        PaymentMetrics.Outcome outcome = PaymentMetrics.Outcome.IO_ERROR;
+        try (PayPalTransport.Response response = transport.execute(prepared.verb().toUpperCase(),
+                environment.baseUrl() + prepared.path(), headers, body,
+                deadline.capMillis(getConnectTimeout()), deadline.capMillis(getReadTimeout()), deadline)) {
+            int status = response.statusCode();
+            Headers responseHeaders = response.headers();
+            PaymentTrace.recordDebugId(responseHeaders.header(DEBUG_ID_HEADER));
+            if (status >= 200 && status <= 206) {
+                T result = null;
+                if (!Void.class.isAssignableFrom(prepared.responseClass())) {
+                    result = getEncoder().deserializeResponse(response.body(), prepared.responseClass(), responseHeaders);
+                }
+                outcome = PaymentMetrics.Outcome.SUCCESS;
+                return new HttpResponse<T>(responseHeaders, status, result) {
+                };
+            }
+            String error = getEncoder().deserializeResponse(response.body(), String.class, responseHeaders);
+            outcome = PaymentMetrics.outcome(status);
+            throw new HttpException(error, status, responseHeaders);
+        } catch (InterruptedIOException e) {
+            // The transport cancelled the exchange at the deadline; report it like any other timeout
+            if (deadline.isExpired() && !(e instanceof SocketTimeoutException) && !Thread.currentThread().isInterrupted()) {
+                SocketTimeoutException timeout = new SocketTimeoutException("PayPal did not answer within the deadline");
+                timeout.initCause(e);
+                throw timeout;
+            }
+            throw e;
+        } finally {
+            metrics.recordRequest(PaymentMetrics.operation(request), mode, outcome, System.nanoTime() - startedAt);
+        }
+    }
+
+    public String authorization() throws IOException {
+        return authorization(Deadline.none());
+    }
+
+    public String authorization(Deadline deadline) throws IOException {
+        CachedToken current = token;
+        long now = System.nanoTime();
+        if (current != null && now - current.staleAtNanos < 0) {
+            cache.recordHit();
+            if (now - current.refreshAtNanos >= 0) {
+                scheduleRefresh();
+            }
+            metrics.recordTokenAcquisition(PaymentMetrics.TokenSource.CACHED, mode, System.nanoTime() - now);
+            return current.authorization;
+        }
+        cache.recordMiss();
+        // Includes waiting for a fetch already in flight for this credential
+        String authorization = fetchIfStale(current, deadline).authorization;
+        metrics.recordTokenAcquisition(PaymentMetrics.TokenSource.FETCHED, mode, System.nanoTime() - now);
+        return authorization;
+    }
+
+    long lastAccessNanos() {
+        return lastAccessNanos;
+    }
+
+    private CachedToken fetchIfStale(CachedToken seen, Deadline deadline) throws IOException {
+        lockWithin(deadline);
+        try {
+            CachedToken current = token;
+            if (current != seen && current != null && System.nanoTime() - current.staleAtNanos < 0) {
+                return current;
+            }
+            return fetch(deadline);
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+
+    private void lockWithin(Deadline deadline) throws IOException {
+        if (!deadline.isBounded()) {
+            fetchLock.lock();
+            return;
+        }
+        try {
+            if (!fetchLock.tryLock(deadline.remainingNanos(), TimeUnit.NANOSECONDS)) {
+                throw new SocketTimeoutException("Timed out waiting for another PayPal token fetch");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a PayPal token fetch");
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            cache.refreshExecutor().execute(this::refreshInBackground);
+        } catch (RuntimeException e) {
+            refreshScheduled.set(false);
+            log.debug("Could not schedule token refresh for {}", environment.clientId(), e);
+        }
+    }
+
+    private void refreshInBackground() {
+        fetchLock.lock();
+        try {
+            CachedToken current = token;
+            if (current == null || System.nanoTime() - current.refreshAtNanos >= 0) {
+                fetch(Deadline.none());
+                cache.recordRefresh();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep serving the old token until it goes stale, the next caller retries in the foreground
+            log.warn("Background token refresh failed for {}: {}", environment.clientId(), e.getMessage());
+        } finally {
+            fetchLock.unlock();
+            refreshScheduled.set(false);
+        }
+    }
+
+    private CachedToken fetch(Deadline deadline) throws IOException {
+        long startedAt = System.nanoTime();
+        AccessToken accessToken = execute(new AccessTokenRequest(environment), deadline).result();
+        CachedToken fetched = new CachedToken(accessToken.authorizationString(), startedAt,
+                accessToken.expiresIn() != null ? accessToken.expiresIn() : 0, cache);
+        token = fetched;
+        return fetched;
+    }
+
+    private static boolean isAuthRequest(HttpRequest<?> request) {
+        return request instanceof AccessTokenRequest || request instanceof RefreshTokenRequest;
+    }
+
+    private static final class CachedToken {
+
+        private final String authorization;
+        private final long staleAtNanos;
+        private final long refreshAtNanos;
+
+        private CachedToken(String authorization, long fetchedAtNanos, int expiresInSeconds, PayPalClientCache cache) {
+            long lifetime = TimeUnit.SECONDS.toNanos(expiresInSeconds);
+            long usable = Math.max(0, lifetime - cache.expirySkewNanos());
+            this.authorization = authorization;
+            this.staleAtNanos = fetchedAtNanos + usable;
+            // Short-lived tokens refresh halfway through instead of never
+            long refreshAhead = Math.min(cache.refreshAheadNanos(), usable / 2);
+            this.refreshAtNanos = staleAtNanos - refreshAhead;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.Deadline;
+import com.paypal.http.Headers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+// JDK HttpURLConnection, as the SDK does, minus the per-request disconnect() so the JDK keep-alive cache can reuse sockets
+public class UrlConnectionTransport implements PayPalTransport {
+
+    @Override
+    public Response execute(String method, String url, Headers headers, byte[] body,
+                            int connectTimeoutMillis, int readTimeoutMillis, Deadline deadline) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestMethod(method);
+        for (String name : headers) {
+            connection.setRequestProperty(name, headers.header(name));
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+        }
+        try {
+            // Connecting up front separates a connect or handshake timeout, with nothing sent, from a read timeout
+            connection.connect();
+        } catch (IOException e) {
+            throw new PayPalConnectException(connection.getURL().getHost(), e);
+        }
+        // The connect may have used up most of the deadline; HttpURLConnection reads the timeout at each read
+        connection.setReadTimeout(deadline.capMillis(readTimeoutMillis));
+        if (body != null) {
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+            connection.setReadTimeout(deadline.capMillis(readTimeoutMillis));
+        }
+        int status = connection.getResponseCode();
+        Headers responseHeaders = new Headers();
+        for (Map.Entry<String, ?> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null) {
+                responseHeaders.header(header.getKey(), connection.getHeaderField(header.getKey()));
+            }
+        }
+        InputStream stream = status >= 200 && status <= 206 ? connection.getInputStream() : connection.getErrorStream();
+        if (stream == null) {
+            stream = new ByteArrayInputStream(new byte[0]);
+        }
+        return new Response(status, responseHeaders, stream, stream);
+    }
+}
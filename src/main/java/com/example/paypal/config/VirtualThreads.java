@@ -0,0 +1,59 @@
+package com.example.paypal.config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+// Thread.ofVirtual() looked up reflectively so the same classes run on the Java 8 baseline and use virtual
+// threads when started on Java 21 or later
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            // Java 19 and 20 only have them as a preview and throw unless it is enabled
+            factory.invoke(ofVirtual.invoke(null));
+        } catch (Exception | LinkageError e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean available() {
+        return OF_VIRTUAL != null;
+    }
+
+    public static ThreadFactory factory(String namePrefix) {
+        if (!available()) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread factory", e);
+        }
+    }
+
+    // Starts a new virtual thread per task, there is nothing to size or shut down
+    public static Executor perTaskExecutor(String namePrefix) {
+        ThreadFactory threadFactory = factory(namePrefix);
+        return task -> threadFactory.newThread(task).start();
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.paypal.controller;
+
+import com.example.paypal.config.CredentialStore;
+import com.example.paypal.config.PayPalClientCache;
+import com.example.paypal.config.PayPalTransport;
+import com.example.paypal.config.SlowPaymentLog;
+import com.example.paypal.model.CardRejection;
+import com.example.paypal.model.PaymentAttempt;
+import com.example.paypal.service.BatchPaymentProcessor;
+import com.example.paypal.service.CardPreValidator;
+import com.example.paypal.service.CredentialVerificationCache;
+import com.example.paypal.service.IdempotencyCache;
+import com.example.paypal.service.PayPalPaymentService;
+import com.example.paypal.service.PaymentAttemptJournal;
+import com.example.paypal.service.PaymentAttemptReader;
+import com.example.paypal.service.SingleFlight;
+import com.example.paypal.service.StreamingPaymentProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping("/diagnostics")
+public class DiagnosticsController {
+
+    private static final int MAX_ATTEMPT_ENTRIES = 1000;
+
+    private final PayPalClientCache clientCache;
+    private final CredentialVerificationCache verificationCache;
+    private final PayPalPaymentService paymentService;
+    private final CredentialStore credentialStore;
+    private final PayPalTransport transport;
+    private final CardPreValidator cardPreValidator;
+    private final BatchPaymentProcessor batchProcessor;
+    private final StreamingPaymentProcessor streamProcessor;
+    private final SlowPaymentLog slowPayments;
+    private final boolean attemptEntriesExposed;
+
+    public DiagnosticsController(PayPalClientCache clientCache,
+                                 CredentialVerificationCache verificationCache,
+                                 PayPalPaymentService paymentService,
+                                 CredentialStore credentialStore,
+                                 PayPalTransport transport,
+                                 CardPreValidator cardPreValidator,
+                                 BatchPaymentProcessor batchProcessor,
+                                 StreamingPaymentProcessor streamProcessor,
+                                 SlowPaymentLog slowPayments,
+                                 @Value("${paypal.attempt-journal.http-entries:false}") boolean attemptEntriesExposed) {
+        this.clientCache = clientCache;
+        this.verificationCache = verificationCache;
+        this.paymentService = paymentService;
+        this.credentialStore = credentialStore;
+        this.transport = transport;
+        this.cardPreValidator = cardPreValidator;
+        this.batchProcessor = batchProcessor;
+        this.streamProcessor = streamProcessor;
+        this.slowPayments = slowPayments;
+        this.attemptEntriesExposed = attemptEntriesExposed;
+    }
+
+    @GetMapping("/client-cache")
+    public Map<String, Object> clientCache() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", clientCache.size());
+        stats.put("hits", clientCache.hits());
+        stats.put("misses", clientCache.misses());
+        stats.put("refreshes", clientCache.refreshes());
+        stats.put("evictions", clientCache.evictions());
+        return stats;
+    }
+
+    @GetMapping("/credential-verifications")
+    public Map<String, Object> credentialVerifications() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", verificationCache.size());
+        stats.put("hits", verificationCache.hits());
+        stats.put("misses", verificationCache.misses());
+        SingleFlight<?, ?> flight = paymentService.verificationFlight();
+        stats.put("executed", flight.executed());
+        stats.put("coalesced", flight.coalesced());
+        stats.put("inFlight", flight.inFlight());
+        return stats;
+    }
+
+    @GetMapping("/credential-store")
+    public Map<String, Object> credentialStore() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", credentialStore.size());
+        stats.put("evictions", credentialStore.evictions());
+        stats.put("expirations", credentialStore.expirations());
+        return stats;
+    }
+
+    @GetMapping("/transport")
+    public Map<String, Object> transport() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("type", transport.getClass().getSimpleName());
+        stats.putAll(transport.stats());
+        return stats;
+    }
+
+    @GetMapping("/payment-bulkheads")
+    public Map<String, Object> paymentBulkheads() {
+        return paymentService.bulkheads().stats();
+    }
+
+    @GetMapping("/payment-batches")
+    public Map<String, Object> paymentBatches() {
+        return batchProcessor.stats();
+    }
+
+    @GetMapping("/payment-streams")
+    public Map<String, Object> paymentStreams() {
+        return streamProcessor.stats();
+    }
+
+    @GetMapping("/concurrency-limits")
+    public Map<String, Object> concurrencyLimits() {
+        return paymentService.limiter().stats();
+    }
+
+    @GetMapping("/paypal-calls")
+    public Map<String, Object> paypalCalls() {
+        return paymentService.callGuard().stats();
+    }
+
+    @GetMapping("/deferred-captures")
+    public Map<String, Object> deferredCaptures() {
+        return paymentService.deferredCaptures().stats();
+    }
+
+    @GetMapping("/order-reconciler")
+    public Map<String, Object> orderReconciler() {
+        return paymentService.reconciler().stats();
+    }
+
+    @GetMapping("/payment-attempts")
+    public Map<String, Object> paymentAttempts() {
+        return paymentService.attemptJournal().stats();
+    }
+
+    // Reads the journal files, newest attempts by default; from= replays from a sequence onwards. Payment records are
+    // not for the public internet, so this is only served when paypal.attempt-journal.http-entries opts in.
+    @GetMapping("/payment-attempts/entries")
+    public List<Map<String, Object>> paymentAttemptEntries(@RequestParam(required = false) Long from,
+                                                           @RequestParam(defaultValue = "50") int limit) {
+        PaymentAttemptJournal journal = paymentService.attemptJournal();
+        if (!attemptEntriesExposed || !journal.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        int bounded = Math.max(1, Math.min(limit, MAX_ATTEMPT_ENTRIES));
+        long start = from != null ? from : Math.max(0, journal.nextSequence() - bounded);
+        List<Map<String, Object>> entries = new ArrayList<>();
+        try {
+            PaymentAttemptReader.read(journal.directory(), start, bounded, (sequence, attempt) -> {
+                entries.add(attemptEntry(sequence, attempt));
+                return true;
+            });
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Could not read payment attempts: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    @GetMapping("/slow-payments")
+    public Map<String, Object> slowPayments() {
+        return slowPayments.stats();
+    }
+
+    @GetMapping("/idempotency")
+    public Map<String, Object> idempotency() {
+        IdempotencyCache cache = paymentService.idempotencyCache();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.size());
+        stats.put("started", cache.started());
+        stats.put("hits", cache.hits());
+        stats.put("joined", cache.joined());
+        stats.put("conflicts", cache.conflicts());
+        return stats;
+    }
+
+    @GetMapping("/card-validation")
+    public Map<String, Object> cardValidation() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("checked", cardPreValidator.checked());
+        Map<String, Long> rejected = new LinkedHashMap<>();
+        for (CardRejection rejection : CardRejection.values()) {
+            rejected.put(rejection.name(), cardPreValidator.rejected(rejection));
+        }
+        stats.put("rejected", rejected);
+        return stats;
+    }
+
+    private static Map<String, Object> attemptEntry(long sequence, PaymentAttempt attempt) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("sequence", sequence);
+        entry.put("startedAt", Instant.ofEpochMilli(attempt.getStartedAtMillis()).toString());
+        entry.put("environment", attempt.getEnvironment());
+        entry.put("clientId", attempt.getClientId());
+        entry.put("amount", attempt.getAmount());
+        entry.put("currencyCode", attempt.getCurrencyCode());
+        entry.put("cardLast4", attempt.getCardLast4());
+        entry.put("idempotencyKey", attempt.getIdempotencyKey());
+        entry.put("orderId", attempt.getOrderId());
+        entry.put("orderStatus", attempt.getOrderStatus());
+        entry.put("captureStatus", attempt.getCaptureStatus());
+        entry.put("errorClass", attempt.getErrorClass());
+        entry.put("errorCategory", attempt.getErrorCategory());
+        entry.put("errorStatus", attempt.getErrorStatus());
+        entry.put("totalMillis", TimeUnit.NANOSECONDS.toMicros(attempt.getTotalNanos()) / 1000.0);
+        entry.put("createMillis", TimeUnit.NANOSECONDS.toMicros(attempt.getCreateNanos()) / 1000.0);
+        entry.put("captureMillis", TimeUnit.NANOSECONDS.toMicros(attempt.getCaptureNanos()) / 1000.0);
+        return entry;
+    }
+}
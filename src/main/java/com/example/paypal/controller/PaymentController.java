@@ -1,35 +1,96 @@
 package com.example.paypal.controller;
 
+import com.example.paypal.dto.BatchPaymentRequest;
+import com.example.paypal.dto.BatchPaymentResponse;
 import com.example.paypal.dto.CardPaymentRequest;
 import com.example.paypal.dto.CardPaymentResponse;
+import com.example.paypal.dto.PaymentResponseField;
+import com.example.paypal.model.CardRejection;
+import com.example.paypal.model.Deadline;
+import com.example.paypal.model.PaymentContext;
+import com.example.paypal.service.BatchPaymentProcessor;
+import com.example.paypal.service.CardValidationException;
 import com.example.paypal.service.PayPalPaymentService;
+import com.example.paypal.service.StreamingPaymentProcessor;
 import com.paypal.orders.Order;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/payment")
 @Validated
 public class PaymentController {
 
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    // PayPal-Request-Id allows 108 characters and the capture adds a suffix
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 100;
+    // Milliseconds, or a duration such as 2500ms or 5s; capped at paypal.deadline.max
+    private static final String REQUEST_TIMEOUT = "Request-Timeout";
+    // immediate (default) or deferred: answer 202 once the order is created and capture it in the background
+    private static final String CAPTURE_MODE = "Capture-Mode";
+    private static final String FULL_VIEW = "full";
+    private static final String COMPACT_VIEW = "compact";
+
     private final PayPalPaymentService paymentService;
+    private final BatchPaymentProcessor batchProcessor;
+    private final StreamingPaymentProcessor streamProcessor;
+    private final Duration defaultDeadline;
+    private final Duration maxDeadline;
 
-    public PaymentController(PayPalPaymentService paymentService) {
+    public PaymentController(PayPalPaymentService paymentService,
+                             BatchPaymentProcessor batchProcessor,
+                             StreamingPaymentProcessor streamProcessor,
+                             @Value("${paypal.deadline.default:45s}") Duration defaultDeadline,
+                             @Value("${paypal.deadline.max:90s}") Duration maxDeadline) {
         this.paymentService = paymentService;
+        this.batchProcessor = batchProcessor;
+        this.streamProcessor = streamProcessor;
+        this.defaultDeadline = defaultDeadline;
+        this.maxDeadline = maxDeadline;
     }
 
     @PostMapping("/process")
-    public ResponseEntity<CardPaymentResponse> process(@Valid @RequestBody CardPaymentRequest request) {
+    public ResponseEntity<CardPaymentResponse> process(@Valid @RequestBody CardPaymentRequest request,
+                                                       @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                                       @RequestHeader(value = REQUEST_TIMEOUT, required = false) String requestTimeout,
+                                                       @RequestHeader(value = CAPTURE_MODE, required = false) String captureMode,
+                                                       @RequestParam(value = "fields", required = false) String fields,
+                                                       @RequestParam(value = "view", required = false) String view) {
+        PaymentContext context = paymentContext(idempotencyKey, requestTimeout, captureMode);
+        Set<PaymentResponseField> responseFields = responseFields(fields, view);
         try {
-            Order order = paymentService.processDirectCardPayment(request);
-            CardPaymentResponse response = new CardPaymentResponse(order.status(), order.id(), order);
-            return ResponseEntity.ok(response);
+            Order order = paymentService.processDirectCardPayment(request, context);
+            return paymentResponse(order, responseFields, context);
         } catch (org.springframework.web.server.ResponseStatusException e) {
             // Re-throw to preserve status code and message
             throw e;
@@ -40,5 +101,185 @@ public class PaymentController {
             );
         }
     }
-}
 
+    // Same contract as /process, but the servlet thread is released while PayPal is being called
+    @PostMapping("/process-async")
+    public CompletableFuture<ResponseEntity<CardPaymentResponse>> processAsync(
+            @Valid @RequestBody CardPaymentRequest request,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            @RequestHeader(value = REQUEST_TIMEOUT, required = false) String requestTimeout,
+            @RequestHeader(value = CAPTURE_MODE, required = false) String captureMode,
+            @RequestParam(value = "fields", required = false) String fields,
+            @RequestParam(value = "view", required = false) String view) {
+        Set<PaymentResponseField> responseFields = responseFields(fields, view);
+        // The deadline starts here, so time spent queued on the bulkhead counts against it
+        PaymentContext context = paymentContext(idempotencyKey, requestTimeout, captureMode);
+        return paymentService.processDirectCardPaymentAsync(request, context)
+                .thenApply(order -> paymentResponse(order, responseFields, context));
+    }
+
+    // Where a deferred capture stands: PENDING, CAPTURING, COMPLETED or FAILED
+    @GetMapping("/captures/{orderId}")
+    public Map<String, Object> capture(@PathVariable String orderId) {
+        Map<String, Object> status = paymentService.deferredCaptures().status(orderId);
+        if (status == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No deferred capture for order " + orderId);
+        }
+        return status;
+    }
+
+    // How a payment that was not final when answered has ended so far, as last seen by the reconciler
+    @GetMapping("/orders/{orderId}")
+    public Map<String, Object> order(@PathVariable String orderId) {
+        Map<String, Object> status = paymentService.reconciler().status(orderId);
+        if (status == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order " + orderId + " is not being followed");
+        }
+        return status;
+    }
+
+    // Results come back in input order with one entry per payment, failures included
+    @PostMapping("/batch")
+    public DeferredResult<ResponseEntity<BatchPaymentResponse>> batch(@Valid @RequestBody BatchPaymentRequest request) {
+        DeferredResult<ResponseEntity<BatchPaymentResponse>> result =
+                new DeferredResult<>(batchProcessor.responseTimeout().toMillis());
+        batchProcessor.process(request.getPayments()).whenComplete((response, error) -> {
+            if (error != null) {
+                result.setErrorResult(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                result.setResult(ResponseEntity.ok(response));
+            }
+        });
+        return result;
+    }
+
+    // One CardPaymentRequest per line in, one result per line out in completion order, then a summary line.
+    // The request thread stays with the stream for its whole length; that is one thread per upload, not per payment.
+    @PostMapping(value = "/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public void stream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        streamProcessor.process(request.getInputStream(), response.getOutputStream());
+    }
+
+    private PaymentContext paymentContext(String idempotencyKey, String requestTimeout, String captureMode) {
+        return PaymentContext.of(idempotencyKey(idempotencyKey), Deadline.after(deadline(requestTimeout)),
+                deferredCapture(captureMode));
+    }
+
+    private boolean deferredCapture(String captureMode) {
+        if (captureMode == null || "immediate".equalsIgnoreCase(captureMode.trim())) {
+            return false;
+        }
+        if (!"deferred".equalsIgnoreCase(captureMode.trim())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, CAPTURE_MODE + " must be immediate or deferred");
+        }
+        if (!paymentService.deferredCaptures().isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, paymentService.deferredCaptures().unavailableReason());
+        }
+        return true;
+    }
+
+    // A created order waiting on the capture queue is accepted rather than done
+    private static ResponseEntity<CardPaymentResponse> paymentResponse(Order order, Set<PaymentResponseField> fields,
+                                                                       PaymentContext context) {
+        CardPaymentResponse response = new CardPaymentResponse(order, fields);
+        if (context.isDeferredCapture()
+                && ("CREATED".equalsIgnoreCase(order.status()) || "APPROVED".equalsIgnoreCase(order.status()))) {
+            return ResponseEntity.accepted().location(URI.create("/api/payment/captures/" + order.id())).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    private static String idempotencyKey(String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return null;
+        }
+        String key = idempotencyKey.trim();
+        if (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH || !key.chars().allMatch(c -> c > 0x20 && c < 0x7F)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    IDEMPOTENCY_KEY + " must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " printable ASCII characters");
+        }
+        return key;
+    }
+
+    // Compact by default; fields=status,orderId picks exactly those, view=full adds everything including the raw
+    // PayPal order. Checked before the payment runs, a typo should not cost a charge.
+    private static Set<PaymentResponseField> responseFields(String fields, String view) {
+        if (fields != null && view != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Use either fields or view, not both");
+        }
+        if (view != null) {
+            if (FULL_VIEW.equalsIgnoreCase(view.trim())) {
+                return PaymentResponseField.FULL;
+            }
+            if (COMPACT_VIEW.equalsIgnoreCase(view.trim())) {
+                return PaymentResponseField.COMPACT;
+            }
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "view must be " + COMPACT_VIEW + " or " + FULL_VIEW);
+        }
+        if (fields == null) {
+            return PaymentResponseField.COMPACT;
+        }
+        Set<PaymentResponseField> selected = EnumSet.noneOf(PaymentResponseField.class);
+        for (String name : fields.split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            PaymentResponseField field = PaymentResponseField.byName(name.trim());
+            if (field == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown response field " + name.trim()
+                        + ", expected some of " + fieldNames());
+            }
+            selected.add(field);
+        }
+        if (selected.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fields must name at least one of " + fieldNames());
+        }
+        return selected;
+    }
+
+    private static String fieldNames() {
+        StringBuilder names = new StringBuilder();
+        for (PaymentResponseField field : PaymentResponseField.values()) {
+            names.append(names.length() > 0 ? ", " : "").append(field.fieldName());
+        }
+        return names.toString();
+    }
+
+    private Duration deadline(String requestTimeout) {
+        if (requestTimeout == null) {
+            return defaultDeadline;
+        }
+        Duration requested;
+        try {
+            requested = DurationStyle.detectAndParse(requestTimeout.trim());
+        } catch (IllegalArgumentException e) {
+            requested = Duration.ZERO;
+        }
+        if (requested.isNegative() || requested.isZero()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    REQUEST_TIMEOUT + " must be a positive number of milliseconds or a duration such as 5s");
+        }
+        return requested.compareTo(maxDeadline) > 0 ? maxDeadline : requested;
+    }
+
+    // Pre-validation failures are the caller's to fix, so every reason is returned with its field
+    @ExceptionHandler(CardValidationException.class)
+    public ResponseEntity<Map<String, Object>> cardRejected(CardValidationException e) {
+        List<Map<String, String>> reasons = new ArrayList<>();
+        for (CardRejection rejection : e.getRejections()) {
+            Map<String, String> reason = new LinkedHashMap<>();
+            reason.put("field", rejection.getField());
+            reason.put("code", rejection.name());
+            reason.put("message", rejection.getMessage());
+            reasons.add(reason);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", e.getRawStatusCode());
+        body.put("error", e.getStatus().getReasonPhrase());
+        body.put("message", e.getReason());
+        body.put("reasons", reasons);
+        return ResponseEntity.status(e.getStatus()).body(body);
+    }
+}
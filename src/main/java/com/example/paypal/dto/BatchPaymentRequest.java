@@ -0,0 +1,19 @@
+package com.example.paypal.dto;
+
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+public class BatchPaymentRequest {
+
+    // Items are validated one by one so a bad entry fails alone instead of rejecting the whole batch
+    @NotEmpty
+    private List<CardPaymentRequest> payments;
+
+    public List<CardPaymentRequest> getPayments() {
+        return payments;
+    }
+
+    public void setPayments(List<CardPaymentRequest> payments) {
+        this.payments = payments;
+    }
+}
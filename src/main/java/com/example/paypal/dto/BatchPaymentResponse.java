@@ -0,0 +1,40 @@
+package com.example.paypal.dto;
+
+import java.util.List;
+
+public class BatchPaymentResponse {
+
+    private final int total;
+    private final int succeeded;
+    private final int failed;
+    private final int skipped;
+    private final List<BatchPaymentResult> results;
+
+    public BatchPaymentResponse(int total, int succeeded, int failed, int skipped, List<BatchPaymentResult> results) {
+        this.total = total;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.skipped = skipped;
+        this.results = results;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public List<BatchPaymentResult> getResults() {
+        return results;
+    }
+}
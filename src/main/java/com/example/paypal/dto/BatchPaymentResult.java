@@ -0,0 +1,35 @@
+package com.example.paypal.dto;
+
+public class BatchPaymentResult {
+
+    public static final String FAILED = "FAILED";
+    public static final String SKIPPED = "SKIPPED";
+
+    private final int index;
+    private final String status;
+    private final String orderId;
+    private final String error;
+
+    public BatchPaymentResult(int index, String status, String orderId, String error) {
+        this.index = index;
+        this.status = status;
+        this.orderId = orderId;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -1,27 +1,76 @@
 package com.example.paypal.dto;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.paypal.http.serializer.Json;
+import com.paypal.orders.Capture;
+import com.paypal.orders.Order;
+import com.paypal.orders.PurchaseUnit;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+@JsonSerialize(using = CardPaymentResponse.Writer.class)
 public class CardPaymentResponse {
 
-    private final String status;
-    private final String orderId;
-    private final Object rawResponse;
+    private final Order order;
+    private final Set<PaymentResponseField> fields;
 
-    public CardPaymentResponse(String status, String orderId, Object rawResponse) {
-        this.status = status;
-        this.orderId = orderId;
-        this.rawResponse = rawResponse;
+    public CardPaymentResponse(Order order, Set<PaymentResponseField> fields) {
+        this.order = order;
+        this.fields = fields;
     }
 
     public String getStatus() {
-        return status;
+        return order.status();
     }
 
     public String getOrderId() {
-        return orderId;
+        return order.id();
     }
 
-    public Object getRawResponse() {
-        return rawResponse;
+    public Set<PaymentResponseField> getFields() {
+        return fields;
+    }
+
+    private static Capture firstCapture(Order order) {
+        List<PurchaseUnit> units = order.purchaseUnits();
+        if (units == null || units.isEmpty() || units.get(0).payments() == null) {
+            return null;
+        }
+        List<Capture> captures = units.get(0).payments().captures();
+        return captures == null || captures.isEmpty() ? null : captures.get(0);
     }
-}
 
+    static final class Writer extends StdSerializer<CardPaymentResponse> {
+
+        Writer() {
+            super(CardPaymentResponse.class);
+        }
+
+        @Override
+        public void serialize(CardPaymentResponse response, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            Order order = response.order;
+            Capture capture = firstCapture(order);
+            generator.writeStartObject();
+            for (PaymentResponseField field : response.fields) {
+                if (field == PaymentResponseField.RAW_RESPONSE) {
+                    generator.writeFieldName(field.serializedName());
+                    // PayPal's own field names, the way the SDK reads and writes them
+                    generator.writeRawValue(new Json().serialize(order));
+                    continue;
+                }
+                String value = field.value(order, capture);
+                if (value != null) {
+                    generator.writeFieldName(field.serializedName());
+                    generator.writeString(value);
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+}
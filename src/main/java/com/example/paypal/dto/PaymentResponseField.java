@@ -0,0 +1,124 @@
+package com.example.paypal.dto;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.paypal.orders.Capture;
+import com.paypal.orders.Order;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// What a payment response can carry, in output order. Names are pre-encoded once, so writing a response is a
+// handful of field reads on the Order instead of Jackson introspecting it.
+public enum PaymentResponseField {
+
+    STATUS("status") {
+        @Override
+        String value(Order order, Capture capture) {
+            return order.status();
+        }
+    },
+    ORDER_ID("orderId") {
+        @Override
+        String value(Order order, Capture capture) {
+            return order.id();
+        }
+    },
+    CAPTURE_ID("captureId") {
+        @Override
+        String value(Order order, Capture capture) {
+            return capture != null ? capture.id() : null;
+        }
+    },
+    CAPTURE_STATUS("captureStatus") {
+        @Override
+        String value(Order order, Capture capture) {
+            return capture != null ? capture.status() : null;
+        }
+    },
+    AMOUNT("amount") {
+        @Override
+        String value(Order order, Capture capture) {
+            if (capture != null && capture.amount() != null) {
+                return capture.amount().value();
+            }
+            return order.purchaseUnits() != null && !order.purchaseUnits().isEmpty()
+                    && order.purchaseUnits().get(0).amountWithBreakdown() != null
+                    ? order.purchaseUnits().get(0).amountWithBreakdown().value() : null;
+        }
+    },
+    CURRENCY_CODE("currencyCode") {
+        @Override
+        String value(Order order, Capture capture) {
+            if (capture != null && capture.amount() != null) {
+                return capture.amount().currencyCode();
+            }
+            return order.purchaseUnits() != null && !order.purchaseUnits().isEmpty()
+                    && order.purchaseUnits().get(0).amountWithBreakdown() != null
+                    ? order.purchaseUnits().get(0).amountWithBreakdown().currencyCode() : null;
+        }
+    },
+    // Why a capture is DECLINED or PENDING, e.g. PENDING_REVIEW
+    DECLINE_REASON("declineReason") {
+        @Override
+        String value(Order order, Capture capture) {
+            return capture != null && capture.captureStatusDetails() != null ? capture.captureStatusDetails().reason() : null;
+        }
+    },
+    CREATE_TIME("createTime") {
+        @Override
+        String value(Order order, Capture capture) {
+            return order.createTime();
+        }
+    },
+    UPDATE_TIME("updateTime") {
+        @Override
+        String value(Order order, Capture capture) {
+            return order.updateTime();
+        }
+    },
+    // The whole order as PayPal sent it
+    RAW_RESPONSE("rawResponse") {
+        @Override
+        String value(Order order, Capture capture) {
+            return null;
+        }
+    };
+
+    public static final Set<PaymentResponseField> COMPACT = Collections.unmodifiableSet(EnumSet.of(
+            STATUS, ORDER_ID, CAPTURE_ID, CAPTURE_STATUS, AMOUNT, CURRENCY_CODE, DECLINE_REASON));
+    public static final Set<PaymentResponseField> FULL = Collections.unmodifiableSet(EnumSet.allOf(PaymentResponseField.class));
+
+    private static final Map<String, PaymentResponseField> BY_NAME = new HashMap<>();
+
+    static {
+        for (PaymentResponseField field : values()) {
+            BY_NAME.put(field.fieldName.getValue().toLowerCase(Locale.ROOT), field);
+        }
+    }
+
+    private final SerializableString fieldName;
+
+    PaymentResponseField(String fieldName) {
+        this.fieldName = new SerializedString(fieldName);
+    }
+
+    public static PaymentResponseField byName(String name) {
+        return BY_NAME.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public String fieldName() {
+        return fieldName.getValue();
+    }
+
+    SerializableString serializedName() {
+        return fieldName;
+    }
+
+    // Null leaves the field out
+    abstract String value(Order order, Capture capture);
+}
@@ -0,0 +1,53 @@
+package com.example.paypal.model;
+
+public enum CardBrand {
+    VISA(lengths(13, 16, 19), lengths(3), true),
+    MASTERCARD(lengths(16), lengths(3), true),
+    AMEX(lengths(15), lengths(4), true),
+    DISCOVER(range(16, 19), lengths(3), true),
+    DINERS(range(14, 19), lengths(3), true),
+    JCB(range(16, 19), lengths(3), true),
+    // Some UnionPay ranges are issued without a Luhn check digit
+    UNIONPAY(range(16, 19), lengths(3), false),
+    MAESTRO(range(12, 19), lengths(3), true),
+    UNKNOWN(range(12, 19), lengths(3, 4), true);
+
+    // Bit n set means length n is allowed
+    private final int panLengths;
+    private final int cvvLengths;
+    private final boolean luhn;
+
+    CardBrand(int panLengths, int cvvLengths, boolean luhn) {
+        this.panLengths = panLengths;
+        this.cvvLengths = cvvLengths;
+        this.luhn = luhn;
+    }
+
+    public boolean allowsPanLength(int length) {
+        return length < 32 && (panLengths & 1 << length) != 0;
+    }
+
+    public boolean allowsCvvLength(int length) {
+        return length < 32 && (cvvLengths & 1 << length) != 0;
+    }
+
+    public boolean usesLuhn() {
+        return luhn;
+    }
+
+    private static int lengths(int... allowed) {
+        int mask = 0;
+        for (int length : allowed) {
+            mask |= 1 << length;
+        }
+        return mask;
+    }
+
+    private static int range(int from, int to) {
+        int mask = 0;
+        for (int length = from; length <= to; length++) {
+            mask |= 1 << length;
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.paypal.model;
+
+public enum CardRejection {
+    PAN_NOT_NUMERIC("cardNumber", "Card number may only contain digits, spaces and dashes"),
+    PAN_LENGTH("cardNumber", "Card number length does not match the card brand"),
+    LUHN_CHECK_FAILED("cardNumber", "Card number check digit is wrong"),
+    CVV_INVALID("securityCode", "Security code length does not match the card brand"),
+    EXPIRY_INVALID("expiry", "Expiry must be a valid YYYY-MM month"),
+    EXPIRED("expiry", "Card has expired"),
+    CURRENCY_UNSUPPORTED("currencyCode", "Currency is not supported"),
+    AMOUNT_INVALID("amount", "Amount must be greater than zero"),
+    AMOUNT_PRECISION("amount", "Amount has more decimal places than the currency allows");
+
+    private final String field;
+    private final String message;
+
+    CardRejection(String field, String message) {
+        this.field = field;
+        this.message = message;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.paypal.model;
+
+import java.util.Objects;
+
+public final class CredentialKey {
+
+    private final String clientId;
+    private final String clientSecret;
+    private final EnvironmentMode mode;
+    private final int hash;
+
+    public CredentialKey(String clientId, String clientSecret, EnvironmentMode mode) {
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.mode = mode;
+        this.hash = Objects.hash(clientId, clientSecret, mode);
+    }
+
+    public static CredentialKey of(PayPalCredential credential) {
+        return new CredentialKey(credential.getClientId(), credential.getClientSecret(), credential.getMode());
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public EnvironmentMode getMode() {
+        return mode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CredentialKey)) {
+            return false;
+        }
+        CredentialKey that = (CredentialKey) other;
+        return hash == that.hash
+                && mode == that.mode
+                && Objects.equals(clientId, that.clientId)
+                && Objects.equals(clientSecret, that.clientSecret);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    // Never expose the secret, keys end up in logs and diagnostics
+    @Override
+    public String toString() {
+        return mode + ":" + clientId;
+    }
+}
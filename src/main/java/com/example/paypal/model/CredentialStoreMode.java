@@ -0,0 +1,12 @@
+package com.example.paypal.model;
+
+public enum CredentialStoreMode {
+    // Random tokens resolved from this node's memory
+    MEMORY,
+    // Self-contained AES-GCM tokens any node with the keys can resolve
+    STATELESS,
+    // Memory-mapped file that survives restarts and is shared by processes on one host
+    FILE,
+    // External key-value store reached through CredentialKeyValueBackend
+    KEY_VALUE
+}
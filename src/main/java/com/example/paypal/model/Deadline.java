@@ -0,0 +1,47 @@
+package com.example.paypal.model;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// A point in System.nanoTime by which a payment has to be finished; every PayPal call gets at most what is left
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(0, false);
+
+    private final long expiresAtNanos;
+    private final boolean bounded;
+
+    private Deadline(long expiresAtNanos, boolean bounded) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.bounded = bounded;
+    }
+
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos(), true);
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public long remainingNanos() {
+        return bounded ? Math.max(0, expiresAtNanos - System.nanoTime()) : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return bounded && expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    // The configured timeout, shortened to the time left; never 0, which the HTTP clients read as "no timeout"
+    public int capMillis(int timeoutMillis) {
+        if (!bounded) {
+            return timeoutMillis;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+        return (int) Math.max(1, Math.min(timeoutMillis, remaining));
+    }
+}
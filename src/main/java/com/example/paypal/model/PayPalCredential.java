@@ -10,10 +10,14 @@ public class PayPalCredential {
     private final Instant createdAt;
 
     public PayPalCredential(String clientId, String clientSecret, EnvironmentMode mode) {
+        this(clientId, clientSecret, mode, Instant.now());
+    }
+
+    public PayPalCredential(String clientId, String clientSecret, EnvironmentMode mode, Instant createdAt) {
         this.clientId = clientId;
         this.clientSecret = clientSecret;
         this.mode = mode;
-        this.createdAt = Instant.now();
+        this.createdAt = createdAt;
     }
 
     public String getClientId() {
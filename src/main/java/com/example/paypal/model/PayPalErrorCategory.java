@@ -0,0 +1,29 @@
+package com.example.paypal.model;
+
+public enum PayPalErrorCategory {
+    // The card or payment was refused; PayPal itself is healthy
+    DECLINED(false),
+    // Malformed or unacceptable request, sending it again changes nothing
+    INVALID_REQUEST(false),
+    // 401, PayPal did not accept the client id and secret
+    AUTHENTICATION(false),
+    RATE_LIMITED(true),
+    // PayPal answered with a 5xx
+    UNAVAILABLE(true),
+    // The request never reached PayPal: refused connection, unknown host, connect timeout
+    CONNECT(true),
+    // Sent but no answer in time, PayPal may or may not have acted on it
+    TIMEOUT(true),
+    NETWORK(true);
+
+    private final boolean transientFailure;
+
+    PayPalErrorCategory(boolean transientFailure) {
+        this.transientFailure = transientFailure;
+    }
+
+    // PayPal or the route to it is degraded: worth another attempt, and counted by the circuit breaker
+    public boolean isTransient() {
+        return transientFailure;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.paypal.model;
+
+import java.math.BigDecimal;
+
+// One run of a payment against PayPal as the attempt journal keeps it: who paid what, how it ended and how long
+// each step took. Card data stops at the last four digits; the full number and security code are never kept.
+public final class PaymentAttempt {
+
+    private final long startedAtMillis;
+    private final EnvironmentMode environment;
+    private final String clientId;
+    private final BigDecimal amount;
+    private final String currencyCode;
+    private final String cardLast4;
+    private final String idempotencyKey;
+    private final String orderId;
+    private final String orderStatus;
+    private final String captureStatus;
+    // Simple class name of what ended the attempt, null when it returned normally
+    private final String errorClass;
+    private final PayPalErrorCategory errorCategory;
+    private final int errorStatus;
+    private final long totalNanos;
+    private final long createNanos;
+    private final long captureNanos;
+
+    public PaymentAttempt(long startedAtMillis, EnvironmentMode environment, String clientId, BigDecimal amount,
+                          String currencyCode, String cardLast4, String idempotencyKey, String orderId,
+                          String orderStatus, String captureStatus, String errorClass,
+                          PayPalErrorCategory errorCategory, int errorStatus, long totalNanos, long createNanos,
+                          long captureNanos) {
+        this.startedAtMillis = startedAtMillis;
+        this.environment = environment;
+        this.clientId = clientId;
+        this.amount = amount;
+        this.currencyCode = currencyCode;
+        this.cardLast4 = cardLast4;
+        this.idempotencyKey = idempotencyKey;
+        this.orderId = orderId;
+        this.orderStatus = orderStatus;
+        this.captureStatus = captureStatus;
+        this.errorClass = errorClass;
+        this.errorCategory = errorCategory;
+        this.errorStatus = errorStatus;
+        this.totalNanos = totalNanos;
+        this.createNanos = createNanos;
+        this.captureNanos = captureNanos;
+    }
+
+    // Up to four trailing digits, ignoring spaces and dashes
+    public static String last4(String cardNumber) {
+        if (cardNumber == null) {
+            return null;
+        }
+        char[] digits = new char[4];
+        int found = 0;
+        for (int i = cardNumber.length() - 1; i >= 0 && found < 4; i--) {
+            char c = cardNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits[3 - found++] = c;
+            }
+        }
+        return new String(digits, 4 - found, found);
+    }
+
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public EnvironmentMode getEnvironment() {
+        return environment;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public String getCardLast4() {
+        return cardLast4;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public String getOrderStatus() {
+        return orderStatus;
+    }
+
+    public String getCaptureStatus() {
+        return captureStatus;
+    }
+
+    public String getErrorClass() {
+        return errorClass;
+    }
+
+    public PayPalErrorCategory getErrorCategory() {
+        return errorCategory;
+    }
+
+    // HTTP status the client was answered with, 0 when the attempt succeeded
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getCreateNanos() {
+        return createNanos;
+    }
+
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.paypal.model;
+
+// Per-request settings that travel with a payment from the controller down to the PayPal calls
+public final class PaymentContext {
+
+    private static final PaymentContext NONE = new PaymentContext(null, Deadline.none(), false);
+
+    private final String idempotencyKey;
+    private final Deadline deadline;
+    private final boolean deferredCapture;
+
+    private PaymentContext(String idempotencyKey, Deadline deadline, boolean deferredCapture) {
+        this.idempotencyKey = idempotencyKey;
+        this.deadline = deadline;
+        this.deferredCapture = deferredCapture;
+    }
+
+    public static PaymentContext none() {
+        return NONE;
+    }
+
+    public static PaymentContext of(String idempotencyKey, Deadline deadline) {
+        return of(idempotencyKey, deadline, false);
+    }
+
+    public static PaymentContext of(String idempotencyKey, Deadline deadline, boolean deferredCapture) {
+        return idempotencyKey == null && !deadline.isBounded() && !deferredCapture
+                ? NONE : new PaymentContext(idempotencyKey, deadline, deferredCapture);
+    }
+
+    public static PaymentContext withIdempotencyKey(String idempotencyKey) {
+        return of(idempotencyKey, Deadline.none());
+    }
+
+    public static PaymentContext withDeadline(Deadline deadline) {
+        return of(null, deadline);
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    // Answer once the order is created and capture it in the background
+    public boolean isDeferredCapture() {
+        return deferredCapture;
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.paypal.model;
+
+public enum ThreadingMode {
+    // Tomcat's worker pool and fixed-size payment bulkheads
+    PLATFORM,
+    // A virtual thread per request and per bulkhead task, needs Java 21
+    VIRTUAL
+}
@@ -0,0 +1,8 @@
+package com.example.paypal.model;
+
+public enum TransportMode {
+    // JDK HttpURLConnection with keep-alive
+    JDK,
+    // Pooled OkHttp client with per-route limits and HTTP/2
+    POOLED
+}
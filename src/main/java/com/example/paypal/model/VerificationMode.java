@@ -0,0 +1,8 @@
+package com.example.paypal.model;
+
+public enum VerificationMode {
+    // OAuth client-credentials exchange only
+    TOKEN,
+    // Legacy check that creates a 0.01 USD order
+    ORDER
+}
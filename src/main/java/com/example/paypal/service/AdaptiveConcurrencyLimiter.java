@@ -0,0 +1,341 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.EnvironmentMode;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// AIMD limits on concurrent PayPal work, one per environment and one per merchant credential. A call that ends
+// in a 429, a 5xx, a timeout or a latency well above the usual shrinks the limit by backoff-ratio; calls that go
+// well while the limit is in use grow it by about one per limit's worth of calls. Work over either limit is
+// turned away at once with a 503 and Retry-After instead of queueing in Tomcat. The environment limits are also
+// published as paypal.limiter.* meters tagged by environment.
+// "Usual" latency is tracked per operation, a token exchange and a create-and-capture are not comparable, and it
+// follows slow calls too, more slowly than fast ones, so a lasting shift in PayPal's latency becomes the new usual
+// instead of holding the limit at min-limit for good.
+@Component
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    public enum Outcome {
+        // PayPal answered in reasonable time, whatever it answered
+        SUCCESS,
+        // Overload signal: rate limit, 5xx or timeout
+        DROPPED,
+        // Never reached PayPal or was cut short by the caller's own deadline, says nothing about PayPal
+        IGNORED
+    }
+
+    // What a permit covers, each has a latency baseline of its own
+    public enum Operation {
+        VERIFY,
+        CREATE,
+        CREATE_AND_CAPTURE
+    }
+
+    // Weight of one sample in a baseline; a slow one counts for less, so a brief spike barely moves it
+    private static final double BASELINE_ALPHA = 0.05;
+    private static final double SLOW_BASELINE_ALPHA = 0.01;
+
+    private static final Permit UNLIMITED = new Permit() {
+        @Override
+        public void started() {
+        }
+
+        @Override
+        public void release(Outcome outcome) {
+        }
+    };
+
+    private final boolean enabled;
+    private final int environmentInitialLimit;
+    private final int environmentMaxLimit;
+    private final int credentialInitialLimit;
+    private final int credentialMaxLimit;
+    private final int minLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final Duration retryAfter;
+    private final Map<EnvironmentMode, Limit> environments = new EnumMap<>(EnvironmentMode.class);
+    private final Map<CredentialKey, Limit> credentials = new ConcurrentHashMap<>();
+    private final LongAdder credentialRejected = new LongAdder();
+
+    public AdaptiveConcurrencyLimiter(@Value("${paypal.limiter.enabled:true}") boolean enabled,
+                                      @Value("${paypal.limiter.environment.initial-limit:64}") int environmentInitialLimit,
+                                      @Value("${paypal.limiter.environment.max-limit:512}") int environmentMaxLimit,
+                                      @Value("${paypal.limiter.credential.initial-limit:16}") int credentialInitialLimit,
+                                      @Value("${paypal.limiter.credential.max-limit:128}") int credentialMaxLimit,
+                                      @Value("${paypal.limiter.min-limit:2}") int minLimit,
+                                      @Value("${paypal.limiter.backoff-ratio:0.9}") double backoffRatio,
+                                      @Value("${paypal.limiter.latency-tolerance:2.0}") double latencyTolerance,
+                                      @Value("${paypal.limiter.retry-after:1s}") Duration retryAfter) {
+        this.enabled = enabled;
+        this.minLimit = Math.max(1, minLimit);
+        this.environmentInitialLimit = Math.max(this.minLimit, environmentInitialLimit);
+        this.environmentMaxLimit = Math.max(this.environmentInitialLimit, environmentMaxLimit);
+        this.credentialInitialLimit = Math.max(this.minLimit, credentialInitialLimit);
+        this.credentialMaxLimit = Math.max(this.credentialInitialLimit, credentialMaxLimit);
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.retryAfter = retryAfter;
+        for (EnvironmentMode mode : EnvironmentMode.values()) {
+            environments.put(mode, new Limit(this.environmentInitialLimit, this.environmentMaxLimit));
+        }
+    }
+
+    public interface Permit {
+        // Restarts the latency clock, for work that waited in a queue after the permit was taken
+        void started();
+
+        void release(Outcome outcome);
+    }
+
+    public Permit acquire(CredentialKey key, Operation operation) {
+        if (!enabled) {
+            return UNLIMITED;
+        }
+        Limit environment = environments.get(key.getMode());
+        if (!environment.tryAcquire()) {
+            throw new RetryLaterException("Too many " + key.getMode().name().toLowerCase()
+                    + " PayPal calls in flight, retry shortly", retryAfter);
+        }
+        Limit credential = acquireCredential(key);
+        if (credential == null) {
+            environment.release(operation, 0, Outcome.IGNORED);
+            credentialRejected.increment();
+            throw new RetryLaterException("Too many PayPal calls in flight for this merchant, retry shortly", retryAfter);
+        }
+        return new Permit() {
+            private volatile long startedAt = System.nanoTime();
+
+            @Override
+            public void started() {
+                startedAt = System.nanoTime();
+            }
+
+            @Override
+            public void release(Outcome outcome) {
+                long rttNanos = System.nanoTime() - startedAt;
+                if (credential.release(operation, rttNanos, outcome)) {
+                    // Nothing learned that the next call could not start from again; keeps the map to busy merchants.
+                    // Idleness is checked again under the limit's lock, another call may have looked it up since.
+                    credentials.computeIfPresent(key, (ignored, current) ->
+                            current == credential && credential.retireIfIdle() ? null : current);
+                }
+                environment.release(operation, rttNanos, outcome);
+            }
+        };
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        environments.forEach((mode, limit) -> {
+            String environment = mode.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("paypal.limiter.limit", limit, Limit::limit)
+                    .description("Concurrent PayPal calls currently allowed")
+                    .tag("environment", environment)
+                    .register(registry);
+            Gauge.builder("paypal.limiter.in.flight", limit, Limit::inFlight)
+                    .description("PayPal calls holding a permit")
+                    .tag("environment", environment)
+                    .register(registry);
+            FunctionCounter.builder("paypal.limiter.accepted", limit, counted -> counted.accepted.sum())
+                    .description("Calls admitted by the environment limit")
+                    .tag("environment", environment)
+                    .register(registry);
+            FunctionCounter.builder("paypal.limiter.rejected", limit, counted -> counted.rejected.sum())
+                    .description("Calls turned away by the environment limit")
+                    .tag("environment", environment)
+                    .register(registry);
+            FunctionCounter.builder("paypal.limiter.decreases", limit, counted -> counted.decreases.sum())
+                    .description("Times the environment limit backed off")
+                    .tag("environment", environment)
+                    .register(registry);
+        });
+        FunctionCounter.builder("paypal.limiter.credential.rejected", credentialRejected, LongAdder::sum)
+                .description("Calls turned away by a merchant credential's limit")
+                .register(registry);
+        Gauge.builder("paypal.limiter.credentials.tracked", credentials, Map::size)
+                .description("Merchant credentials with a limit of their own")
+                .register(registry);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        environments.forEach((mode, limit) -> stats.put(mode.name(), limit.stats()));
+        int throttled = 0;
+        for (Limit limit : credentials.values()) {
+            if (limit.limit() < credentialInitialLimit) {
+                throttled++;
+            }
+        }
+        Map<String, Object> perCredential = new LinkedHashMap<>();
+        perCredential.put("tracked", credentials.size());
+        perCredential.put("belowInitialLimit", throttled);
+        perCredential.put("rejected", credentialRejected.sum());
+        stats.put("credentials", perCredential);
+        return stats;
+    }
+
+    // The acquired limit of this credential, null when it is full
+    private Limit acquireCredential(CredentialKey key) {
+        while (true) {
+            Limit credential = credentials.computeIfAbsent(key,
+                    ignored -> new Limit(credentialInitialLimit, credentialMaxLimit));
+            if (credential.tryAcquire()) {
+                return credential;
+            }
+            if (!credential.retired) {
+                return null;
+            }
+            // Dropped from the map between the lookup and the acquire, the next lookup starts a fresh one
+        }
+    }
+
+    private final class Limit {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int initialLimit;
+        private final int maxLimit;
+        private double limit;
+        private int inFlight;
+        // Smoothed latency of calls that went well, by Operation ordinal; 0 until the first one
+        private final double[] baselineNanos = new double[Operation.values().length];
+        private long lastDecreaseNanos;
+        // Removed from the credential map; set under the lock and never cleared
+        private volatile boolean retired;
+
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder decreases = new LongAdder();
+
+        Limit(int initialLimit, int maxLimit) {
+            this.initialLimit = initialLimit;
+            this.limit = initialLimit;
+            this.maxLimit = maxLimit;
+            this.lastDecreaseNanos = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+        }
+
+        boolean tryAcquire() {
+            lock.lock();
+            try {
+                if (retired) {
+                    return false;
+                }
+                if (inFlight >= (int) limit) {
+                    rejected.increment();
+                    return false;
+                }
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+            accepted.increment();
+            return true;
+        }
+
+        // True when the limit is idle and not below where it started
+        boolean release(Operation operation, long rttNanos, Outcome outcome) {
+            long now = System.nanoTime();
+            lock.lock();
+            try {
+                int used = inFlight--;
+                update(now, used, operation, rttNanos, outcome);
+                return inFlight == 0 && limit >= initialLimit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean retireIfIdle() {
+            lock.lock();
+            try {
+                retired = inFlight == 0 && limit >= initialLimit;
+                return retired;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void update(long now, int used, Operation operation, long rttNanos, Outcome outcome) {
+            if (outcome == Outcome.IGNORED) {
+                return;
+            }
+            double baseline = baselineNanos[operation.ordinal()];
+            boolean slow = baseline > 0 && rttNanos > baseline * latencyTolerance;
+            if (outcome == Outcome.SUCCESS) {
+                baselineNanos[operation.ordinal()] = baseline == 0
+                        ? rttNanos : baseline + (rttNanos - baseline) * (slow ? SLOW_BASELINE_ALPHA : BASELINE_ALPHA);
+            }
+            if (outcome == Outcome.DROPPED || slow) {
+                // One decrease per round trip, a burst of failures from the same moment is one signal
+                if (now - lastDecreaseNanos >= Math.max((long) baseline, TimeUnit.MILLISECONDS.toNanos(100))) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecreaseNanos = now;
+                    decreases.increment();
+                }
+                return;
+            }
+            // Only grow while the limit is actually being used, an idle limit proves nothing
+            if (used * 2 >= (int) limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        int limit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int inFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            lock.lock();
+            try {
+                stats.put("limit", (int) limit);
+                stats.put("inFlight", inFlight);
+                Map<String, Long> baselines = new LinkedHashMap<>();
+                for (Operation operation : Operation.values()) {
+                    baselines.put(operation.name().toLowerCase(Locale.ROOT),
+                            TimeUnit.NANOSECONDS.toMillis((long) baselineNanos[operation.ordinal()]));
+                }
+                stats.put("baselineMillis", baselines);
+            } finally {
+                lock.unlock();
+            }
+            stats.put("accepted", accepted.sum());
+            stats.put("rejected", rejected.sum());
+            stats.put("decreases", decreases.sum());
+            return stats;
+        }
+    }
+}
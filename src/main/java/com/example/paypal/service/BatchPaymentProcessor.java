@@ -0,0 +1,327 @@
+package com.example.paypal.service;
+
+import com.example.paypal.config.VirtualThreads;
+import com.example.paypal.dto.BatchPaymentResponse;
+import com.example.paypal.dto.BatchPaymentResult;
+import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.Deadline;
+import com.example.paypal.model.PayPalCredential;
+import com.example.paypal.model.PaymentContext;
+import com.example.paypal.model.ThreadingMode;
+import com.paypal.orders.Order;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Settlement runs: items are grouped by credential token, each group resolves its credential once and is
+// worked by a few lanes that take the next item in turn. Lanes share one permit pool per merchant credential,
+// so concurrent batches for the same merchant stay under the same cap. Batches run on their own pool and do
+// not compete with the interactive bulkheads.
+@Component
+public class BatchPaymentProcessor implements DisposableBean {
+
+    private final PayPalPaymentService paymentService;
+    private final Validator validator;
+    private final int maxItems;
+    private final int perCredentialParallelism;
+    private final long timeoutNanos;
+    private final Duration paymentDeadline;
+    private final Duration responseTimeout;
+    private final ThreadPoolExecutor pool;
+    private final Executor executor;
+    private final Map<CredentialKey, CredentialPermits> permits = new ConcurrentHashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final AtomicInteger activeLanes = new AtomicInteger();
+
+    public BatchPaymentProcessor(PayPalPaymentService paymentService,
+                                 Validator validator,
+                                 @Value("${paypal.batch.max-items:5000}") int maxItems,
+                                 @Value("${paypal.batch.per-credential-parallelism:8}") int perCredentialParallelism,
+                                 @Value("${paypal.batch.threads:32}") int threads,
+                                 @Value("${paypal.batch.queue-capacity:10000}") int queueCapacity,
+                                 @Value("${paypal.batch.timeout:10m}") Duration timeout,
+                                 @Value("${paypal.deadline.default:45s}") Duration paymentDeadline,
+                                 @Value("${paypal.threads.mode:PLATFORM}") ThreadingMode threadingMode) {
+        this.paymentService = paymentService;
+        this.validator = validator;
+        this.maxItems = maxItems;
+        this.perCredentialParallelism = Math.max(1, perCredentialParallelism);
+        this.timeoutNanos = timeout.toNanos();
+        this.paymentDeadline = paymentDeadline;
+        // A payment started just before the batch deadline still gets its own payment deadline
+        this.responseTimeout = timeout.plus(paymentDeadline);
+        if (threadingMode == ThreadingMode.VIRTUAL) {
+            this.pool = null;
+            this.executor = VirtualThreads.perTaskExecutor("payment-batch-");
+        } else {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("payment-batch-");
+            threadFactory.setDaemon(true);
+            // Lanes queue behind each other once every thread is busy; past queue-capacity they are turned away
+            this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory);
+            this.pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+    }
+
+    public Duration responseTimeout() {
+        return responseTimeout;
+    }
+
+    public CompletableFuture<BatchPaymentResponse> process(List<CardPaymentRequest> payments) {
+        if (payments.size() > maxItems) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Batch has " + payments.size() + " payments, the limit is " + maxItems);
+        }
+        batches.increment();
+        BatchPaymentResult[] results = new BatchPaymentResult[payments.size()];
+        Map<String, List<Integer>> byToken = new LinkedHashMap<>();
+        for (int i = 0; i < payments.size(); i++) {
+            CardPaymentRequest payment = payments.get(i);
+            String problem = payment == null ? "Payment is missing" : violations(payment);
+            if (problem != null) {
+                results[i] = failure(i, problem);
+                continue;
+            }
+            byToken.computeIfAbsent(payment.getCredentialToken(), ignored -> new ArrayList<>()).add(i);
+        }
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        List<CompletableFuture<Void>> groups = new ArrayList<>(byToken.size());
+        byToken.forEach((token, indexes) -> groups.add(processGroup(token, indexes, payments, results, deadline)));
+        return CompletableFuture.allOf(groups.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> response(results));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batches", batches.sum());
+        stats.put("succeeded", succeeded.sum());
+        stats.put("failed", failed.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("activeLanes", activeLanes.get());
+        stats.put("queuedLanes", pool != null ? pool.getQueue().size() : 0);
+        stats.put("throttledCredentials", permits.size());
+        stats.put("perCredentialParallelism", perCredentialParallelism);
+        return stats;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private CompletableFuture<Void> processGroup(String token, List<Integer> indexes, List<CardPaymentRequest> payments,
+                                                 BatchPaymentResult[] results, long deadline) {
+        PayPalCredential credential;
+        try {
+            credential = paymentService.requireCredential(token);
+        } catch (ResponseStatusException e) {
+            for (int index : indexes) {
+                results[index] = failure(index, e.getReason());
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        CredentialKey key = CredentialKey.of(credential);
+        CredentialPermits credentialPermits = acquirePermits(key);
+        AtomicInteger cursor = new AtomicInteger();
+        int lanes = Math.min(perCredentialParallelism, indexes.size());
+        List<CompletableFuture<Void>> running = new ArrayList<>(lanes);
+        for (int lane = 0; lane < lanes; lane++) {
+            try {
+                running.add(CompletableFuture.runAsync(() -> {
+                    activeLanes.incrementAndGet();
+                    try {
+                        runLane(credential, credentialPermits.semaphore, cursor, indexes, payments, results, deadline);
+                    } finally {
+                        activeLanes.decrementAndGet();
+                    }
+                }, executor));
+            } catch (RejectedExecutionException e) {
+                // The lanes that did start share the cursor and work through the whole group
+                break;
+            }
+        }
+        if (running.isEmpty()) {
+            releasePermits(key);
+            for (int index : indexes) {
+                results[index] = skip(index, "Batch pool is full, this payment was not started");
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.allOf(running.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, error) -> releasePermits(key));
+    }
+
+    private void runLane(PayPalCredential credential, Semaphore semaphore, AtomicInteger cursor, List<Integer> indexes,
+                         List<CardPaymentRequest> payments, BatchPaymentResult[] results, long deadline) {
+        for (int next = cursor.getAndIncrement(); next < indexes.size(); next = cursor.getAndIncrement()) {
+            int index = indexes.get(next);
+            // Other batches for the same merchant may hold every permit; the lane waits no longer than this batch may run
+            if (!tryAcquire(semaphore, deadline - System.nanoTime())) {
+                results[index] = skip(index, "Batch timed out before this payment was started");
+                continue;
+            }
+            try {
+                results[index] = pay(index, credential, payments.get(index));
+            } finally {
+                semaphore.release();
+            }
+        }
+    }
+
+    private static boolean tryAcquire(Semaphore semaphore, long timeoutNanos) {
+        if (timeoutNanos <= 0) {
+            return false;
+        }
+        try {
+            return semaphore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // One payment on the batch pool under its merchant's permits, used by the streaming endpoint. The permit is
+    // taken on the calling thread, so a merchant at its cap holds up the caller and never a pool thread; whileWaiting
+    // runs every waitSliceMillis until one frees up.
+    CompletableFuture<BatchPaymentResult> submit(int index, PayPalCredential credential, CardPaymentRequest payment,
+                                                 long waitSliceMillis, Runnable whileWaiting) throws InterruptedException {
+        CredentialKey key = CredentialKey.of(credential);
+        Semaphore semaphore = acquirePermits(key).semaphore;
+        boolean handedOff = false;
+        try {
+            while (!semaphore.tryAcquire(waitSliceMillis, TimeUnit.MILLISECONDS)) {
+                whileWaiting.run();
+            }
+            try {
+                CompletableFuture<BatchPaymentResult> result = CompletableFuture.supplyAsync(() -> {
+                    activeLanes.incrementAndGet();
+                    try {
+                        return pay(index, credential, payment);
+                    } finally {
+                        semaphore.release();
+                        activeLanes.decrementAndGet();
+                    }
+                }, executor);
+                handedOff = true;
+                return result.whenComplete((ignored, error) -> releasePermits(key));
+            } finally {
+                if (!handedOff) {
+                    semaphore.release();
+                }
+            }
+        } finally {
+            if (!handedOff) {
+                releasePermits(key);
+            }
+        }
+    }
+
+    // Called with the merchant permit held; the payment deadline starts here, not when the permit was asked for
+    private BatchPaymentResult pay(int index, PayPalCredential credential, CardPaymentRequest payment) {
+        try {
+            Order order = paymentService.processDirectCardPayment(credential, payment,
+                    PaymentContext.withDeadline(Deadline.after(paymentDeadline)));
+            succeeded.increment();
+            return new BatchPaymentResult(index, order.status(), order.id(), null);
+        } catch (ResponseStatusException e) {
+            return failure(index, e.getReason());
+        } catch (RuntimeException e) {
+            return failure(index, "Payment processing error: " + e.getMessage());
+        }
+    }
+
+    String violations(CardPaymentRequest payment) {
+        Set<ConstraintViolation<CardPaymentRequest>> violations = validator.validate(payment);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        List<String> messages = new ArrayList<>(violations.size());
+        for (ConstraintViolation<CardPaymentRequest> violation : violations) {
+            messages.add(violation.getPropertyPath() + " " + violation.getMessage());
+        }
+        messages.sort(null);
+        return String.join("; ", messages);
+    }
+
+    BatchPaymentResult failure(int index, String error) {
+        failed.increment();
+        return new BatchPaymentResult(index, BatchPaymentResult.FAILED, null, error);
+    }
+
+    private BatchPaymentResult skip(int index, String reason) {
+        skipped.increment();
+        return new BatchPaymentResult(index, BatchPaymentResult.SKIPPED, null, reason);
+    }
+
+    private static BatchPaymentResponse response(BatchPaymentResult[] results) {
+        int succeeded = 0;
+        int failed = 0;
+        int skipped = 0;
+        for (BatchPaymentResult result : results) {
+            if (BatchPaymentResult.FAILED.equals(result.getStatus())) {
+                failed++;
+            } else if (BatchPaymentResult.SKIPPED.equals(result.getStatus())) {
+                skipped++;
+            } else {
+                succeeded++;
+            }
+        }
+        return new BatchPaymentResponse(results.length, succeeded, failed, skipped, Arrays.asList(results));
+    }
+
+    private CredentialPermits acquirePermits(CredentialKey key) {
+        return permits.compute(key, (ignored, existing) -> {
+            CredentialPermits current = existing != null ? existing : new CredentialPermits(perCredentialParallelism);
+            current.users++;
+            return current;
+        });
+    }
+
+    private void releasePermits(CredentialKey key) {
+        permits.computeIfPresent(key, (ignored, existing) -> --existing.users == 0 ? null : existing);
+    }
+
+    // Users is only touched inside compute for its key, so it needs no synchronization of its own
+    private static final class CredentialPermits {
+
+        private final Semaphore semaphore;
+        private int users;
+
+        CredentialPermits(int parallelism) {
+            this.semaphore = new Semaphore(parallelism);
+        }
+    }
+}
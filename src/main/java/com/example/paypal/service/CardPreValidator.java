@@ -0,0 +1,309 @@
+package com.example.paypal.service;
+
+import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.model.CardBrand;
+import com.example.paypal.model.CardRejection;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Rejects cards PayPal would decline for shape alone before we spend a token exchange and an order on them.
+// The accept path only walks strings and int tables; allocation happens once a request is being rejected.
+@Component
+public class CardPreValidator {
+
+    // Six-digit BIN ranges, first match wins so narrower ranges sit above the ones they overlap
+    private static final int[] BIN_FROM = {
+            622126, 601100, 644000, 650000,
+            222100, 510000,
+            340000, 370000,
+            300000, 360000, 380000,
+            352800,
+            620000, 810000,
+            400000,
+            500000, 560000, 630000, 670000};
+    private static final int[] BIN_TO = {
+            622925, 601199, 649999, 659999,
+            272099, 559999,
+            349999, 379999,
+            305999, 369999, 399999,
+            358999,
+            629999, 817199,
+            499999,
+            509999, 589999, 639999, 679999};
+    private static final CardBrand[] BIN_BRAND = {
+            CardBrand.DISCOVER, CardBrand.DISCOVER, CardBrand.DISCOVER, CardBrand.DISCOVER,
+            CardBrand.MASTERCARD, CardBrand.MASTERCARD,
+            CardBrand.AMEX, CardBrand.AMEX,
+            CardBrand.DINERS, CardBrand.DINERS, CardBrand.DINERS,
+            CardBrand.JCB,
+            CardBrand.UNIONPAY, CardBrand.UNIONPAY,
+            CardBrand.VISA,
+            CardBrand.MAESTRO, CardBrand.MAESTRO, CardBrand.MAESTRO, CardBrand.MAESTRO};
+
+    private static final long UTC_MINUS_12_MILLIS = TimeUnit.HOURS.toMillis(12);
+    private static final int MAX_EXPIRY_YEARS = 20;
+
+    // Currencies PayPal accepts, sorted by packed code. Minor units follow PayPal rather than ISO 4217,
+    // which lists two for HUF and TWD where PayPal rejects any decimals.
+    private static final int[] CURRENCY_CODES;
+    private static final int[] CURRENCY_MINOR_UNITS;
+
+    static {
+        String[] codes = {"AUD", "BRL", "CAD", "CHF", "CNY", "CZK", "DKK", "EUR", "GBP", "HKD", "HUF", "ILS",
+                "JPY", "MXN", "MYR", "NOK", "NZD", "PHP", "PLN", "SEK", "SGD", "THB", "TWD", "USD"};
+        CURRENCY_CODES = new int[codes.length];
+        CURRENCY_MINOR_UNITS = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            CURRENCY_CODES[i] = packCurrency(codes[i]);
+            String code = codes[i];
+            CURRENCY_MINOR_UNITS[i] = "HUF".equals(code) || "JPY".equals(code) || "TWD".equals(code) ? 0 : 2;
+        }
+    }
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder[] rejected = new LongAdder[CardRejection.values().length];
+
+    public CardPreValidator() {
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    public void validate(CardPaymentRequest request) {
+        int mask = check(request, System.currentTimeMillis());
+        if (mask != 0) {
+            throw new CardValidationException(mask);
+        }
+    }
+
+    // Returns a bit per failed CardRejection ordinal, zero when the card looks payable
+    public int check(CardPaymentRequest request, long nowMillis) {
+        checked.increment();
+        int mask = checkCard(request.getCardNumber(), request.getSecurityCode())
+                | checkExpiry(request.getExpiry(), nowMillis)
+                | checkAmount(request.getAmount(), request.getCurrencyCode());
+        for (int remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            rejected[Integer.numberOfTrailingZeros(remaining)].increment();
+        }
+        return mask;
+    }
+
+    public long checked() {
+        return checked.sum();
+    }
+
+    public long rejected(CardRejection rejection) {
+        return rejected[rejection.ordinal()].sum();
+    }
+
+    public static CardBrand brandOf(int bin) {
+        for (int i = 0; i < BIN_FROM.length; i++) {
+            if (bin >= BIN_FROM[i] && bin <= BIN_TO[i]) {
+                return BIN_BRAND[i];
+            }
+        }
+        return CardBrand.UNKNOWN;
+    }
+
+    // -1 when PayPal does not accept the currency
+    static int minorUnits(String currencyCode) {
+        int packed = packCurrency(currencyCode);
+        if (packed < 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = CURRENCY_CODES.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int code = CURRENCY_CODES[middle];
+            if (code < packed) {
+                low = middle + 1;
+            } else if (code > packed) {
+                high = middle - 1;
+            } else {
+                return CURRENCY_MINOR_UNITS[middle];
+            }
+        }
+        return -1;
+    }
+
+    private static int checkCard(String number, String securityCode) {
+        if (number == null) {
+            return bit(CardRejection.PAN_NOT_NUMERIC);
+        }
+        int digits = 0;
+        int bin = 0;
+        // Luhn sums for both parities, the right one is picked once the length is known
+        int sumEven = 0;
+        int sumOdd = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            // Same separators the order writer strips
+            if (c == ' ' || c == '-' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B) {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return bit(CardRejection.PAN_NOT_NUMERIC);
+            }
+            int digit = c - '0';
+            if (digits < 6) {
+                bin = bin * 10 + digit;
+            }
+            int doubled = digit * 2 > 9 ? digit * 2 - 9 : digit * 2;
+            if ((digits & 1) == 0) {
+                sumEven += doubled;
+                sumOdd += digit;
+            } else {
+                sumEven += digit;
+                sumOdd += doubled;
+            }
+            digits++;
+        }
+        for (int padded = digits; padded < 6; padded++) {
+            bin *= 10;
+        }
+
+        CardBrand brand = brandOf(bin);
+        int mask = 0;
+        if (!brand.allowsPanLength(digits)) {
+            mask |= bit(CardRejection.PAN_LENGTH);
+        } else if (brand.usesLuhn()) {
+            // The check digit is undoubled, so doubling starts on the second digit from the right
+            int sum = (digits & 1) == 0 ? sumEven : sumOdd;
+            if (sum % 10 != 0) {
+                mask |= bit(CardRejection.LUHN_CHECK_FAILED);
+            }
+        }
+        if (!isCvv(securityCode, brand)) {
+            mask |= bit(CardRejection.CVV_INVALID);
+        }
+        return mask;
+    }
+
+    private static boolean isCvv(String securityCode, CardBrand brand) {
+        if (securityCode == null || !brand.allowsCvvLength(securityCode.length())) {
+            return false;
+        }
+        for (int i = 0; i < securityCode.length(); i++) {
+            char c = securityCode.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads the same YYYY-MM, MM/YY and MMYY forms the order writer accepts
+    private static int checkExpiry(String expiry, long nowMillis) {
+        if (expiry == null) {
+            return bit(CardRejection.EXPIRY_INVALID);
+        }
+        int year;
+        int month;
+        int length = expiry.length();
+        if (length == 7 && expiry.charAt(4) == '-' && digits(expiry, 0, 4) && digits(expiry, 5, 7)) {
+            year = number(expiry, 0, 4);
+            month = number(expiry, 5, 7);
+        } else if (length == 5 && expiry.charAt(2) == '/' && digits(expiry, 0, 2) && digits(expiry, 3, 5)) {
+            year = fullYear(number(expiry, 3, 5));
+            month = number(expiry, 0, 2);
+        } else if (length == 4 && digits(expiry, 0, 4)) {
+            year = fullYear(number(expiry, 2, 4));
+            month = number(expiry, 0, 2);
+        } else {
+            return bit(CardRejection.EXPIRY_INVALID);
+        }
+        if (month < 1 || month > 12) {
+            return bit(CardRejection.EXPIRY_INVALID);
+        }
+        // A card is good through the last day of its month wherever it is used, so the month only counts as
+        // over once it has ended in the westernmost time zone
+        int current = monthIndex(nowMillis - UTC_MINUS_12_MILLIS);
+        int expires = year * 12 + month - 1;
+        if (expires < current) {
+            return bit(CardRejection.EXPIRED);
+        }
+        if (expires > current + MAX_EXPIRY_YEARS * 12) {
+            return bit(CardRejection.EXPIRY_INVALID);
+        }
+        return 0;
+    }
+
+    private static int checkAmount(BigDecimal amount, String currencyCode) {
+        int mask = 0;
+        if (amount == null || amount.signum() <= 0) {
+            mask |= bit(CardRejection.AMOUNT_INVALID);
+        }
+        int minorUnits = minorUnits(currencyCode);
+        if (minorUnits < 0) {
+            mask |= bit(CardRejection.CURRENCY_UNSUPPORTED);
+        } else if (mask == 0 && amount.scale() > minorUnits && amount.stripTrailingZeros().scale() > minorUnits) {
+            // Only amounts written with more digits than the currency allows reach stripTrailingZeros
+            mask |= bit(CardRejection.AMOUNT_PRECISION);
+        }
+        return mask;
+    }
+
+    // Letters are folded to upper case so "usd" resolves like the writer's upper-cased code
+    private static int packCurrency(String code) {
+        if (code == null || code.length() != 3) {
+            return -1;
+        }
+        int packed = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = code.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c < 'A' || c > 'Z') {
+                return -1;
+            }
+            packed = packed << 5 | c - 'A';
+        }
+        return packed;
+    }
+
+    // Months since year 0 for the UTC calendar date of the given instant
+    private static int monthIndex(long epochMillis) {
+        long days = Math.floorDiv(epochMillis, TimeUnit.DAYS.toMillis(1));
+        // Civil-from-days over 400-year eras starting in March
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    private static int fullYear(int twoDigitYear) {
+        return twoDigitYear < 50 ? 2000 + twoDigitYear : 1900 + twoDigitYear;
+    }
+
+    private static boolean digits(String value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int number(String value, int from, int to) {
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            result = result * 10 + value.charAt(i) - '0';
+        }
+        return result;
+    }
+
+    private static int bit(CardRejection rejection) {
+        return 1 << rejection.ordinal();
+    }
+}
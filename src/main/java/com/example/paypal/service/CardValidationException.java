@@ -0,0 +1,48 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.CardRejection;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CardValidationException extends ResponseStatusException {
+
+    private final List<CardRejection> rejections;
+
+    CardValidationException(int rejectionMask) {
+        this(fromMask(rejectionMask));
+    }
+
+    private CardValidationException(List<CardRejection> rejections) {
+        super(HttpStatus.BAD_REQUEST, describe(rejections));
+        this.rejections = rejections;
+    }
+
+    public List<CardRejection> getRejections() {
+        return rejections;
+    }
+
+    private static List<CardRejection> fromMask(int mask) {
+        List<CardRejection> rejections = new ArrayList<>(Integer.bitCount(mask));
+        for (CardRejection rejection : CardRejection.values()) {
+            if ((mask & 1 << rejection.ordinal()) != 0) {
+                rejections.add(rejection);
+            }
+        }
+        return Collections.unmodifiableList(rejections);
+    }
+
+    private static String describe(List<CardRejection> rejections) {
+        StringBuilder message = new StringBuilder("Card rejected: ");
+        for (int i = 0; i < rejections.size(); i++) {
+            if (i > 0) {
+                message.append("; ");
+            }
+            message.append(rejections.get(i).getMessage());
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.CredentialKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+public class CredentialVerificationCache {
+
+    private final Map<CredentialKey, Verdict> verdicts = new ConcurrentHashMap<>();
+    private final long validTtlNanos;
+    private final long invalidTtlNanos;
+    private final int maxEntries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CredentialVerificationCache(@Value("${paypal.verification.valid-ttl:10m}") Duration validTtl,
+                                       @Value("${paypal.verification.invalid-ttl:30s}") Duration invalidTtl,
+                                       @Value("${paypal.verification.max-entries:10000}") int maxEntries) {
+        this.validTtlNanos = validTtl.toNanos();
+        this.invalidTtlNanos = invalidTtl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    public Verdict find(CredentialKey key) {
+        Verdict verdict = verdicts.get(key);
+        if (verdict == null) {
+            misses.increment();
+            return null;
+        }
+        if (verdict.isExpired(System.nanoTime())) {
+            verdicts.remove(key, verdict);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return verdict;
+    }
+
+    public void recordValid(CredentialKey key) {
+        put(key, new Verdict(true, null, System.nanoTime() + validTtlNanos));
+    }
+
+    public void recordInvalid(CredentialKey key, String message) {
+        put(key, new Verdict(false, message, System.nanoTime() + invalidTtlNanos));
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return verdicts.size();
+    }
+
+    private void put(CredentialKey key, Verdict verdict) {
+        if (verdicts.size() >= maxEntries) {
+            purge();
+        }
+        verdicts.put(key, verdict);
+    }
+
+    private void purge() {
+        long now = System.nanoTime();
+        verdicts.values().removeIf(verdict -> verdict.isExpired(now));
+        // Still full of live verdicts: drop arbitrary entries, they are only an optimization
+        Iterator<CredentialKey> iterator = verdicts.keySet().iterator();
+        while (verdicts.size() >= maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public static final class Verdict {
+
+        private final boolean valid;
+        private final String message;
+        private final long expiresAtNanos;
+
+        private Verdict(boolean valid, String message, long expiresAtNanos) {
+            this.valid = valid;
+            this.message = message;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,612 @@
+package com.example.paypal.service;
+
+import com.example.paypal.config.CredentialLookup;
+import com.example.paypal.config.CredentialStore;
+import com.example.paypal.config.CredentialTokenCodec;
+import com.example.paypal.config.PayPalClientCache;
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.Deadline;
+import com.example.paypal.model.PayPalCredential;
+import com.paypal.orders.Capture;
+import com.paypal.orders.Order;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Captures for payments made with Capture-Mode: deferred. The order id is appended to a local journal and forced
+// to disk before the client is answered, then a small pool captures it in the background, a few at a time per
+// merchant credential. Results are appended without forcing: after a crash a capture may run again, which PayPal
+// answers from its PayPal-Request-Id instead of charging twice. A credential token is a bearer capability, so the
+// journal only keeps it sealed with the credential token keys and is readable by its owner alone. Without keys, or
+// with a credential store whose tokens do not outlive the process, a pending capture could not be resumed after a
+// restart, so the queue stays off and Capture-Mode: deferred is refused; likewise when the journal cannot be opened.
+@Component
+public class DeferredCaptureQueue implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DeferredCaptureQueue.class);
+
+    private static final String ENQUEUED = "ENQUEUED";
+    private static final String COMPLETED = "COMPLETED";
+    private static final String FAILED = "FAILED";
+
+    public enum State {
+        PENDING, CAPTURING, COMPLETED, FAILED
+    }
+
+    private final boolean enabled;
+    // Why deferred capture is refused, null when enabled
+    private final String unavailableReason;
+    private final CredentialStore credentialStore;
+    private final CredentialTokenCodec tokenCodec;
+    private final PayPalClientCache clientCache;
+    private final PayPalCallGuard callGuard;
+    private final Path path;
+    private final int perCredentialParallelism;
+    private final int maxAttempts;
+    private final long retryBackoffNanos;
+    private final Duration captureDeadline;
+    private final long retentionMillis;
+    private final long compactAfterBytes;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Appends, forces and compaction; a monitor held across the force would pin a virtual thread's carrier
+    private final ReentrantLock journalLock = new ReentrantLock();
+    private final ReentrantLock laneLock = new ReentrantLock();
+    // Keyed by CredentialKey, or Lane.UNRESOLVED for entries whose credential was gone at startup
+    private final Map<Object, Lane> lanes = new HashMap<>();
+    private FileChannel journal;
+    // Pending at startup, held back until resumePending
+    private final List<Entry> replayed = new ArrayList<>();
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+
+    public DeferredCaptureQueue(@Value("${paypal.capture.deferred.enabled:false}") boolean enabled,
+                                CredentialStore credentialStore,
+                                CredentialTokenCodec tokenCodec,
+                                PayPalClientCache clientCache,
+                                PayPalCallGuard callGuard,
+                                @Value("${paypal.capture.deferred.journal:data/deferred-captures.log}") String journal,
+                                @Value("${paypal.capture.deferred.threads:4}") int threads,
+                                @Value("${paypal.capture.deferred.per-credential-parallelism:2}") int perCredentialParallelism,
+                                @Value("${paypal.capture.deferred.max-attempts:5}") int maxAttempts,
+                                @Value("${paypal.capture.deferred.retry-backoff:5s}") Duration retryBackoff,
+                                @Value("${paypal.deadline.default:45s}") Duration captureDeadline,
+                                @Value("${paypal.capture.deferred.retention:24h}") Duration retention,
+                                @Value("${paypal.capture.deferred.compact-after-bytes:4194304}") long compactAfterBytes) {
+        this.credentialStore = credentialStore;
+        this.tokenCodec = tokenCodec;
+        this.clientCache = clientCache;
+        this.callGuard = callGuard;
+        this.path = Paths.get(journal);
+        this.perCredentialParallelism = Math.max(1, perCredentialParallelism);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffNanos = retryBackoff.toNanos();
+        this.captureDeadline = captureDeadline;
+        this.retentionMillis = retention.toMillis();
+        this.compactAfterBytes = compactAfterBytes;
+        String reason = null;
+        ScheduledThreadPoolExecutor opened = null;
+        if (!enabled) {
+            reason = "Deferred capture is not enabled";
+        } else if (!tokenCodec.isConfigured() || !credentialStore.outlivesRestart()) {
+            reason = "Deferred capture needs paypal.credentials.token-keys and a credential store that outlives a restart";
+            log.warn("{}, it stays off", reason);
+        } else {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("deferred-capture-");
+            threadFactory.setDaemon(true);
+            opened = new ScheduledThreadPoolExecutor(Math.max(1, threads), threadFactory);
+            opened.setRemoveOnCancelPolicy(true);
+            try {
+                Path parent = path.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                replay();
+                // Starts the file over with only what is still worth knowing
+                compact();
+            } catch (IOException e) {
+                opened.shutdownNow();
+                opened = null;
+                entries.clear();
+                replayed.clear();
+                reason = "Deferred capture is unavailable, its journal could not be opened";
+                log.warn("Deferred capture disabled, could not open its journal {}: {}", path, e.getMessage());
+            }
+        }
+        this.enabled = opened != null;
+        this.unavailableReason = reason;
+        this.executor = opened;
+        if (opened != null) {
+            long sweepMillis = Math.max(1000, Math.min(retentionMillis, TimeUnit.MINUTES.toMillis(1)));
+            opened.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Captures left pending by the last run start once the application is serving, not while beans still start
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePending() {
+        if (!enabled) {
+            return;
+        }
+        List<Entry> pending = new ArrayList<>(replayed);
+        replayed.clear();
+        for (Entry entry : pending) {
+            recovered.increment();
+            dispatch(entry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String unavailableReason() {
+        return unavailableReason;
+    }
+
+    // Durable once this returns; a capture that cannot be recorded is not promised to the client
+    void enqueue(String credentialToken, PayPalCredential credential, String orderId, String captureRequestId) {
+        if (!enabled) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, unavailableReason);
+        }
+        Entry entry = new Entry(orderId, captureRequestId, credentialToken, tokenCodec.sealValue(credentialToken),
+                System.currentTimeMillis());
+        entry.key = CredentialKey.of(credential);
+        Entry existing = entries.putIfAbsent(orderId, entry);
+        if (existing != null) {
+            // PayPal replayed the create for a repeated request id, the capture is already queued
+            return;
+        }
+        try {
+            append(entry.enqueuedRecord(), true);
+        } catch (IOException e) {
+            entries.remove(orderId, entry);
+            log.error("Could not journal deferred capture of order {}", orderId, e);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Could not queue the capture, order " + orderId + " was not captured");
+        }
+        enqueued.increment();
+        dispatch(entry);
+    }
+
+    public Map<String, Object> status(String orderId) {
+        Entry entry = entries.get(orderId);
+        return entry != null ? entry.toMap() : null;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        if (!enabled) {
+            stats.put("unavailableReason", unavailableReason);
+        }
+        Map<String, Integer> byState = new LinkedHashMap<>();
+        for (State state : State.values()) {
+            byState.put(state.name(), 0);
+        }
+        for (Entry entry : entries.values()) {
+            byState.merge(entry.state.name(), 1, Integer::sum);
+        }
+        stats.put("tracked", byState);
+        stats.put("enqueued", enqueued.sum());
+        stats.put("captured", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("retries", retries.sum());
+        stats.put("recoveredAtStartup", recovered.sum());
+        laneLock.lock();
+        try {
+            stats.put("activeCredentials", lanes.size());
+        } finally {
+            laneLock.unlock();
+        }
+        stats.put("perCredentialParallelism", perCredentialParallelism);
+        journalLock.lock();
+        try {
+            stats.put("journalBytes", journal != null ? journal.size() : 0);
+        } catch (IOException e) {
+            stats.put("journalBytes", -1);
+        } finally {
+            journalLock.unlock();
+        }
+        return stats;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        // Captures still queued or in flight are pending in the journal and resume on the next start
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        journalLock.lock();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Could not close deferred capture journal {}: {}", path, e.getMessage());
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    private void dispatch(Entry entry) {
+        laneLock.lock();
+        try {
+            Lane lane = lanes.computeIfAbsent(Lane.key(entry), ignored -> new Lane());
+            if (lane.running >= perCredentialParallelism) {
+                lane.waiting.add(entry);
+                return;
+            }
+            lane.running++;
+        } finally {
+            laneLock.unlock();
+        }
+        execute(entry);
+    }
+
+    private void execute(Entry entry) {
+        try {
+            executor.execute(() -> run(entry));
+        } catch (RuntimeException e) {
+            // Shutting down, the entry stays pending in the journal
+            release(entry);
+        }
+    }
+
+    private void release(Entry entry) {
+        Entry next;
+        laneLock.lock();
+        try {
+            Object key = Lane.key(entry);
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                return;
+            }
+            next = lane.waiting.poll();
+            if (next == null && --lane.running == 0) {
+                lanes.remove(key);
+            }
+        } finally {
+            laneLock.unlock();
+        }
+        if (next != null) {
+            execute(next);
+        }
+    }
+
+    private void run(Entry entry) {
+        try {
+            capture(entry);
+        } catch (RuntimeException e) {
+            log.error("Deferred capture of order {} failed unexpectedly", entry.orderId, e);
+            retryOrFail(entry, "Capture failed: " + e.getMessage(), -1);
+        } finally {
+            release(entry);
+        }
+    }
+
+    private void capture(Entry entry) {
+        entry.state = State.CAPTURING;
+        entry.attempts++;
+        entry.updatedAtMillis = System.currentTimeMillis();
+        if (entry.credentialToken == null) {
+            fail(entry, "Credential token could not be recovered from the journal, the order was not captured");
+            return;
+        }
+        CredentialLookup lookup = credentialStore.lookup(entry.credentialToken);
+        if (lookup.getOutcome() != CredentialLookup.Outcome.HIT) {
+            fail(entry, "Credential token is no longer valid, the order was not captured");
+            return;
+        }
+        PayPalCredential credential = lookup.getCredential();
+        Order order;
+        try {
+            order = callGuard.execute(CredentialKey.of(credential), clientCache.client(credential),
+                    PayPalPaymentService.captureRequest(entry.orderId, entry.captureRequestId),
+                    Deadline.after(captureDeadline)).result();
+        } catch (PayPalException e) {
+            if ("ORDER_ALREADY_CAPTURED".equals(e.getIssue())) {
+                complete(entry, null, COMPLETED);
+            } else if (e.getCategory().isTransient()) {
+                retryOrFail(entry, e.getReason(), e.getRetryAfterMillis());
+            } else {
+                fail(entry, e.getReason());
+            }
+            return;
+        } catch (RetryLaterException e) {
+            // Circuit open for this merchant, wait it out rather than spend an attempt
+            entry.attempts--;
+            retryLater(entry, TimeUnit.SECONDS.toNanos(Math.max(1, e.getRetryAfterSeconds())));
+            return;
+        } catch (ResponseStatusException e) {
+            retryOrFail(entry, e.getReason(), -1);
+            return;
+        }
+        if ("DECLINED".equalsIgnoreCase(order.status()) || "FAILED".equalsIgnoreCase(order.status())) {
+            fail(entry, "Payment declined: " + order.status());
+            return;
+        }
+        Capture capture = PayPalPaymentService.firstCapture(order);
+        complete(entry, capture != null ? capture.id() : null, capture != null ? capture.status() : order.status());
+    }
+
+    private void retryOrFail(Entry entry, String reason, long retryAfterMillis) {
+        entry.error = reason;
+        if (entry.attempts >= maxAttempts) {
+            fail(entry, reason);
+            return;
+        }
+        // Doubling from retry-backoff with jitter, or longer if PayPal asked for it
+        long step = retryBackoffNanos << Math.min(entry.attempts - 1, 10);
+        long delay = step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+        retryLater(entry, Math.max(delay, TimeUnit.MILLISECONDS.toNanos(retryAfterMillis)));
+    }
+
+    private void retryLater(Entry entry, long delayNanos) {
+        retries.increment();
+        entry.state = State.PENDING;
+        entry.updatedAtMillis = System.currentTimeMillis();
+        try {
+            executor.schedule(() -> dispatch(entry), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            // Shutting down, the entry stays pending in the journal
+        }
+    }
+
+    private void complete(Entry entry, String captureId, String captureStatus) {
+        entry.captureId = captureId;
+        entry.captureStatus = captureStatus;
+        entry.error = null;
+        finish(entry, State.COMPLETED);
+        completed.increment();
+    }
+
+    private void fail(Entry entry, String reason) {
+        entry.error = reason;
+        finish(entry, State.FAILED);
+        failed.increment();
+        log.warn("Deferred capture of order {} failed after {} attempt(s): {}", entry.orderId, entry.attempts, reason);
+    }
+
+    private void finish(Entry entry, State state) {
+        entry.updatedAtMillis = System.currentTimeMillis();
+        entry.state = state;
+        try {
+            append(entry.finishedRecord(), false);
+        } catch (IOException e) {
+            // Replayed as pending after a restart and captured again under the same request id
+            log.warn("Could not journal the result for order {}: {}", entry.orderId, e.getMessage());
+        }
+    }
+
+    private void append(String record, boolean force) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((record + '\n').getBytes(StandardCharsets.UTF_8));
+        journalLock.lock();
+        try {
+            while (bytes.hasRemaining()) {
+                journal.write(bytes);
+            }
+            if (force) {
+                journal.force(false);
+            }
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        entries.values().removeIf(entry -> entry.isFinished() && entry.updatedAtMillis < cutoff);
+        try {
+            if (journalSize() > compactAfterBytes) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not compact deferred capture journal {}: {}", path, e.getMessage());
+        }
+    }
+
+    private long journalSize() throws IOException {
+        journalLock.lock();
+        try {
+            return journal.size();
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    // Rewrites the journal with one line per known order and swaps it in, appends wait meanwhile
+    private void compact() throws IOException {
+        journalLock.lock();
+        try {
+            Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+            StringBuilder records = new StringBuilder();
+            for (Entry entry : entries.values()) {
+                records.append(entry.isFinished() ? entry.finishedRecord() : entry.enqueuedRecord()).append('\n');
+            }
+            Files.deleteIfExists(compacted);
+            try (FileChannel out = FileChannel.open(compacted, EnumSet.of(StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE, StandardOpenOption.DSYNC), ownerOnly())) {
+                ByteBuffer bytes = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal = FileChannel.open(path, EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND), ownerOnly());
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines++;
+                String[] fields = line.split("\t", -1);
+                // A torn last line from a crash mid-append is skipped, its client never got an answer
+                if (ENQUEUED.equals(fields[0]) && fields.length == 5) {
+                    // A token sealed with a key since dropped comes back null and its capture fails
+                    entries.put(fields[1], new Entry(fields[1], fields[2], tokenCodec.openValue(fields[3]), fields[3],
+                            Long.parseLong(fields[4])));
+                } else if ((COMPLETED.equals(fields[0]) || FAILED.equals(fields[0])) && fields.length == 8) {
+                    Entry entry = entries.computeIfAbsent(fields[1],
+                            orderId -> new Entry(orderId, null, null, "", Long.parseLong(fields[7])));
+                    entry.state = COMPLETED.equals(fields[0]) ? State.COMPLETED : State.FAILED;
+                    entry.captureId = emptyToNull(fields[2]);
+                    entry.captureStatus = emptyToNull(fields[3]);
+                    entry.error = emptyToNull(fields[4]);
+                    entry.attempts = Integer.parseInt(fields[5]);
+                    entry.updatedAtMillis = Long.parseLong(fields[6]);
+                } else {
+                    log.warn("Skipping unreadable line {} of deferred capture journal {}", lines, path);
+                }
+            }
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.state == State.PENDING) {
+                CredentialLookup lookup = entry.credentialToken != null
+                        ? credentialStore.lookup(entry.credentialToken) : null;
+                if (lookup != null && lookup.getOutcome() == CredentialLookup.Outcome.HIT) {
+                    entry.key = CredentialKey.of(lookup.getCredential());
+                }
+                replayed.add(entry);
+            }
+        }
+        log.info("Replayed {} deferred capture records from {}", lines, path);
+    }
+
+    // Journal files may hold sealed credential tokens, only the process owner reads them where the file system allows
+    private FileAttribute<?>[] ownerOnly() {
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))};
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    // Journal fields are tab separated, one record per line
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    // Captures waiting for a free slot of their merchant credential
+    private static final class Lane {
+
+        // Entries whose credential could not be resolved at startup; they fail on their first attempt
+        private static final Object UNRESOLVED = new Object();
+
+        private int running;
+        private final ArrayDeque<Entry> waiting = new ArrayDeque<>();
+
+        private static Object key(Entry entry) {
+            return entry.key != null ? entry.key : UNRESOLVED;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String orderId;
+        private final String captureRequestId;
+        // Null when the journal held no token this node can open
+        private final String credentialToken;
+        // What the journal keeps instead: the token sealed by the codec, or empty without token keys
+        private final String sealedToken;
+        private final long enqueuedAtMillis;
+        private CredentialKey key;
+        private volatile State state = State.PENDING;
+        private volatile int attempts;
+        private volatile String captureId;
+        private volatile String captureStatus;
+        private volatile String error;
+        private volatile long updatedAtMillis;
+
+        private Entry(String orderId, String captureRequestId, String credentialToken, String sealedToken,
+                      long enqueuedAtMillis) {
+            this.orderId = orderId;
+            this.captureRequestId = captureRequestId;
+            this.credentialToken = credentialToken;
+            this.sealedToken = sealedToken;
+            this.enqueuedAtMillis = enqueuedAtMillis;
+            this.updatedAtMillis = enqueuedAtMillis;
+        }
+
+        private boolean isFinished() {
+            return state == State.COMPLETED || state == State.FAILED;
+        }
+
+        private String enqueuedRecord() {
+            return ENQUEUED + '\t' + orderId + '\t' + captureRequestId + '\t' + sealedToken + '\t' + enqueuedAtMillis;
+        }
+
+        private String finishedRecord() {
+            return (state == State.COMPLETED ? COMPLETED : FAILED) + '\t' + orderId + '\t' + clean(captureId) + '\t'
+                    + clean(captureStatus) + '\t' + clean(error) + '\t' + attempts + '\t' + updatedAtMillis + '\t'
+                    + enqueuedAtMillis;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("orderId", orderId);
+            map.put("state", state.name());
+            map.put("attempts", attempts);
+            map.put("captureId", captureId);
+            map.put("captureStatus", captureStatus);
+            map.put("error", error);
+            map.put("enqueuedAt", Instant.ofEpochMilli(enqueuedAtMillis).toString());
+            map.put("updatedAt", Instant.ofEpochMilli(updatedAtMillis).toString());
+            return map;
+        }
+    }
+}
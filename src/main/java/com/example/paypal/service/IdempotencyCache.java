@@ -0,0 +1,165 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.CredentialKey;
+import com.paypal.orders.Order;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Results of payments made with an Idempotency-Key, scoped to the merchant. A repeat of a finished payment gets
+// the stored order, a repeat of one still running waits for it. Failed attempts are forgotten so a retry runs
+// again; it reuses the same PayPal-Request-Id, so PayPal itself still will not charge twice.
+@Component
+public class IdempotencyCache {
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    public IdempotencyCache(@Value("${paypal.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${paypal.idempotency.max-entries:100000}") int maxEntries) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    public CompletableFuture<Order> execute(CredentialKey merchant, String idempotencyKey, String fingerprint,
+                                            Supplier<CompletableFuture<Order>> attempt) {
+        Key key = new Key(merchant, idempotencyKey);
+        Entry entry = new Entry(fingerprint);
+        while (true) {
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                break;
+            }
+            if (existing.isExpired(System.nanoTime())) {
+                entries.remove(key, existing);
+                continue;
+            }
+            if (!existing.fingerprint.equals(fingerprint)) {
+                conflicts.increment();
+                throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                        "Idempotency-Key was already used for a different payment");
+            }
+            if (existing.result.isDone()) {
+                hits.increment();
+            } else {
+                joined.increment();
+            }
+            return existing.result;
+        }
+
+        started.increment();
+        if (entries.size() > maxEntries) {
+            purge();
+        }
+        CompletableFuture<Order> running;
+        try {
+            running = attempt.get();
+        } catch (RuntimeException | Error e) {
+            entries.remove(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        running.whenComplete((order, error) -> {
+            if (error != null) {
+                entries.remove(key, entry);
+                entry.result.completeExceptionally(error);
+            } else {
+                entry.expiresAtNanos = System.nanoTime() + ttlNanos;
+                entry.result.complete(order);
+            }
+        });
+        return entry.result;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long started() {
+        return started.sum();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long joined() {
+        return joined.sum();
+    }
+
+    public long conflicts() {
+        return conflicts.sum();
+    }
+
+    private void purge() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        // Still full: drop finished entries first, PayPal-Request-Id keeps a late retry from charging twice
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            if (iterator.next().result.isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final String fingerprint;
+        private final CompletableFuture<Order> result = new CompletableFuture<>();
+        // Running attempts never expire, the clock starts once the order is stored
+        private volatile long expiresAtNanos;
+
+        private Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        private boolean isExpired(long now) {
+            return result.isDone() && !result.isCompletedExceptionally() && now - expiresAtNanos >= 0;
+        }
+    }
+
+    private static final class Key {
+
+        private final CredentialKey merchant;
+        private final String idempotencyKey;
+
+        private Key(CredentialKey merchant, String idempotencyKey) {
+            this.merchant = merchant;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return merchant.equals(that.merchant) && idempotencyKey.equals(that.idempotencyKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(merchant, idempotencyKey);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.paypal.service;
+
+import com.example.paypal.dto.BillingAddress;
+import com.example.paypal.dto.CardPaymentRequest;
+import org.springframework.util.StringUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Writes the create-order payload straight to bytes. Keys come out in the order the SDK's Json serializer
+// emitted for the HashMaps this replaces, so the body PayPal receives is unchanged.
+public final class OrderRequestWriter {
+
+    private static final byte[] ORDER_START = ascii("{\"processing_instruction\":\"ORDER_COMPLETE_ON_PAYMENT_APPROVAL\","
+            + "\"application_context\":{\"user_action\":\"PAY_NOW\",\"landing_page\":\"NO_PREFERENCE\","
+            + "\"return_url\":\"https://example.com/return\",\"brand_name\":\"Payment Service\","
+            + "\"cancel_url\":\"https://example.com/cancel\"},"
+            + "\"purchase_units\":[{\"amount\":{\"value\":");
+    private static final byte[] CURRENCY_CODE = ascii(",\"currency_code\":");
+    private static final byte[] CARD_NUMBER = ascii("},\"description\":\"Direct card payment\"}],"
+            + "\"payment_source\":{\"card\":{\"number\":");
+    private static final byte[] SECURITY_CODE = ascii(",\"security_code\":");
+    private static final byte[] NAME = ascii(",\"name\":");
+    private static final byte[] DEFAULT_NAME = ascii("\"Cardholder\"");
+    private static final byte[] BILLING_ADDRESS = ascii(",\"billing_address\":");
+    private static final byte[] DEFAULT_ADDRESS = ascii("{\"country_code\":\"US\",\"admin_area_1\":\"CA\","
+            + "\"address_line_1\":\"123 Main St\",\"admin_area_2\":\"San Jose\",\"postal_code\":\"95131\"}");
+    private static final byte[] EXPIRY = ascii(",\"expiry\":");
+    private static final byte[] ORDER_END = ascii("}},\"intent\":\"CAPTURE\"}");
+    private static final byte[] NULL = ascii("null");
+
+    private static final byte[] COUNTRY_CODE = ascii("\"country_code\":");
+    private static final byte[] ADMIN_AREA_1 = ascii("\"admin_area_1\":");
+    private static final byte[] ADDRESS_LINE_1 = ascii("\"address_line_1\":");
+    private static final byte[] ADMIN_AREA_2 = ascii("\"admin_area_2\":");
+    private static final byte[] ADDRESS_LINE_2 = ascii("\"address_line_2\":");
+    private static final byte[] POSTAL_CODE = ascii("\"postal_code\":");
+
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    // Buffers that grew past this are dropped rather than pinned to the thread
+    private static final int MAX_RETAINED_BYTES = 16 * 1024;
+
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    public byte[] write(CardPaymentRequest request) {
+        Buffer out = buffers.get();
+        out.reset();
+        out.write(ORDER_START);
+        String currencyCode = request.getCurrencyCode().toUpperCase();
+        writeString(out, normalizeAmount(request.getAmount(), currencyCode));
+        out.write(CURRENCY_CODE);
+        writeString(out, currencyCode);
+        out.write(CARD_NUMBER);
+        writeCardNumber(out, request.getCardNumber());
+        out.write(SECURITY_CODE);
+        writeString(out, request.getSecurityCode());
+        out.write(NAME);
+        if (StringUtils.hasText(request.getCardholderName())) {
+            writeString(out, request.getCardholderName());
+        } else {
+            out.write(DEFAULT_NAME);
+        }
+        out.write(BILLING_ADDRESS);
+        if (!writeAddress(out, request.getBillingAddress())) {
+            out.write(DEFAULT_ADDRESS);
+        }
+        out.write(EXPIRY);
+        writeExpiry(out, request.getExpiry());
+        out.write(ORDER_END);
+
+        byte[] payload = out.toByteArray();
+        if (out.capacity() > MAX_RETAINED_BYTES) {
+            buffers.remove();
+        }
+        return payload;
+    }
+
+    private static boolean writeAddress(Buffer out, BillingAddress address) {
+        if (address == null) {
+            return false;
+        }
+        int start = out.size();
+        out.write('{');
+        boolean empty = writeField(out, COUNTRY_CODE, address.getCountryCode(), true, true);
+        empty = writeField(out, ADMIN_AREA_1, address.getAdminArea1(), empty, false);
+        empty = writeField(out, ADDRESS_LINE_1, address.getAddressLine1(), empty, false);
+        empty = writeField(out, ADMIN_AREA_2, address.getAdminArea2(), empty, false);
+        empty = writeField(out, ADDRESS_LINE_2, address.getAddressLine2(), empty, false);
+        empty = writeField(out, POSTAL_CODE, address.getPostalCode(), empty, false);
+        if (empty) {
+            out.truncate(start);
+            return false;
+        }
+        out.write('}');
+        return true;
+    }
+
+    // Returns whether the object is still empty after this field
+    private static boolean writeField(Buffer out, byte[] name, String value, boolean empty, boolean upperCase) {
+        if (!StringUtils.hasText(value)) {
+            return empty;
+        }
+        if (!empty) {
+            out.write(',');
+        }
+        out.write(name);
+        writeString(out, upperCase ? value.toUpperCase() : value);
+        return false;
+    }
+
+    // Drops the whitespace and dashes people type between digit groups
+    private static void writeCardNumber(Buffer out, String number) {
+        out.write('"');
+        int i = 0;
+        while (i < number.length()) {
+            char c = number.charAt(i);
+            if (c == ' ' || c == '-' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B) {
+                i++;
+            } else {
+                i += writeChar(out, number, i);
+            }
+        }
+        out.write('"');
+    }
+
+    // Accepts YYYY-MM as is and rewrites MM/YY and MMYY, reading years below 50 as 20xx
+    private static void writeExpiry(Buffer out, String expiry) {
+        if (expiry == null) {
+            out.write(NULL);
+            return;
+        }
+        int length = expiry.length();
+        boolean shortForm = length == 5 && expiry.charAt(2) == '/' && isDigit(expiry, 0) && isDigit(expiry, 1)
+                && isDigit(expiry, 3) && isDigit(expiry, 4);
+        boolean compactForm = length == 4 && isDigit(expiry, 0) && isDigit(expiry, 1)
+                && isDigit(expiry, 2) && isDigit(expiry, 3);
+        if (!shortForm && !compactForm) {
+            writeString(out, expiry);
+            return;
+        }
+        int yearOffset = length - 2;
+        int year = (expiry.charAt(yearOffset) - '0') * 10 + (expiry.charAt(yearOffset + 1) - '0');
+        int fullYear = year < 50 ? 2000 + year : 1900 + year;
+        out.write('"');
+        out.write('0' + fullYear / 1000);
+        out.write('0' + fullYear / 100 % 10);
+        out.write('0' + fullYear / 10 % 10);
+        out.write('0' + fullYear % 10);
+        out.write('-');
+        out.write(expiry.charAt(0));
+        out.write(expiry.charAt(1));
+        out.write('"');
+    }
+
+    private static boolean isDigit(String value, int index) {
+        char c = value.charAt(index);
+        return c >= '0' && c <= '9';
+    }
+
+    // The SDK serializer wrote strings unescaped; quotes, backslashes and control characters are escaped here
+    // because leaving them raw produced a body PayPal could not parse
+    private static void writeString(Buffer out, String value) {
+        if (value == null) {
+            out.write(NULL);
+            return;
+        }
+        out.write('"');
+        int i = 0;
+        while (i < value.length()) {
+            i += writeChar(out, value, i);
+        }
+        out.write('"');
+    }
+
+    // Encodes the char at index as UTF-8 and returns how many chars it consumed
+    private static int writeChar(Buffer out, String value, int index) {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write('\\');
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xF]);
+            } else {
+                out.write(c);
+            }
+        } else if (c < 0x800) {
+            out.write(0xC0 | c >> 6);
+            out.write(0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            out.write(0xF0 | codePoint >> 18);
+            out.write(0x80 | codePoint >> 12 & 0x3F);
+            out.write(0x80 | codePoint >> 6 & 0x3F);
+            out.write(0x80 | codePoint & 0x3F);
+            return 2;
+        } else if (Character.isSurrogate(c)) {
+            // Same replacement String.getBytes(UTF_8) uses for an unpaired surrogate
+            out.write('?');
+        } else {
+            out.write(0xE0 | c >> 12);
+            out.write(0x80 | c >> 6 & 0x3F);
+            out.write(0x80 | c & 0x3F);
+        }
+        return 1;
+    }
+
+    // Zero-decimal currencies such as JPY must not carry a fraction at all
+    private static String normalizeAmount(BigDecimal amount, String currencyCode) {
+        int minorUnits = CardPreValidator.minorUnits(currencyCode);
+        return amount.setScale(minorUnits >= 0 ? minorUnits : 2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class Buffer {
+
+        private byte[] bytes = new byte[1024];
+        private int count;
+
+        void reset() {
+            count = 0;
+        }
+
+        int size() {
+            return count;
+        }
+
+        int capacity() {
+            return bytes.length;
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+
+        void write(int b) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[count++] = (byte) b;
+        }
+
+        void write(byte[] chunk) {
+            if (count + chunk.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + chunk.length));
+            }
+            System.arraycopy(chunk, 0, bytes, count, chunk.length);
+            count += chunk.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, count);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.example.paypal.service;
+
+import com.example.paypal.config.PayPalClientCache;
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.Deadline;
+import com.example.paypal.model.PayPalCredential;
+import com.paypal.orders.Capture;
+import com.paypal.orders.Order;
+import com.paypal.orders.OrdersGetRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Follows payments that came back neither final nor failed, typically a capture PENDING review, until PayPal
+// settles them. Orders wait in an index ordered by their next check; each tick polls the ones that are due, a
+// batch at a time, and an order that did not change waits twice as long before the next look. Clients asking how
+// an order ended are answered from here instead of each poll becoming a PayPal call. Nothing is persisted, a
+// restart forgets what was being followed.
+@Component
+public class OrderStatusReconciler implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderStatusReconciler.class);
+
+    public enum State {
+        TRACKING, RESOLVED, ABANDONED
+    }
+
+    private final boolean enabled;
+    private final PayPalClientCache clientCache;
+    private final PayPalCallGuard callGuard;
+    private final long initialIntervalNanos;
+    private final long maxIntervalNanos;
+    private final int batchSize;
+    private final int maxOrders;
+    private final long maxAgeMillis;
+    private final long retentionMillis;
+    private final Duration pollTimeout;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Map<String, Tracked> orders = new ConcurrentHashMap<>();
+    // Orders waiting for their next check, soonest first; an order being checked is out of the queue until it is done
+    private final PriorityQueue<Tracked> schedule = new PriorityQueue<>(
+            Comparator.comparingLong((Tracked order) -> order.nextCheckNanos));
+    private final ReentrantLock scheduleLock = new ReentrantLock();
+    private int inFlight;
+
+    private final LongAdder tracked = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder resolved = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+    private final LongAdder failedChecks = new LongAdder();
+    private final LongAdder served = new LongAdder();
+
+    public OrderStatusReconciler(@Value("${paypal.reconciler.enabled:true}") boolean enabled,
+                                 PayPalClientCache clientCache,
+                                 PayPalCallGuard callGuard,
+                                 @Value("${paypal.reconciler.tick:500ms}") Duration tick,
+                                 @Value("${paypal.reconciler.initial-interval:2s}") Duration initialInterval,
+                                 @Value("${paypal.reconciler.max-interval:5m}") Duration maxInterval,
+                                 @Value("${paypal.reconciler.batch-size:50}") int batchSize,
+                                 @Value("${paypal.reconciler.threads:4}") int threads,
+                                 @Value("${paypal.reconciler.max-orders:10000}") int maxOrders,
+                                 @Value("${paypal.reconciler.max-age:72h}") Duration maxAge,
+                                 @Value("${paypal.reconciler.retention:1h}") Duration retention,
+                                 @Value("${paypal.reconciler.poll-timeout:10s}") Duration pollTimeout) {
+        this.enabled = enabled;
+        this.clientCache = clientCache;
+        this.callGuard = callGuard;
+        this.initialIntervalNanos = Math.max(1, initialInterval.toNanos());
+        this.maxIntervalNanos = Math.max(initialIntervalNanos, maxInterval.toNanos());
+        this.batchSize = Math.max(1, batchSize);
+        this.maxOrders = Math.max(1, maxOrders);
+        this.maxAgeMillis = maxAge.toMillis();
+        this.retentionMillis = retention.toMillis();
+        this.pollTimeout = pollTimeout;
+        // No early return here: JDK 8 javac then loses track of the field initializers' lambda parameters
+        if (enabled) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("order-reconciler-");
+            threadFactory.setDaemon(true);
+            // One more thread than checks may run, so the tick is never stuck behind a batch
+            this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threads) + 1, threadFactory);
+            long tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), tick.toNanos());
+            executor.scheduleWithFixedDelay(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+            long sweepMillis = Math.max(1000, Math.min(retentionMillis, TimeUnit.MINUTES.toMillis(1)));
+            executor.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Final orders are left alone; the first sighting of an order wins, repeats of the same payment change nothing
+    void track(PayPalCredential credential, Order order) {
+        if (!enabled || order.id() == null || isFinal(order)) {
+            return;
+        }
+        if (orders.size() >= maxOrders) {
+            untracked.increment();
+            return;
+        }
+        Tracked entry = new Tracked(order.id(), credential);
+        entry.update(order);
+        if (orders.putIfAbsent(order.id(), entry) != null) {
+            return;
+        }
+        tracked.increment();
+        entry.nextCheckNanos = System.nanoTime() + initialIntervalNanos;
+        scheduleLock.lock();
+        try {
+            schedule.add(entry);
+        } finally {
+            scheduleLock.unlock();
+        }
+    }
+
+    // The last status PayPal reported, without asking it again
+    public Map<String, Object> status(String orderId) {
+        Tracked entry = orders.get(orderId);
+        if (entry == null) {
+            return null;
+        }
+        served.increment();
+        return entry.toMap();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        Map<String, Integer> byState = new LinkedHashMap<>();
+        for (State state : State.values()) {
+            byState.put(state.name(), 0);
+        }
+        for (Tracked entry : orders.values()) {
+            byState.merge(entry.state.name(), 1, Integer::sum);
+        }
+        stats.put("orders", byState);
+        scheduleLock.lock();
+        try {
+            stats.put("scheduled", schedule.size());
+            stats.put("inFlight", inFlight);
+            Tracked next = schedule.peek();
+            stats.put("nextCheckInMillis", next != null
+                    ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(next.nextCheckNanos - System.nanoTime())) : null);
+        } finally {
+            scheduleLock.unlock();
+        }
+        stats.put("tracked", tracked.sum());
+        stats.put("untracked", untracked.sum());
+        stats.put("checks", checks.sum());
+        stats.put("changes", changes.sum());
+        stats.put("resolved", resolved.sum());
+        stats.put("abandoned", abandoned.sum());
+        stats.put("failedChecks", failedChecks.sum());
+        stats.put("servedLocally", served.sum());
+        stats.put("batchSize", batchSize);
+        return stats;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    // Takes the orders that are due, no more than a batch in flight at once, and hands them to the pool
+    private void tick() {
+        List<Tracked> due = new ArrayList<>();
+        long now = System.nanoTime();
+        scheduleLock.lock();
+        try {
+            while (inFlight < batchSize) {
+                Tracked next = schedule.peek();
+                if (next == null || next.nextCheckNanos - now > 0) {
+                    break;
+                }
+                due.add(schedule.poll());
+                inFlight++;
+            }
+        } finally {
+            scheduleLock.unlock();
+        }
+        for (Tracked entry : due) {
+            try {
+                executor.execute(() -> check(entry));
+            } catch (RuntimeException e) {
+                // Shutting down
+                done(entry);
+            }
+        }
+    }
+
+    private void check(Tracked entry) {
+        try {
+            poll(entry);
+        } catch (RuntimeException e) {
+            log.warn("Checking order {} failed unexpectedly", entry.orderId, e);
+            failedChecks.increment();
+            entry.error = "Check failed: " + e.getMessage();
+            backOff(entry, -1);
+        } finally {
+            done(entry);
+        }
+    }
+
+    private void done(Tracked entry) {
+        scheduleLock.lock();
+        try {
+            inFlight--;
+            if (entry.state == State.TRACKING && orders.get(entry.orderId) == entry) {
+                schedule.add(entry);
+            }
+        } finally {
+            scheduleLock.unlock();
+        }
+    }
+
+    private void poll(Tracked entry) {
+        long now = System.currentTimeMillis();
+        if (now - entry.trackedAtMillis > maxAgeMillis) {
+            abandon(entry, "Not final after " + Duration.ofMillis(maxAgeMillis) + ", no longer checked");
+            return;
+        }
+        checks.increment();
+        entry.checks++;
+        entry.checkedAtMillis = now;
+        Order order;
+        try {
+            order = callGuard.execute(CredentialKey.of(entry.credential), clientCache.client(entry.credential),
+                    new OrdersGetRequest(entry.orderId), Deadline.after(pollTimeout)).result();
+        } catch (PayPalException e) {
+            failedChecks.increment();
+            if (e.getCategory().isTransient()) {
+                entry.error = e.getReason();
+                backOff(entry, e.getRetryAfterMillis());
+            } else {
+                // Gone, or the credential no longer works; asking again will not change the answer
+                abandon(entry, e.getReason());
+            }
+            return;
+        } catch (RetryLaterException e) {
+            // Circuit open for this merchant, look again once it may have closed
+            entry.nextCheckNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(e.getRetryAfterSeconds());
+            return;
+        } catch (ResponseStatusException e) {
+            failedChecks.increment();
+            entry.error = e.getReason();
+            backOff(entry, -1);
+            return;
+        }
+        entry.error = null;
+        if (entry.update(order)) {
+            changes.increment();
+            entry.intervalNanos = initialIntervalNanos;
+        } else {
+            entry.intervalNanos = Math.min(entry.intervalNanos * 2, maxIntervalNanos);
+        }
+        if (isFinal(order)) {
+            entry.finishedAtMillis = System.currentTimeMillis();
+            entry.state = State.RESOLVED;
+            resolved.increment();
+            return;
+        }
+        entry.nextCheckNanos = System.nanoTime() + jittered(entry.intervalNanos);
+    }
+
+    // Failed checks back off like unchanged ones, or longer if PayPal asked for it
+    private void backOff(Tracked entry, long retryAfterMillis) {
+        entry.intervalNanos = Math.min(entry.intervalNanos * 2, maxIntervalNanos);
+        entry.nextCheckNanos = System.nanoTime()
+                + Math.max(jittered(entry.intervalNanos), TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+    }
+
+    private void abandon(Tracked entry, String reason) {
+        entry.error = reason;
+        entry.finishedAtMillis = System.currentTimeMillis();
+        entry.state = State.ABANDONED;
+        abandoned.increment();
+        log.warn("Stopped following order {} after {} check(s): {}", entry.orderId, entry.checks, reason);
+    }
+
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        orders.values().removeIf(entry -> entry.state != State.TRACKING && entry.finishedAtMillis < cutoff);
+    }
+
+    // Between three quarters and the full interval, so orders tracked together do not stay in lockstep
+    private static long jittered(long intervalNanos) {
+        return intervalNanos - ThreadLocalRandom.current().nextLong(intervalNanos / 4 + 1);
+    }
+
+    // Settled either way: a completed order whose capture is no longer pending, or one that will never complete
+    static boolean isFinal(Order order) {
+        String status = order.status();
+        if ("VOIDED".equalsIgnoreCase(status) || "DECLINED".equalsIgnoreCase(status) || "FAILED".equalsIgnoreCase(status)) {
+            return true;
+        }
+        if (!"COMPLETED".equalsIgnoreCase(status)) {
+            return false;
+        }
+        Capture capture = PayPalPaymentService.firstCapture(order);
+        return capture == null || !"PENDING".equalsIgnoreCase(capture.status());
+    }
+
+    private final class Tracked {
+
+        private final String orderId;
+        private final PayPalCredential credential;
+        private final long trackedAtMillis = System.currentTimeMillis();
+        private volatile State state = State.TRACKING;
+        private volatile String status;
+        private volatile String captureId;
+        private volatile String captureStatus;
+        private volatile String reason;
+        private volatile String error;
+        private volatile int checks;
+        private volatile long checkedAtMillis;
+        private volatile long changedAtMillis = trackedAtMillis;
+        private volatile long finishedAtMillis;
+        // Only touched by the thread checking the order, or under scheduleLock while it waits in the queue
+        private long intervalNanos = initialIntervalNanos;
+        private long nextCheckNanos;
+
+        private Tracked(String orderId, PayPalCredential credential) {
+            this.orderId = orderId;
+            this.credential = credential;
+        }
+
+        // True when PayPal reports something other than what was known
+        private boolean update(Order order) {
+            Capture capture = PayPalPaymentService.firstCapture(order);
+            String newCaptureId = capture != null ? capture.id() : null;
+            String newCaptureStatus = capture != null ? capture.status() : null;
+            String newReason = capture != null && capture.captureStatusDetails() != null
+                    ? capture.captureStatusDetails().reason() : null;
+            boolean changed = !Objects.equals(status, order.status()) || !Objects.equals(captureId, newCaptureId)
+                    || !Objects.equals(captureStatus, newCaptureStatus);
+            status = order.status();
+            captureId = newCaptureId;
+            captureStatus = newCaptureStatus;
+            reason = newReason;
+            if (changed) {
+                changedAtMillis = System.currentTimeMillis();
+            }
+            return changed;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("orderId", orderId);
+            map.put("state", state.name());
+            map.put("status", status);
+            map.put("captureId", captureId);
+            map.put("captureStatus", captureStatus);
+            map.put("reason", reason);
+            map.put("error", error);
+            map.put("checks", checks);
+            map.put("trackedAt", Instant.ofEpochMilli(trackedAtMillis).toString());
+            map.put("changedAt", Instant.ofEpochMilli(changedAtMillis).toString());
+            map.put("checkedAt", checkedAtMillis > 0 ? Instant.ofEpochMilli(checkedAtMillis).toString() : null);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.paypal.service;
+
+import com.example.paypal.config.TokenCachingPayPalHttpClient;
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.Deadline;
+import com.example.paypal.model.PayPalErrorCategory;
+import com.paypal.http.HttpRequest;
+import com.paypal.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Every PayPal round trip goes through here. Transient failures are retried with jittered exponential backoff
+// when the request is safe to repeat, and a circuit breaker per credential and environment fails calls fast
+// while PayPal keeps failing for that merchant, so threads are not held by calls that are bound to fail.
+@Component
+public class PayPalCallGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(PayPalCallGuard.class);
+
+    static final String REQUEST_ID_HEADER = "PayPal-Request-Id";
+
+    private final PayPalErrorClassifier classifier = new PayPalErrorClassifier();
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final int failureThreshold;
+    private final long openNanos;
+    // Only credentials that failed recently have a breaker, a success removes a closed one again
+    private final Map<CredentialKey, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder deadlineExceeded = new LongAdder();
+    private final Map<PayPalErrorCategory, LongAdder> failures = new EnumMap<>(PayPalErrorCategory.class);
+
+    public PayPalCallGuard(@Value("${paypal.retry.max-attempts:3}") int maxAttempts,
+                           @Value("${paypal.retry.initial-backoff:100ms}") Duration initialBackoff,
+                           @Value("${paypal.retry.max-backoff:2s}") Duration maxBackoff,
+                           @Value("${paypal.circuit-breaker.failure-threshold:5}") int failureThreshold,
+                           @Value("${paypal.circuit-breaker.open-duration:30s}") Duration openDuration) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openDuration.toNanos();
+        for (PayPalErrorCategory category : PayPalErrorCategory.values()) {
+            failures.put(category, new LongAdder());
+        }
+    }
+
+    public interface Call<T> {
+        T execute() throws IOException;
+    }
+
+    // Reads, and writes carrying a PayPal-Request-Id, are replayed by PayPal instead of being applied twice
+    public <T> HttpResponse<T> execute(CredentialKey key, TokenCachingPayPalHttpClient client, HttpRequest<T> request,
+                                       Deadline deadline) {
+        boolean idempotent = "GET".equalsIgnoreCase(request.verb()) || request.headers().header(REQUEST_ID_HEADER) != null;
+        return call(key, idempotent, deadline, () -> client.execute(request, deadline));
+    }
+
+    public <T> T call(CredentialKey key, boolean idempotent, Deadline deadline, Call<T> call) {
+        calls.increment();
+        for (int attempt = 1; ; attempt++) {
+            if (deadline.isExpired()) {
+                throw deadlineExceeded("Payment deadline exceeded");
+            }
+            CircuitBreaker breaker = admit(key);
+            PayPalException failure;
+            try {
+                T result = call.execute();
+                recordSuccess(key, breaker);
+                if (attempt > 1) {
+                    recovered.increment();
+                }
+                return result;
+            } catch (IOException e) {
+                failure = classifier.classify(e);
+            } catch (RuntimeException | Error e) {
+                if (breaker != null) {
+                    breaker.abandonProbe();
+                }
+                throw e;
+            }
+            PayPalErrorCategory category = failure.getCategory();
+            failures.get(category).increment();
+            if (category == PayPalErrorCategory.TIMEOUT && deadline.isExpired()) {
+                // Cut short by the caller's own budget, not evidence that PayPal is slow
+                if (breaker != null) {
+                    breaker.abandonProbe();
+                }
+            } else if (category.isTransient()) {
+                recordFailure(key, breaker);
+            } else {
+                // PayPal answered, a decline or a bad request says nothing about its health
+                recordSuccess(key, breaker);
+            }
+            if (!retryable(category, idempotent)) {
+                throw failure;
+            }
+            long delay = attempt < maxAttempts ? backoffNanos(attempt, failure.getRetryAfterMillis()) : -1;
+            // Waiting out the backoff only to have no time left for the call is no better than failing now
+            if (delay < 0 || delay >= deadline.remainingNanos()) {
+                exhausted.increment();
+                throw failure;
+            }
+            retries.increment();
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
+    public ResponseStatusException deadlineExceeded(String reason) {
+        deadlineExceeded.increment();
+        return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, reason);
+    }
+
+    // Cheap early exit for callers about to queue work for this credential
+    public void rejectIfOpen(CredentialKey key) {
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker != null) {
+            long waitNanos = breaker.remainingOpenNanos(System.nanoTime());
+            if (waitNanos > 0) {
+                throw reject(key, waitNanos);
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("calls", calls.sum());
+        stats.put("retries", retries.sum());
+        stats.put("recovered", recovered.sum());
+        stats.put("exhausted", exhausted.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("deadlineExceeded", deadlineExceeded.sum());
+        stats.put("circuitsOpened", opened.sum());
+        long now = System.nanoTime();
+        int open = 0;
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.remainingOpenNanos(now) > 0) {
+                open++;
+            }
+        }
+        stats.put("openCircuits", open);
+        stats.put("trackedCredentials", breakers.size());
+        Map<String, Long> byCategory = new LinkedHashMap<>();
+        failures.forEach((category, count) -> byCategory.put(category.name(), count.sum()));
+        stats.put("failures", byCategory);
+        return stats;
+    }
+
+    // A connect failure or a 429 means PayPal never acted on the request, anything else may have been applied
+    private static boolean retryable(PayPalErrorCategory category, boolean idempotent) {
+        if (!category.isTransient()) {
+            return false;
+        }
+        return idempotent || category == PayPalErrorCategory.CONNECT || category == PayPalErrorCategory.RATE_LIMITED;
+    }
+
+    // Equal jitter: half the exponential step is fixed, half random, so retries from many callers spread out
+    // without collapsing to zero. A Retry-After longer than the backoff cap is not worth waiting for here.
+    private long backoffNanos(int attempt, long retryAfterMillis) {
+        long step = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 30));
+        long delay = step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+        if (retryAfterMillis >= 0) {
+            long retryAfterNanos = TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+            if (retryAfterNanos > maxBackoffNanos) {
+                return -1;
+            }
+            delay = Math.max(delay, retryAfterNanos);
+        }
+        return delay;
+    }
+
+    private CircuitBreaker admit(CredentialKey key) {
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker != null) {
+            long waitNanos = breaker.tryAcquire(System.nanoTime());
+            if (waitNanos > 0) {
+                throw reject(key, waitNanos);
+            }
+        }
+        return breaker;
+    }
+
+    private RetryLaterException reject(CredentialKey key, long waitNanos) {
+        rejected.increment();
+        return new RetryLaterException("PayPal calls for this " + key.getMode().name().toLowerCase()
+                + " merchant are failing, retry shortly", Duration.ofNanos(waitNanos));
+    }
+
+    private void recordSuccess(CredentialKey key, CircuitBreaker breaker) {
+        if (breaker != null) {
+            breaker.recordSuccess();
+            // A failure recorded on the removed instance by a concurrent caller is lost; it only delays opening
+            breakers.remove(key, breaker);
+        }
+    }
+
+    private void recordFailure(CredentialKey key, CircuitBreaker breaker) {
+        CircuitBreaker current = breaker != null ? breaker : breakers.computeIfAbsent(key, ignored -> new CircuitBreaker());
+        if (current.recordFailure(System.nanoTime())) {
+            opened.increment();
+            log.warn("Circuit opened for {} for {} ms", key, TimeUnit.NANOSECONDS.toMillis(openNanos));
+        }
+    }
+
+    // Closed until failure-threshold transient failures in a row, then open for open-duration, then one probe
+    // call decides between closing and another open period
+    private final class CircuitBreaker {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private int consecutiveFailures;
+        private boolean open;
+        private boolean probing;
+        private long openUntilNanos;
+
+        // 0 when the call may go ahead, otherwise how long the circuit stays open
+        long tryAcquire(long now) {
+            lock.lock();
+            try {
+                if (!open) {
+                    return 0;
+                }
+                long remaining = openUntilNanos - now;
+                if (remaining > 0) {
+                    return remaining;
+                }
+                if (probing) {
+                    // Someone else is probing; the others keep failing fast until it reports back
+                    return TimeUnit.SECONDS.toNanos(1);
+                }
+                probing = true;
+                return 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long remainingOpenNanos(long now) {
+            lock.lock();
+            try {
+                return open ? Math.max(probing ? 1 : 0, openUntilNanos - now) : 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void recordSuccess() {
+            lock.lock();
+            try {
+                consecutiveFailures = 0;
+                open = false;
+                probing = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // The probe failed in our own code rather than at PayPal, the next caller probes instead
+        void abandonProbe() {
+            lock.lock();
+            try {
+                probing = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // True when this failure opened the circuit
+        boolean recordFailure(long now) {
+            lock.lock();
+            try {
+                if (open) {
+                    // Only a failed probe starts another open period, not calls admitted before the circuit opened
+                    if (!probing) {
+                        return false;
+                    }
+                    probing = false;
+                    openUntilNanos = now + openNanos;
+                    return true;
+                }
+                if (++consecutiveFailures < failureThreshold) {
+                    return false;
+                }
+                open = true;
+                openUntilNanos = now + openNanos;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.PayPalErrorCategory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.paypal.http.exceptions.HttpException;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Sorts PayPal failures by status code and the error name and issue in the body, never by the message text.
+// Order errors look like {"name":"UNPROCESSABLE_ENTITY","details":[{"issue":"INSTRUMENT_DECLINED"}],"debug_id":..},
+// the token endpoint answers {"error":"invalid_client","error_description":..}.
+class PayPalErrorClassifier {
+
+    private static final Set<String> DECLINE_ISSUES = new HashSet<>(Arrays.asList(
+            "INSTRUMENT_DECLINED", "TRANSACTION_REFUSED", "CARD_EXPIRED", "CARD_CLOSED", "PAYER_CANNOT_PAY",
+            "TRANSACTION_BLOCKED_BY_PAYEE", "MAX_NUMBER_OF_PAYMENT_ATTEMPTS_EXCEEDED"));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    PayPalException classify(IOException e) {
+        if (e instanceof HttpException) {
+            return classify((HttpException) e);
+        }
+        // Transports report a timeout before anything was sent as a PayPalConnectException, a ConnectException
+        if (e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException) {
+            return failure(HttpStatus.BAD_GATEWAY, "Could not connect to PayPal: " + e.getMessage(), e,
+                    PayPalErrorCategory.CONNECT);
+        }
+        if (e instanceof SocketTimeoutException) {
+            return failure(HttpStatus.GATEWAY_TIMEOUT, "PayPal did not answer in time", e, PayPalErrorCategory.TIMEOUT);
+        }
+        return failure(HttpStatus.BAD_GATEWAY, "PayPal call failed: " + e.getMessage(), e, PayPalErrorCategory.NETWORK);
+    }
+
+    private PayPalException classify(HttpException e) {
+        int status = e.statusCode();
+        JsonNode body = parse(e.getMessage());
+        String name = text(body, "name", "error");
+        String issue = text(body.path("details").path(0), "issue", null);
+        String debugId = text(body, "debug_id", null);
+        if (debugId == null && e.headers() != null) {
+            debugId = e.headers().header("PayPal-Debug-Id");
+        }
+        long retryAfterMillis = retryAfterMillis(e);
+
+        PayPalErrorCategory category;
+        HttpStatus clientStatus;
+        String reason;
+        if (status == 401) {
+            category = PayPalErrorCategory.AUTHENTICATION;
+            clientStatus = HttpStatus.BAD_REQUEST;
+            reason = "Invalid PayPal credentials";
+        } else if (status == 403) {
+            // NOT_AUTHORIZED / PERMISSION_DENIED: the credentials work, the account may not do this (e.g. card
+            // payments not enabled), so it must not be remembered as a bad client id and secret
+            category = PayPalErrorCategory.INVALID_REQUEST;
+            clientStatus = HttpStatus.BAD_REQUEST;
+            reason = "PayPal account is not permitted to do this: "
+                    + (issue != null ? issue : name != null ? name : "HTTP 403");
+        } else if (status == 429) {
+            category = PayPalErrorCategory.RATE_LIMITED;
+            clientStatus = HttpStatus.SERVICE_UNAVAILABLE;
+            reason = "PayPal rate limit reached, retry shortly";
+        } else if (status >= 500) {
+            category = PayPalErrorCategory.UNAVAILABLE;
+            clientStatus = HttpStatus.BAD_GATEWAY;
+            reason = "PayPal is unavailable: " + (name != null ? name : "HTTP " + status);
+        } else if (issue != null && (DECLINE_ISSUES.contains(issue) || issue.endsWith("_DECLINED"))) {
+            category = PayPalErrorCategory.DECLINED;
+            clientStatus = HttpStatus.BAD_REQUEST;
+            reason = "Payment declined: " + issue;
+        } else {
+            category = PayPalErrorCategory.INVALID_REQUEST;
+            clientStatus = HttpStatus.BAD_REQUEST;
+            reason = "PayPal rejected the request: " + (issue != null ? issue : name != null ? name : "HTTP " + status);
+        }
+        return new PayPalException(clientStatus, reason, e, category, status, name, issue, debugId, retryAfterMillis);
+    }
+
+    private static PayPalException failure(HttpStatus status, String reason, IOException e, PayPalErrorCategory category) {
+        return new PayPalException(status, reason, e, category, 0, null, null, null, -1);
+    }
+
+    private static long retryAfterMillis(HttpException e) {
+        String value = e.headers() != null ? e.headers().header("Retry-After") : null;
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException ignored) {
+            // HTTP-date form, PayPal does not send it
+            return -1;
+        }
+    }
+
+    private JsonNode parse(String body) {
+        if (body == null || body.isEmpty()) {
+            return MissingNode.getInstance();
+        }
+        try {
+            return objectMapper.readTree(body);
+        } catch (IOException ignored) {
+            return MissingNode.getInstance();
+        }
+    }
+
+    private static String text(JsonNode node, String field, String fallbackField) {
+        JsonNode value = node.path(field);
+        if (!value.isTextual() && fallbackField != null) {
+            value = node.path(fallbackField);
+        }
+        return value.isTextual() ? value.asText() : null;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.PayPalErrorCategory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+// A failed PayPal call after classification; the reason and status are what our caller sees, the rest is
+// what PayPal said
+public class PayPalException extends ResponseStatusException {
+
+    private final PayPalErrorCategory category;
+    private final int paypalStatus;
+    private final String name;
+    private final String issue;
+    private final String debugId;
+    private final long retryAfterMillis;
+
+    PayPalException(HttpStatus status, String reason, Throwable cause, PayPalErrorCategory category, int paypalStatus,
+                    String name, String issue, String debugId, long retryAfterMillis) {
+        super(status, reason, cause);
+        this.category = category;
+        this.paypalStatus = paypalStatus;
+        this.name = name;
+        this.issue = issue;
+        this.debugId = debugId;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public PayPalErrorCategory getCategory() {
+        return category;
+    }
+
+    // 0 when PayPal never answered
+    public int getPaypalStatus() {
+        return paypalStatus;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getIssue() {
+        return issue;
+    }
+
+    public String getDebugId() {
+        return debugId;
+    }
+
+    // -1 unless PayPal sent a Retry-After
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -1,53 +1,153 @@
 package com.example.paypal.service;
 
+import com.example.paypal.config.CredentialLookup;
 import com.example.paypal.config.CredentialStore;
-import com.example.paypal.config.PayPalClientFactory;
-import com.example.paypal.dto.BillingAddress;
+import com.example.paypal.config.PayPalClientCache;
+import com.example.paypal.config.PaymentMetrics;
+import com.example.paypal.config.PreEncodedBody;
+import com.example.paypal.config.TokenCachingPayPalHttpClient;
 import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.Deadline;
 import com.example.paypal.model.EnvironmentMode;
 import com.example.paypal.model.PayPalCredential;
+import com.example.paypal.model.PayPalErrorCategory;
+import com.example.paypal.model.PaymentAttempt;
+import com.example.paypal.model.PaymentContext;
+import com.example.paypal.model.VerificationMode;
 import com.paypal.http.HttpResponse;
+import com.paypal.orders.Capture;
 import com.paypal.orders.Order;
 import com.paypal.orders.OrderRequest;
 import com.paypal.orders.OrdersCaptureRequest;
 import com.paypal.orders.OrdersCreateRequest;
-import com.paypal.core.PayPalHttpClient;
+import com.paypal.orders.PurchaseUnit;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @Service
 public class PayPalPaymentService {
 
-    private final PayPalClientFactory clientFactory;
+    private final PayPalClientCache clientCache;
     private final CredentialStore credentialStore;
+    private final CredentialVerificationCache verificationCache;
+    private final VerificationMode verificationMode;
+    private final CardPreValidator cardPreValidator;
+    private final PaymentBulkheads bulkheads;
+    private final IdempotencyCache idempotencyCache;
+    private final PayPalCallGuard callGuard;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final PaymentMetrics metrics;
+    private final DeferredCaptureQueue deferredCaptures;
+    private final OrderStatusReconciler reconciler;
+    private final PaymentAttemptJournal attemptJournal;
+    private final long captureReserveNanos;
+    private final SingleFlight<CredentialKey, Boolean> verificationFlight = new SingleFlight<>();
+    private final OrderRequestWriter orderRequestWriter = new OrderRequestWriter();
 
-    public PayPalPaymentService(PayPalClientFactory clientFactory, CredentialStore credentialStore) {
-        this.clientFactory = clientFactory;
+    public PayPalPaymentService(PayPalClientCache clientCache,
+                                CredentialStore credentialStore,
+                                CredentialVerificationCache verificationCache,
+                                @Value("${paypal.verification.mode:TOKEN}") VerificationMode verificationMode,
+                                CardPreValidator cardPreValidator,
+                                PaymentBulkheads bulkheads,
+                                IdempotencyCache idempotencyCache,
+                                PayPalCallGuard callGuard,
+                                AdaptiveConcurrencyLimiter limiter,
+                                PaymentMetrics metrics,
+                                DeferredCaptureQueue deferredCaptures,
+                                OrderStatusReconciler reconciler,
+                                PaymentAttemptJournal attemptJournal,
+                                @Value("${paypal.deadline.capture-reserve:2s}") Duration captureReserve) {
+        this.clientCache = clientCache;
         this.credentialStore = credentialStore;
+        this.verificationCache = verificationCache;
+        this.verificationMode = verificationMode;
+        this.cardPreValidator = cardPreValidator;
+        this.bulkheads = bulkheads;
+        this.idempotencyCache = idempotencyCache;
+        this.callGuard = callGuard;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.deferredCaptures = deferredCaptures;
+        this.reconciler = reconciler;
+        this.attemptJournal = attemptJournal;
+        this.captureReserveNanos = captureReserve.toNanos();
     }
 
     public PayPalCredential requireCredential(String token) {
-        return credentialStore.find(token)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid or expired credential token"));
+        long startedAt = System.nanoTime();
+        CredentialLookup lookup = credentialStore.lookup(token);
+        metrics.recordCredentialLookup(lookup.getOutcome(), System.nanoTime() - startedAt);
+        if (lookup.getOutcome() != CredentialLookup.Outcome.HIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid or expired credential token");
+        }
+        return lookup.getCredential();
     }
 
     public void verifyCredential(PayPalCredential credential) {
-        PayPalHttpClient client = clientFactory.fromCredential(credential);
+        CredentialKey key = CredentialKey.of(credential);
+        CredentialVerificationCache.Verdict verdict = verificationCache.find(key);
+        if (verdict != null) {
+            if (!verdict.isValid()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, verdict.getMessage());
+            }
+            return;
+        }
+        limited(key, AdaptiveConcurrencyLimiter.Operation.VERIFY, Deadline.none(), () -> {
+            if (verificationMode == VerificationMode.ORDER) {
+                verifyWithTestOrder(credential, key);
+            } else {
+                verifyWithTokenExchange(credential, key);
+            }
+            return null;
+        });
+    }
+
+    private void verifyWithTokenExchange(PayPalCredential credential, CredentialKey key) {
+        try {
+            // A successful client-credentials exchange proves the pair without creating an order
+            callGuard.call(key, true, Deadline.none(), () -> clientCache.client(credential).authorization());
+            verificationCache.recordValid(key);
+        } catch (PayPalException e) {
+            // PayPal answers invalid_client with 401, malformed credentials with 400; outages are not cached
+            if (e.getCategory() == PayPalErrorCategory.AUTHENTICATION || e.getPaypalStatus() == 400) {
+                verificationCache.recordInvalid(key, "Invalid PayPal credentials");
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid PayPal credentials");
+            }
+            throw e;
+        }
+    }
+
+    private void verifyWithTestOrder(PayPalCredential credential, CredentialKey key) {
+        TokenCachingPayPalHttpClient client = clientCache.client(credential);
         try {
             // Validate credentials by attempting to create a minimal test order
             // This will fail with authentication error if credentials are invalid
             OrdersCreateRequest testRequest = new OrdersCreateRequest();
             testRequest.header("Prefer", "return=representation");
+            testRequest.header(PayPalCallGuard.REQUEST_ID_HEADER, UUID.randomUUID().toString());
             
             Map<String, Object> amount = new HashMap<>();
             amount.put("currency_code", "USD");
@@ -63,79 +163,313 @@ public class PayPalPaymentService {
             testRequest.requestBody(orderBody);
             
             // Execute request - will throw exception if credentials are invalid
-            HttpResponse<Order> response = client.execute(testRequest);
+            callGuard.execute(key, client, testRequest, Deadline.none());
             // If execution succeeds, credentials are valid
-        } catch (IOException e) {
-            String errorMsg = e.getMessage() != null ? e.getMessage().toLowerCase() : "";
-            // Check for authentication errors
-            if (errorMsg.contains("401") || errorMsg.contains("unauthorized") || 
-                errorMsg.contains("authentication") || errorMsg.contains("invalid_client")) {
+            verificationCache.recordValid(key);
+        } catch (PayPalException e) {
+            if (e.getCategory() == PayPalErrorCategory.AUTHENTICATION) {
+                verificationCache.recordInvalid(key, "Invalid PayPal credentials");
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid PayPal credentials");
             }
-            // Other IO errors might be network issues, but we'll treat as validation failure
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Credential validation failed: " + e.getMessage());
-        } catch (Exception e) {
-            String errorMsg = e.getMessage() != null ? e.getMessage().toLowerCase() : "";
-            // Check for authentication errors
-            if (errorMsg.contains("401") || errorMsg.contains("unauthorized") || 
-                errorMsg.contains("authentication") || errorMsg.contains("invalid_client")) {
-                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid PayPal credentials");
+            if (e.getCategory().isTransient()) {
+                throw e;
             }
-            // For other errors (like missing payment source), credentials might still be valid
+            // For other refusals (like missing payment source), credentials might still be valid
             // We'll allow it to pass - actual validation will happen on first payment
         }
     }
 
     public String validateAndStoreCredential(String clientId, String clientSecret, String environment) {
         PayPalCredential credential = new PayPalCredential(clientId, clientSecret, EnvironmentMode.from(environment));
-        verifyCredential(credential);
+        // Bursts of identical validations share one PayPal round trip, every caller still gets its own token
+        verificationFlight.execute(CredentialKey.of(credential), () -> {
+            verifyCredential(credential);
+            return Boolean.TRUE;
+        });
         return credentialStore.save(credential);
     }
 
+    public SingleFlight<CredentialKey, Boolean> verificationFlight() {
+        return verificationFlight;
+    }
+
     public Order processDirectCardPayment(CardPaymentRequest request) {
+        return processDirectCardPayment(request, PaymentContext.none());
+    }
+
+    public Order processDirectCardPayment(CardPaymentRequest request, PaymentContext context) {
+        // Malformed cards are turned away before any credential lookup or PayPal call
+        cardPreValidator.validate(request);
         PayPalCredential credential = requireCredential(request.getCredentialToken());
-        PayPalHttpClient client = clientFactory.fromCredential(credential);
+        Supplier<Order> payment = () -> limited(CredentialKey.of(credential), limiterOperation(context),
+                context.getDeadline(), () -> createAndCapture(credential, request, context));
+        if (context.getIdempotencyKey() == null) {
+            return payment.get();
+        }
+        return join(context.getDeadline(), idempotent(credential, request, context, () -> {
+            CompletableFuture<Order> attempt = new CompletableFuture<>();
+            try {
+                attempt.complete(payment.get());
+            } catch (RuntimeException e) {
+                attempt.completeExceptionally(e);
+            }
+            return attempt;
+        }));
+    }
+
+    // For callers that already resolved the credential, a batch looks each token up once for all of its items.
+    // Batches and streams bound their own concurrency per merchant and do not pass the adaptive limiter.
+    Order processDirectCardPayment(PayPalCredential credential, CardPaymentRequest request, PaymentContext context) {
+        cardPreValidator.validate(request);
+        return createAndCapture(credential, request, context);
+    }
+
+    public CompletableFuture<Order> processDirectCardPaymentAsync(CardPaymentRequest request) {
+        return processDirectCardPaymentAsync(request, PaymentContext.none());
+    }
+
+    // Local checks still run on the caller's thread so bad input fails fast; only the PayPal round trips
+    // move to the credential environment's bulkhead
+    public CompletableFuture<Order> processDirectCardPaymentAsync(CardPaymentRequest request, PaymentContext context) {
+        cardPreValidator.validate(request);
+        PayPalCredential credential = requireCredential(request.getCredentialToken());
+        // No point queueing behind the bulkhead for a merchant whose PayPal calls are failing fast anyway
+        CredentialKey key = CredentialKey.of(credential);
+        callGuard.rejectIfOpen(key);
+        Supplier<CompletableFuture<Order>> attempt = () -> {
+            // The permit is taken before queueing, so over the limit is turned away instead of waiting on the bulkhead
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(key, limiterOperation(context));
+            CompletableFuture<Order> running;
+            try {
+                running = bulkheads.submit(credential.getMode(), () -> {
+                    // Time spent queued on the bulkhead is ours, not PayPal's
+                    permit.started();
+                    return createAndCapture(credential, request, context);
+                });
+            } catch (RuntimeException e) {
+                permit.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+                throw e;
+            }
+            return running.whenComplete((order, error) -> permit.release(limiterOutcome(error, context.getDeadline())));
+        };
+        if (context.getIdempotencyKey() == null) {
+            return attempt.get();
+        }
+        return idempotent(credential, request, context, attempt);
+    }
+
+    public AdaptiveConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    public IdempotencyCache idempotencyCache() {
+        return idempotencyCache;
+    }
+
+    public PaymentBulkheads bulkheads() {
+        return bulkheads;
+    }
+
+    public PayPalCallGuard callGuard() {
+        return callGuard;
+    }
+
+    public DeferredCaptureQueue deferredCaptures() {
+        return deferredCaptures;
+    }
+
+    public OrderStatusReconciler reconciler() {
+        return reconciler;
+    }
+
+    public PaymentAttemptJournal attemptJournal() {
+        return attemptJournal;
+    }
+
+    private <T> T limited(CredentialKey key, AdaptiveConcurrencyLimiter.Operation operation, Deadline deadline,
+                          Supplier<T> call) {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(key, operation);
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            permit.release(limiterOutcome(e, deadline));
+            throw e;
+        }
+        permit.release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+        return result;
+    }
+
+    private static AdaptiveConcurrencyLimiter.Operation limiterOperation(PaymentContext context) {
+        return context.isDeferredCapture()
+                ? AdaptiveConcurrencyLimiter.Operation.CREATE : AdaptiveConcurrencyLimiter.Operation.CREATE_AND_CAPTURE;
+    }
+
+    // What a finished payment says about PayPal's load: declines and bad requests are answers like any other
+    private static AdaptiveConcurrencyLimiter.Outcome limiterOutcome(Throwable error, Deadline deadline) {
+        if (error == null) {
+            return AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof PayPalException)) {
+            return AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+        }
+        PayPalErrorCategory category = ((PayPalException) cause).getCategory();
+        if (category == PayPalErrorCategory.TIMEOUT && deadline.isExpired()) {
+            return AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+        }
+        return category.isTransient() ? AdaptiveConcurrencyLimiter.Outcome.DROPPED : AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+    }
+
+    private CompletableFuture<Order> idempotent(PayPalCredential credential, CardPaymentRequest request,
+                                                PaymentContext context, Supplier<CompletableFuture<Order>> attempt) {
+        return idempotencyCache.execute(CredentialKey.of(credential), context.getIdempotencyKey(), fingerprint(request),
+                attempt);
+    }
+
+    // What a repeated Idempotency-Key has to match; a different amount or card under the same key is refused.
+    // A SHA-256 of the canonical fields, so the card number is not kept for the key's lifetime; only the free-form
+    // currency code can hold the separator, so it goes last.
+    private static String fingerprint(CardPaymentRequest request) {
+        String canonical = request.getAmount().stripTrailingZeros().toPlainString() + '|'
+                + request.getCardNumber().replaceAll("[^0-9]", "") + '|' + request.getExpiry() + '|'
+                + request.getCurrencyCode().toUpperCase(Locale.ROOT);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // A repeat that joins a running payment waits no longer than its own deadline
+    private Order join(Deadline deadline, CompletableFuture<Order> result) {
+        try {
+            return deadline.isBounded() ? result.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS) : result.join();
+        } catch (CompletionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw callGuard.deadlineExceeded("Payment deadline exceeded while waiting for the earlier attempt");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted waiting for the payment");
+        }
+    }
+
+    private Order createAndCapture(PayPalCredential credential, CardPaymentRequest request, PaymentContext context) {
+        long startedAtMillis = System.currentTimeMillis();
+        long startedAt = System.nanoTime();
+        TokenCachingPayPalHttpClient client = clientCache.client(credential);
+        CredentialKey key = CredentialKey.of(credential);
+        Deadline deadline = context.getDeadline();
+        // PayPal replays the original response for a repeated request id instead of creating a second order.
+        // Payments without an Idempotency-Key get a fresh id so the call guard can still retry them safely.
+        String requestId = context.getIdempotencyKey() != null ? context.getIdempotencyKey() : UUID.randomUUID().toString();
         OrdersCreateRequest createRequest = new OrdersCreateRequest();
         createRequest.header("Prefer", "return=representation");
-        createRequest.requestBody(buildOrderBody(request));
+        createRequest.header(PayPalCallGuard.REQUEST_ID_HEADER, requestId);
+        long buildStartedAt = System.nanoTime();
+        createRequest.requestBody(new PreEncodedBody(orderRequestWriter.write(request)));
+        metrics.recordPayloadBuild(credential.getMode(), System.nanoTime() - buildStartedAt);
+        PaymentMetrics.OrderStatus outcome = null;
+        Order order = null;
+        RuntimeException failure = null;
+        long createNanos = 0;
+        long captureNanos = 0;
         try {
-            HttpResponse<Order> createResponse = client.execute(createRequest);
-            Order order = createResponse.result();
+            long createStartedAt = System.nanoTime();
+            HttpResponse<Order> createResponse = callGuard.execute(key, client, createRequest, deadline);
+            createNanos = System.nanoTime() - createStartedAt;
+            order = createResponse.result();
             
             // When using payment_source with direct card, PayPal may return CREATED status
             // We need to capture it explicitly
             String status = order.status();
-            if ("CREATED".equalsIgnoreCase(status) || "APPROVED".equalsIgnoreCase(status)) {
-                OrdersCaptureRequest captureRequest = new OrdersCaptureRequest(order.id());
-                captureRequest.requestBody(new OrderRequest());
-                captureRequest.header("Prefer", "return=representation");
-                HttpResponse<Order> captureResponse = client.execute(captureRequest);
+            if (("CREATED".equalsIgnoreCase(status) || "APPROVED".equalsIgnoreCase(status)) && context.isDeferredCapture()) {
+                // The client is answered with the created order, the queue captures it under the same request id
+                deferredCaptures.enqueue(request.getCredentialToken(), credential, order.id(), requestId + "-capture");
+            } else if ("CREATED".equalsIgnoreCase(status) || "APPROVED".equalsIgnoreCase(status)) {
+                // A capture that cannot finish in time is not started, the uncaptured order moves no money
+                if (deadline.remainingNanos() < captureReserveNanos) {
+                    throw callGuard.deadlineExceeded("Payment deadline exceeded before capture, order " + order.id()
+                            + " was not captured");
+                }
+                long captureStartedAt = System.nanoTime();
+                HttpResponse<Order> captureResponse = callGuard.execute(key, client,
+                        captureRequest(order.id(), requestId + "-capture"), deadline);
+                captureNanos = System.nanoTime() - captureStartedAt;
                 order = captureResponse.result();
             }
             
             // Check final status
             String finalStatus = order.status();
-            if ("COMPLETED".equalsIgnoreCase(finalStatus)) {
-                return order;
-            } else if ("DECLINED".equalsIgnoreCase(finalStatus) || "FAILED".equalsIgnoreCase(finalStatus)) {
+            outcome = PaymentMetrics.orderStatus(finalStatus);
+            if ("DECLINED".equalsIgnoreCase(finalStatus) || "FAILED".equalsIgnoreCase(finalStatus)) {
                 String errorDetails = extractErrorDetails(order);
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
                     "Payment declined: " + finalStatus + (errorDetails != null ? " - " + errorDetails : ""));
             }
+            if (!context.isDeferredCapture()) {
+                // A capture still under review, or an order left waiting on the payer, is followed until it settles
+                reconciler.track(credential, order);
+            }
             
             return order;
-        } catch (IOException e) {
-            String errorMsg = e.getMessage();
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
-                "Payment failed: " + (errorMsg != null ? errorMsg : "Unknown error"));
         } catch (ResponseStatusException e) {
+            failure = e;
+            if (outcome == null) {
+                outcome = e instanceof PayPalException && ((PayPalException) e).getCategory() == PayPalErrorCategory.DECLINED
+                        ? PaymentMetrics.OrderStatus.DECLINED : PaymentMetrics.OrderStatus.FAILED;
+            }
             throw e;
         } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
-                "Payment processing error: " + e.getMessage());
+            failure = new ResponseStatusException(HttpStatus.BAD_REQUEST, 
+                "Payment processing error: " + e.getMessage(), e);
+            outcome = PaymentMetrics.OrderStatus.FAILED;
+            throw failure;
+        } finally {
+            metrics.recordOrder(outcome != null ? outcome : PaymentMetrics.OrderStatus.FAILED, credential.getMode());
+            attemptJournal.record(attempt(credential, request, context, order, failure, startedAtMillis,
+                    System.nanoTime() - startedAt, createNanos, captureNanos));
         }
     }
+
+    // Everything here is a field read; formatting happens on the journal's writer thread
+    private static PaymentAttempt attempt(PayPalCredential credential, CardPaymentRequest request,
+                                          PaymentContext context, Order order, RuntimeException failure,
+                                          long startedAtMillis, long totalNanos, long createNanos, long captureNanos) {
+        Capture capture = order != null ? firstCapture(order) : null;
+        Throwable cause = failure != null && failure.getCause() != null && !(failure instanceof PayPalException)
+                ? failure.getCause() : failure;
+        return new PaymentAttempt(startedAtMillis, credential.getMode(), credential.getClientId(), request.getAmount(),
+                request.getCurrencyCode(), PaymentAttempt.last4(request.getCardNumber()), context.getIdempotencyKey(),
+                order != null ? order.id() : null, order != null ? order.status() : null,
+                capture != null ? capture.status() : null, cause != null ? cause.getClass().getSimpleName() : null,
+                failure instanceof PayPalException ? ((PayPalException) failure).getCategory() : null,
+                failure instanceof ResponseStatusException ? ((ResponseStatusException) failure).getRawStatusCode() : 0,
+                totalNanos, createNanos, captureNanos);
+    }
     
+    static OrdersCaptureRequest captureRequest(String orderId, String requestId) {
+        OrdersCaptureRequest captureRequest = new OrdersCaptureRequest(orderId);
+        captureRequest.requestBody(new OrderRequest());
+        captureRequest.header("Prefer", "return=representation");
+        captureRequest.header(PayPalCallGuard.REQUEST_ID_HEADER, requestId);
+        return captureRequest;
+    }
+
+    static Capture firstCapture(Order order) {
+        List<PurchaseUnit> units = order.purchaseUnits();
+        if (units == null || units.isEmpty() || units.get(0).payments() == null) {
+            return null;
+        }
+        List<Capture> captures = units.get(0).payments().captures();
+        return captures == null || captures.isEmpty() ? null : captures.get(0);
+    }
+
     private String extractErrorDetails(Order order) {
         // Try to extract error details from order response
         try {
@@ -146,129 +480,4 @@ public class PayPalPaymentService {
             return null;
         }
     }
-
-    private Map<String, Object> buildOrderBody(CardPaymentRequest request) {
-        Map<String, Object> amount = new HashMap<>();
-        amount.put("currency_code", request.getCurrencyCode().toUpperCase());
-        amount.put("value", normalizeAmount(request.getAmount()));
-
-        Map<String, Object> purchaseUnit = new HashMap<>();
-        purchaseUnit.put("amount", amount);
-        purchaseUnit.put("description", "Direct card payment");
-
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("intent", "CAPTURE");
-        payload.put("purchase_units", Collections.singletonList(purchaseUnit));
-        payload.put("payment_source", Collections.singletonMap("card", buildCardSource(request)));
-        payload.put("processing_instruction", "ORDER_COMPLETE_ON_PAYMENT_APPROVAL");
-        
-        // Add application context for better success rates
-        Map<String, Object> applicationContext = new HashMap<>();
-        applicationContext.put("brand_name", "Payment Service");
-        applicationContext.put("landing_page", "NO_PREFERENCE");
-        applicationContext.put("user_action", "PAY_NOW");
-        applicationContext.put("return_url", "https://example.com/return");
-        applicationContext.put("cancel_url", "https://example.com/cancel");
-        payload.put("application_context", applicationContext);
-        
-        return payload;
-    }
-
-    private Map<String, Object> buildCardSource(CardPaymentRequest request) {
-        Map<String, Object> card = new HashMap<>();
-        
-        // Remove any spaces or dashes from card number
-        String cardNumber = request.getCardNumber().replaceAll("[\\s-]", "");
-        card.put("number", cardNumber);
-        
-        // Ensure expiry is in correct format (YYYY-MM)
-        String expiry = normalizeExpiry(request.getExpiry());
-        card.put("expiry", expiry);
-        
-        card.put("security_code", request.getSecurityCode());
-        
-        // Cardholder name is recommended for higher success rates
-        if (StringUtils.hasText(request.getCardholderName())) {
-            card.put("name", request.getCardholderName());
-        } else {
-            card.put("name", "Cardholder");
-        }
-        
-        // Billing address is important for success rates
-        Map<String, Object> billingAddress = toAddressMap(request.getBillingAddress());
-        if (!billingAddress.isEmpty()) {
-            card.put("billing_address", billingAddress);
-        } else {
-            // Provide default US address if none provided (for sandbox testing)
-            Map<String, Object> defaultAddress = new HashMap<>();
-            defaultAddress.put("address_line_1", "123 Main St");
-            defaultAddress.put("admin_area_2", "San Jose");
-            defaultAddress.put("admin_area_1", "CA");
-            defaultAddress.put("postal_code", "95131");
-            defaultAddress.put("country_code", "US");
-            card.put("billing_address", defaultAddress);
-        }
-        
-        return card;
-    }
-    
-    private String normalizeExpiry(String expiry) {
-        if (expiry == null) {
-            return null;
-        }
-        // Handle YYYY-MM format
-        if (expiry.matches("^\\d{4}-\\d{2}$")) {
-            return expiry;
-        }
-        // Handle MM/YY format
-        if (expiry.matches("^\\d{2}/\\d{2}$")) {
-            String[] parts = expiry.split("/");
-            int year = Integer.parseInt(parts[1]);
-            // Assume 20xx for years < 50, 19xx otherwise
-            int fullYear = year < 50 ? 2000 + year : 1900 + year;
-            return String.format("%d-%s", fullYear, parts[0]);
-        }
-        // Handle MMyy format
-        if (expiry.matches("^\\d{4}$")) {
-            String month = expiry.substring(0, 2);
-            String year = expiry.substring(2, 4);
-            int yearInt = Integer.parseInt(year);
-            int fullYear = yearInt < 50 ? 2000 + yearInt : 1900 + yearInt;
-            return String.format("%d-%s", fullYear, month);
-        }
-        // Return as-is if already in correct format
-        return expiry;
-    }
-
-    private Map<String, Object> toAddressMap(BillingAddress address) {
-        Map<String, Object> map = new HashMap<>();
-        if (address == null) {
-            return map;
-        }
-        if (StringUtils.hasText(address.getAddressLine1())) {
-            map.put("address_line_1", address.getAddressLine1());
-        }
-        if (StringUtils.hasText(address.getAddressLine2())) {
-            map.put("address_line_2", address.getAddressLine2());
-        }
-        if (StringUtils.hasText(address.getAdminArea1())) {
-            map.put("admin_area_1", address.getAdminArea1());
-        }
-        if (StringUtils.hasText(address.getAdminArea2())) {
-            map.put("admin_area_2", address.getAdminArea2());
-        }
-        if (StringUtils.hasText(address.getPostalCode())) {
-            map.put("postal_code", address.getPostalCode());
-        }
-        // Country code is required for better success rates
-        if (StringUtils.hasText(address.getCountryCode())) {
-            map.put("country_code", address.getCountryCode().toUpperCase());
-        }
-        return map;
-    }
-
-    private String normalizeAmount(BigDecimal amount) {
-        return amount.setScale(2, RoundingMode.HALF_UP).toPlainString();
-    }
 }
-
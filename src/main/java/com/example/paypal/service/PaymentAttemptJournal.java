@@ -0,0 +1,405 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.PaymentAttempt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+// Append-only record of every payment attempt, kept off the payment path. Callers drop the attempt into a bounded
+// ring with one CAS and return; a single writer thread drains the ring, encodes each attempt into memory-mapped
+// segment files and forces them to disk in groups, every fsync-interval or fsync-batch records. A full ring drops
+// the attempt and counts it rather than slow the payment, and a crash loses what was not yet forced. Off unless
+// enabled, and a directory that cannot be opened turns it off with a warning instead of failing startup.
+//
+// Segment layout: MAGIC, FORMAT_VERSION, first sequence, then records of [length][crc32][payload] packed until the
+// zero-filled tail. The length goes in last, so a reader never takes a half-written record for a whole one.
+@Component
+public class PaymentAttemptJournal implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentAttemptJournal.class);
+
+    static final int MAGIC = 0x50414A31;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 8;
+    static final String SEGMENT_PREFIX = "attempts-";
+    static final String SEGMENT_SUFFIX = ".journal";
+    // Keeps one record, and so the scratch buffer, bounded whatever the strings hold
+    static final int MAX_STRING_BYTES = 256;
+    static final int MAX_RECORD_BYTES = 8192;
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+    // How long the writer sleeps when the ring is empty; nobody waits on it, so this only bounds disk lag
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long REOPEN_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final long fsyncIntervalNanos;
+    private final int fsyncBatch;
+
+    // Producers claim a slot by moving tail, the writer frees it by moving head; tail - head never exceeds capacity
+    private final AtomicReferenceArray<PaymentAttempt> ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final long firstSequence;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Writer thread only
+    private final ArrayDeque<Path> segments = new ArrayDeque<>();
+    private final ByteBuffer scratch = ByteBuffer.allocate(MAX_RECORD_BYTES);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int unforced;
+    private long lastForceNanos = System.nanoTime();
+    private long lastOpenFailureNanos;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private volatile int segmentCount;
+    private volatile Path currentSegment;
+
+    public PaymentAttemptJournal(@Value("${paypal.attempt-journal.enabled:false}") boolean enabled,
+                                 @Value("${paypal.attempt-journal.directory:data/payment-attempts}") String directory,
+                                 @Value("${paypal.attempt-journal.segment-bytes:67108864}") long segmentBytes,
+                                 @Value("${paypal.attempt-journal.max-segments:16}") int maxSegments,
+                                 @Value("${paypal.attempt-journal.ring-capacity:65536}") int ringCapacity,
+                                 @Value("${paypal.attempt-journal.fsync-interval:10ms}") Duration fsyncInterval,
+                                 @Value("${paypal.attempt-journal.fsync-batch:512}") int fsyncBatch) {
+        if (ringCapacity < 2 || Integer.bitCount(ringCapacity) != 1) {
+            throw new IllegalStateException("paypal.attempt-journal.ring-capacity must be a power of two");
+        }
+        if (segmentBytes < MIN_SEGMENT_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("paypal.attempt-journal.segment-bytes must be between " + MIN_SEGMENT_BYTES
+                    + " and " + Integer.MAX_VALUE);
+        }
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.fsyncBatch = Math.max(1, fsyncBatch);
+        boolean opened = false;
+        long recovered = 0;
+        if (enabled) {
+            try {
+                Files.createDirectories(this.directory);
+                recovered = recover();
+                opened = true;
+            } catch (IOException | RuntimeException e) {
+                // A journal is worth less than the payments it records, they go on without it
+                closeChannel();
+                segment = null;
+                log.warn("Payment attempt journal disabled, could not open {}: {}", directory, e.toString());
+            }
+        }
+        this.enabled = opened;
+        this.firstSequence = recovered;
+        this.ring = new AtomicReferenceArray<>(opened ? ringCapacity : 1);
+        this.mask = ringCapacity - 1;
+        if (opened) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("payment-journal-");
+            threadFactory.setDaemon(true);
+            this.writer = threadFactory.newThread(this::drainLoop);
+            writer.start();
+        } else {
+            this.writer = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // The only part that runs on the payment thread: claim a slot and publish the attempt, or count it as dropped
+    public void record(PaymentAttempt attempt) {
+        if (!enabled) {
+            return;
+        }
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head.get() > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        ring.lazySet((int) claimed & mask, attempt);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    // The sequence the next recorded attempt will get
+    public long nextSequence() {
+        return firstSequence + tail.get();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("recorded", tail.get());
+        stats.put("written", written.sum());
+        stats.put("backlog", tail.get() - head.get());
+        stats.put("ringCapacity", enabled ? mask + 1 : 0);
+        stats.put("dropped", dropped.sum());
+        stats.put("lost", lost.sum());
+        stats.put("fsyncs", forces.sum());
+        stats.put("nextSequence", nextSequence());
+        stats.put("segments", segmentCount);
+        Path current = currentSegment;
+        stats.put("currentSegment", current != null ? current.getFileName().toString() : null);
+        return stats;
+    }
+
+    // Attempts still in the ring are written and forced before the writer exits
+    @Override
+    public void destroy() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void drainLoop() {
+        try {
+            while (running || head.get() != tail.get()) {
+                int drained = drain();
+                if (unforced > 0 && (unforced >= fsyncBatch || System.nanoTime() - lastForceNanos >= fsyncIntervalNanos)) {
+                    force();
+                }
+                if (drained == 0) {
+                    if (!running) {
+                        // Claimed but never published, the claiming thread died between the CAS and the store
+                        break;
+                    }
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            log.error("Payment attempt journal writer stopped", e);
+        } finally {
+            if (segment != null) {
+                force();
+            }
+            closeChannel();
+        }
+    }
+
+    private int drain() {
+        int drained = 0;
+        long next = head.get();
+        while (next != tail.get()) {
+            int index = (int) next & mask;
+            PaymentAttempt attempt = ring.get(index);
+            if (attempt == null) {
+                // Claimed, not yet published; picked up on the next pass
+                break;
+            }
+            ring.lazySet(index, null);
+            head.lazySet(next + 1);
+            append(firstSequence + next, attempt);
+            next++;
+            drained++;
+        }
+        return drained;
+    }
+
+    private void append(long sequence, PaymentAttempt attempt) {
+        // Buffer's own methods, a JDK 9+ build would otherwise link ByteBuffer overrides that Java 8 lacks
+        ((Buffer) scratch).clear();
+        encode(scratch, sequence, attempt);
+        int length = scratch.position();
+        try {
+            if (segment == null || segment.remaining() < RECORD_HEADER_BYTES + length + 4) {
+                if (!roll(sequence)) {
+                    lost.increment();
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            segment = null;
+            lastOpenFailureNanos = System.nanoTime();
+            lost.increment();
+            log.error("Could not start payment attempt segment in {}: {}", directory, e.getMessage());
+            return;
+        }
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+        int start = segment.position();
+        ((Buffer) segment).position(start + RECORD_HEADER_BYTES);
+        segment.put(scratch.array(), 0, length);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, length);
+        written.increment();
+        unforced++;
+    }
+
+    private void force() {
+        try {
+            segment.force();
+            forces.increment();
+        } catch (RuntimeException e) {
+            log.warn("Could not force payment attempt segment {}: {}", currentSegment, e.getMessage());
+        }
+        unforced = 0;
+        lastForceNanos = System.nanoTime();
+    }
+
+    // Seals the current segment and starts the next one named by its first sequence, dropping the oldest past max
+    private boolean roll(long sequence) throws IOException {
+        if (segment == null && lastOpenFailureNanos != 0 && System.nanoTime() - lastOpenFailureNanos < REOPEN_BACKOFF_NANOS) {
+            return false;
+        }
+        if (segment != null) {
+            force();
+            closeChannel();
+        }
+        Path path = directory.resolve(segmentName(sequence));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(sequence);
+        segment.force();
+        segments.addLast(path);
+        currentSegment = path;
+        lastOpenFailureNanos = 0;
+        while (segments.size() > maxSegments) {
+            Path oldest = segments.removeFirst();
+            try {
+                Files.deleteIfExists(oldest);
+            } catch (IOException e) {
+                log.warn("Could not delete payment attempt segment {}: {}", oldest, e.getMessage());
+            }
+        }
+        segmentCount = segments.size();
+        return true;
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close payment attempt segment {}: {}", currentSegment, e.getMessage());
+        }
+        channel = null;
+    }
+
+    // Reopens the newest segment after its last whole record; returns the sequence the next attempt gets
+    private long recover() throws IOException {
+        List<Path> existing = PaymentAttemptReader.segments(directory);
+        MappedByteBuffer mapped = null;
+        Path last = null;
+        while (!existing.isEmpty() && mapped == null) {
+            last = existing.get(existing.size() - 1);
+            channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (mapped.capacity() < HEADER_BYTES || mapped.getInt(0) == 0) {
+                // Created but never started, a crash came before its header was written
+                closeChannel();
+                Files.delete(last);
+                existing.remove(existing.size() - 1);
+                mapped = null;
+            } else if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION) {
+                closeChannel();
+                throw new IllegalStateException("Payment attempt segment " + last + " has an unknown format");
+            }
+        }
+        segments.addAll(existing);
+        segmentCount = segments.size();
+        if (mapped == null) {
+            return 0;
+        }
+        long next = mapped.getLong(8);
+        int position = HEADER_BYTES;
+        int length;
+        // The length can reach the disk before its payload does, so a record counts only if its checksum matches
+        CRC32 check = new CRC32();
+        while ((length = PaymentAttemptReader.validLength(mapped, position)) > 0
+                && PaymentAttemptReader.checksumMatches(mapped, position, length, check)) {
+            next = mapped.getLong(position + RECORD_HEADER_BYTES) + 1;
+            position += RECORD_HEADER_BYTES + length;
+        }
+        // A torn record from a crash is cleared so it cannot be read as the start of the next one
+        int end = Math.min(mapped.capacity(), position + RECORD_HEADER_BYTES + MAX_RECORD_BYTES);
+        for (int i = position; i < end; i++) {
+            mapped.put(i, (byte) 0);
+        }
+        ((Buffer) mapped).position(position);
+        segment = mapped;
+        currentSegment = last;
+        log.info("Payment attempt journal {} continues at sequence {} in {}", directory, next, last.getFileName());
+        return next;
+    }
+
+    static String segmentName(long firstSequence) {
+        return SEGMENT_PREFIX + String.format("%020d", firstSequence) + SEGMENT_SUFFIX;
+    }
+
+    private static void encode(ByteBuffer buffer, long sequence, PaymentAttempt attempt) {
+        buffer.putLong(sequence);
+        buffer.putLong(attempt.getStartedAtMillis());
+        buffer.putLong(attempt.getTotalNanos());
+        buffer.putLong(attempt.getCreateNanos());
+        buffer.putLong(attempt.getCaptureNanos());
+        buffer.putInt(attempt.getErrorStatus());
+        putString(buffer, attempt.getEnvironment() != null ? attempt.getEnvironment().name() : null);
+        putString(buffer, attempt.getClientId());
+        putString(buffer, attempt.getAmount() != null ? attempt.getAmount().toPlainString() : null);
+        putString(buffer, attempt.getCurrencyCode());
+        putString(buffer, attempt.getCardLast4());
+        putString(buffer, attempt.getIdempotencyKey());
+        putString(buffer, attempt.getOrderId());
+        putString(buffer, attempt.getOrderStatus());
+        putString(buffer, attempt.getCaptureStatus());
+        putString(buffer, attempt.getErrorClass());
+        putString(buffer, attempt.getErrorCategory() != null ? attempt.getErrorCategory().name() : null);
+    }
+
+    // Length-prefixed UTF-8, -1 for null
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        buffer.putShort((short) length);
+        buffer.put(bytes, 0, length);
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PayPalErrorCategory;
+import com.example.paypal.model.PaymentAttempt;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Sequential replay of the payment attempt journal for audits and reports. Segments are found by the first
+// sequence in their name and mapped read-only; records before the requested sequence are skipped by length alone,
+// so starting late in a large journal costs a walk over the headers, not decoding every record. Safe to run while
+// the journal is being written, reading stops at the last whole record.
+public final class PaymentAttemptReader {
+
+    public interface Visitor {
+        // Return false to stop reading
+        boolean visit(long sequence, PaymentAttempt attempt);
+    }
+
+    private PaymentAttemptReader() {
+    }
+
+    // Attempts from fromSequence on, in order, at most limit of them; returns how many were visited
+    public static int read(Path directory, long fromSequence, int limit, Visitor visitor) throws IOException {
+        List<Path> segments = segments(directory);
+        int first = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (firstSequence(segments.get(i)) <= fromSequence) {
+                first = i;
+            }
+        }
+        int visited = 0;
+        CRC32 crc = new CRC32();
+        for (int i = first; i < segments.size() && visited < limit; i++) {
+            ByteBuffer segment = map(segments.get(i));
+            if (segment == null) {
+                continue;
+            }
+            int position = PaymentAttemptJournal.HEADER_BYTES;
+            int length;
+            while (visited < limit && (length = validLength(segment, position)) > 0) {
+                int payload = position + PaymentAttemptJournal.RECORD_HEADER_BYTES;
+                long sequence = segment.getLong(payload);
+                if (sequence >= fromSequence) {
+                    if (!checksumMatches(segment, position, length, crc)) {
+                        break;
+                    }
+                    visited++;
+                    if (!visitor.visit(sequence, decode(segment, payload))) {
+                        return visited;
+                    }
+                }
+                position = payload + length;
+            }
+        }
+        return visited;
+    }
+
+    // Segment files oldest first
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                PaymentAttemptJournal.SEGMENT_PREFIX + "*" + PaymentAttemptJournal.SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        // Zero-padded sequences sort by name
+        segments.sort((left, right) -> left.getFileName().toString().compareTo(right.getFileName().toString()));
+        return segments;
+    }
+
+    // Length of the record at position if one was completely written there, otherwise 0
+    static int validLength(ByteBuffer segment, int position) {
+        if (position + PaymentAttemptJournal.RECORD_HEADER_BYTES > segment.limit()) {
+            return 0;
+        }
+        int length = segment.getInt(position);
+        if (length <= 0 || length > PaymentAttemptJournal.MAX_RECORD_BYTES
+                || position + PaymentAttemptJournal.RECORD_HEADER_BYTES + length > segment.limit()) {
+            return 0;
+        }
+        return length;
+    }
+
+    static boolean checksumMatches(ByteBuffer segment, int position, int length, CRC32 crc) {
+        ByteBuffer payload = segment.duplicate();
+        // Through Buffer, a JDK 9+ build would otherwise link ByteBuffer overrides that Java 8 lacks
+        ((Buffer) payload).position(position + PaymentAttemptJournal.RECORD_HEADER_BYTES);
+        ((Buffer) payload).limit(position + PaymentAttemptJournal.RECORD_HEADER_BYTES + length);
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue() == segment.getInt(position + 4);
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PaymentAttemptJournal.SEGMENT_PREFIX.length(),
+                    name.length() - PaymentAttemptJournal.SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < PaymentAttemptJournal.HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (segment.getInt(0) != PaymentAttemptJournal.MAGIC || segment.getInt(4) != PaymentAttemptJournal.FORMAT_VERSION) {
+                return null;
+            }
+            return segment;
+        } catch (NoSuchFileException e) {
+            // Rotated away since it was listed
+            return null;
+        }
+    }
+
+    private static PaymentAttempt decode(ByteBuffer segment, int payload) {
+        ByteBuffer record = segment.duplicate();
+        ((Buffer) record).position(payload + 8);
+        long startedAtMillis = record.getLong();
+        long totalNanos = record.getLong();
+        long createNanos = record.getLong();
+        long captureNanos = record.getLong();
+        int errorStatus = record.getInt();
+        String environment = getString(record);
+        String clientId = getString(record);
+        String amount = getString(record);
+        String currencyCode = getString(record);
+        String cardLast4 = getString(record);
+        String idempotencyKey = getString(record);
+        String orderId = getString(record);
+        String orderStatus = getString(record);
+        String captureStatus = getString(record);
+        String errorClass = getString(record);
+        String errorCategory = getString(record);
+        return new PaymentAttempt(startedAtMillis, environment != null ? EnvironmentMode.valueOf(environment) : null,
+                clientId, amount != null ? new BigDecimal(amount) : null, currencyCode, cardLast4, idempotencyKey,
+                orderId, orderStatus, captureStatus, errorClass,
+                errorCategory != null ? PayPalErrorCategory.valueOf(errorCategory) : null, errorStatus, totalNanos,
+                createNanos, captureNanos);
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.paypal.service;
+
+import com.example.paypal.config.VirtualThreads;
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.ThreadingMode;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// One bounded pool per environment, so a slow or failing LIVE API cannot take the threads SANDBOX traffic
+// needs and the other way round. A full pool turns callers away instead of growing an unbounded backlog.
+@Component
+public class PaymentBulkheads implements DisposableBean {
+
+    private final ThreadingMode threadingMode;
+    private final Map<EnvironmentMode, Bulkhead> bulkheads = new EnumMap<>(EnvironmentMode.class);
+
+    public PaymentBulkheads(@Value("${paypal.async.live.threads:64}") int liveThreads,
+                            @Value("${paypal.async.live.queue-capacity:256}") int liveQueueCapacity,
+                            @Value("${paypal.async.sandbox.threads:16}") int sandboxThreads,
+                            @Value("${paypal.async.sandbox.queue-capacity:64}") int sandboxQueueCapacity,
+                            @Value("${paypal.threads.mode:PLATFORM}") ThreadingMode threadingMode) {
+        this.threadingMode = threadingMode;
+        bulkheads.put(EnvironmentMode.LIVE, bulkhead("payment-live-", liveThreads, liveQueueCapacity));
+        bulkheads.put(EnvironmentMode.SANDBOX, bulkhead("payment-sandbox-", sandboxThreads, sandboxQueueCapacity));
+    }
+
+    public <T> CompletableFuture<T> submit(EnvironmentMode mode, Supplier<T> task) {
+        Bulkhead bulkhead = bulkheads.get(mode);
+        try {
+            return CompletableFuture.supplyAsync(task, bulkhead.executor);
+        } catch (RejectedExecutionException e) {
+            bulkhead.rejected.increment();
+            throw new RetryLaterException("Too many " + mode.name().toLowerCase() + " payments in flight, retry shortly",
+                    Duration.ofSeconds(1));
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threading", threadingMode.name());
+        bulkheads.forEach((mode, bulkhead) -> stats.put(mode.name(), bulkhead.stats()));
+        return stats;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            if (bulkhead.pool != null) {
+                bulkhead.pool.shutdown();
+            }
+        }
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            if (bulkhead.pool != null) {
+                bulkhead.pool.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private Bulkhead bulkhead(String prefix, int threads, int queueCapacity) {
+        if (threadingMode == ThreadingMode.VIRTUAL) {
+            return new Bulkhead(VirtualThreads.perTaskExecutor(prefix), threads, queueCapacity);
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        // Core and max are equal so the pool fills to its size before anything queues
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return new Bulkhead(pool);
+    }
+
+    private static final class Bulkhead {
+
+        private final ThreadPoolExecutor pool;
+        private final Executor executor;
+        private final LongAdder rejected = new LongAdder();
+        // Virtual threads cost nothing to park, so the pool limits become permits: admitted covers running and
+        // waiting tasks like the pool's threads plus queue, running caps the concurrent PayPal calls
+        private final int threads;
+        private final int admittedLimit;
+        private final Semaphore admitted;
+        private final Semaphore running;
+        private final LongAdder completed;
+
+        Bulkhead(ThreadPoolExecutor pool) {
+            this.pool = pool;
+            this.executor = pool;
+            this.threads = pool.getMaximumPoolSize();
+            this.admittedLimit = 0;
+            this.admitted = null;
+            this.running = null;
+            this.completed = null;
+        }
+
+        Bulkhead(Executor virtualThreads, int threads, int queueCapacity) {
+            this.pool = null;
+            this.threads = threads;
+            this.admittedLimit = threads + Math.max(1, queueCapacity);
+            this.admitted = new Semaphore(admittedLimit);
+            this.running = new Semaphore(threads);
+            this.completed = new LongAdder();
+            this.executor = task -> {
+                if (!admitted.tryAcquire()) {
+                    throw new RejectedExecutionException();
+                }
+                try {
+                    virtualThreads.execute(() -> runPermitted(task));
+                } catch (RuntimeException | Error e) {
+                    admitted.release();
+                    throw e;
+                }
+            };
+        }
+
+        private void runPermitted(Runnable task) {
+            try {
+                running.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    running.release();
+                }
+            } finally {
+                completed.increment();
+                admitted.release();
+            }
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("threads", threads);
+            if (pool != null) {
+                stats.put("active", pool.getActiveCount());
+                stats.put("queued", pool.getQueue().size());
+                stats.put("queueCapacity", pool.getQueue().size() + pool.getQueue().remainingCapacity());
+                stats.put("completed", pool.getCompletedTaskCount());
+            } else {
+                int active = threads - running.availablePermits();
+                stats.put("active", active);
+                stats.put("queued", Math.max(0, admittedLimit - admitted.availablePermits() - active));
+                stats.put("queueCapacity", admittedLimit - threads);
+                stats.put("completed", completed.sum());
+            }
+            stats.put("rejected", rejected.sum());
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.paypal.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+
+// A 503 for load we chose not to take on, with a Retry-After telling well-behaved clients when to come back
+public class RetryLaterException extends ResponseStatusException {
+
+    private final long retryAfterSeconds;
+
+    public RetryLaterException(String reason, Duration retryAfter) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, reason);
+        // Retry-After has whole seconds, round up so clients never come back early
+        this.retryAfterSeconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public HttpHeaders getResponseHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return headers;
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.paypal.service;
+
+import com.example.paypal.dto.BatchPaymentResult;
+import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.model.PayPalCredential;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Newline-delimited payments in, newline-delimited results out as each payment finishes. The request thread does
+// the reading, takes the merchant permit before handing a payment to the batch pool, and writes every result the
+// pool hands back. A line is only read while fewer than max-in-flight results are unwritten, so a saturated batch
+// pool, a merchant at its parallelism cap or a client slow to read results all stop the reading of input. Memory
+// is bounded by max-in-flight and the line buffer whatever the size of the upload.
+@Component
+public class StreamingPaymentProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingPaymentProcessor.class);
+
+    private static final int EOF = -1;
+    private static final int TOO_LONG = -2;
+    private static final long WAIT_SLICE_MILLIS = 20;
+
+    private final BatchPaymentProcessor batchProcessor;
+    private final PayPalPaymentService paymentService;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader requestReader;
+    private final int maxInFlight;
+    private final int maxLineBytes;
+
+    private final LongAdder streams = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public StreamingPaymentProcessor(BatchPaymentProcessor batchProcessor,
+                                     PayPalPaymentService paymentService,
+                                     ObjectMapper objectMapper,
+                                     @Value("${paypal.stream.max-in-flight:32}") int maxInFlight,
+                                     @Value("${paypal.stream.max-line-bytes:16384}") int maxLineBytes) {
+        this.batchProcessor = batchProcessor;
+        this.paymentService = paymentService;
+        this.objectMapper = objectMapper;
+        this.requestReader = objectMapper.readerFor(CardPaymentRequest.class);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    public void process(InputStream input, OutputStream output) throws IOException {
+        streams.increment();
+        activeStreams.incrementAndGet();
+        try {
+            new Stream(output).run(new BufferedInputStream(input));
+        } finally {
+            activeStreams.decrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("streams", streams.sum());
+        stats.put("activeStreams", activeStreams.get());
+        stats.put("lines", lines.sum());
+        stats.put("inFlight", inFlight.get());
+        stats.put("maxInFlightPerStream", maxInFlight);
+        return stats;
+    }
+
+    private final class Stream {
+
+        private final OutputStream output;
+        // Pool threads only hand results over; the request thread does all the writing
+        private final BlockingQueue<BatchPaymentResult> finished = new LinkedBlockingQueue<>();
+        private final byte[] line = new byte[maxLineBytes];
+        private int pending;
+        private boolean outputBroken;
+        private int succeeded;
+        private int failed;
+
+        Stream(OutputStream output) {
+            this.output = output;
+        }
+
+        void run(InputStream input) throws IOException {
+            int index = 0;
+            try {
+                for (int length = readLine(input); length != EOF && !outputBroken; length = readLine(input)) {
+                    if (length == 0) {
+                        continue;
+                    }
+                    lines.increment();
+                    while (pending >= maxInFlight) {
+                        writeFinished(finished.take());
+                    }
+                    submit(index++, length);
+                    // Results are written while the next line has yet to arrive, not only once it has
+                    while (pending > 0 && input.available() == 0) {
+                        writeFinished(finished.poll(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS));
+                    }
+                    drainFinished();
+                }
+                // Every result is written before the summary
+                while (pending > 0) {
+                    writeFinished(finished.take());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while streaming payments");
+            }
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("total", index);
+            summary.put("succeeded", succeeded);
+            summary.put("failed", failed);
+            write(summary);
+        }
+
+        private void submit(int index, int length) throws InterruptedException {
+            if (length == TOO_LONG) {
+                write(batchProcessor.failure(index, "Line is longer than " + maxLineBytes + " bytes"));
+                return;
+            }
+            CardPaymentRequest payment;
+            try {
+                payment = requestReader.readValue(line, 0, length);
+            } catch (JsonProcessingException e) {
+                write(batchProcessor.failure(index, "Malformed JSON: " + e.getOriginalMessage()));
+                return;
+            } catch (IOException e) {
+                write(batchProcessor.failure(index, "Malformed JSON: " + e.getMessage()));
+                return;
+            }
+            String problem = payment == null ? "Payment is missing" : batchProcessor.violations(payment);
+            if (problem != null) {
+                write(batchProcessor.failure(index, problem));
+                return;
+            }
+            PayPalCredential credential;
+            try {
+                credential = paymentService.requireCredential(payment.getCredentialToken());
+            } catch (ResponseStatusException e) {
+                write(batchProcessor.failure(index, e.getReason()));
+                return;
+            }
+            // Waits here while the merchant is at its cap, writing whatever finishes in the meantime
+            CompletableFuture<BatchPaymentResult> result;
+            try {
+                result = batchProcessor.submit(index, credential, payment, WAIT_SLICE_MILLIS, this::drainFinished);
+            } catch (RuntimeException e) {
+                write(batchProcessor.failure(index, "Payment processing error: " + e.getMessage()));
+                return;
+            }
+            pending++;
+            inFlight.incrementAndGet();
+            result.whenComplete((done, error) -> finished.add(error == null
+                    ? done : batchProcessor.failure(index, "Payment processing error: " + error.getMessage())));
+        }
+
+        private void drainFinished() {
+            for (BatchPaymentResult result = finished.poll(); result != null; result = finished.poll()) {
+                writeFinished(result);
+            }
+        }
+
+        private void writeFinished(BatchPaymentResult result) {
+            if (result == null) {
+                return;
+            }
+            pending--;
+            inFlight.decrementAndGet();
+            write(result);
+        }
+
+        private void write(Object value) {
+            if (value instanceof BatchPaymentResult) {
+                if (BatchPaymentResult.FAILED.equals(((BatchPaymentResult) value).getStatus())) {
+                    failed++;
+                } else {
+                    succeeded++;
+                }
+            }
+            if (outputBroken) {
+                return;
+            }
+            try {
+                output.write(objectMapper.writeValueAsBytes(value));
+                output.write('\n');
+                output.flush();
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Could not serialize stream result", e);
+            } catch (IOException e) {
+                // The client went away; payments already started finish, no further lines are read
+                log.debug("Payment stream output closed: {}", e.getMessage());
+                outputBroken = true;
+            }
+        }
+
+        // Returns the line length, EOF, or TOO_LONG after skipping the rest of an oversized line
+        private int readLine(InputStream input) throws IOException {
+            int length = 0;
+            boolean tooLong = false;
+            int b = input.read();
+            if (b < 0) {
+                return EOF;
+            }
+            while (b >= 0 && b != '\n') {
+                if (length < line.length) {
+                    line[length++] = (byte) b;
+                } else {
+                    tooLong = true;
+                }
+                b = input.read();
+            }
+            if (tooLong) {
+                return TOO_LONG;
+            }
+            while (length > 0 && (line[length - 1] == '\r' || line[length - 1] == ' ' || line[length - 1] == '\t')) {
+                length--;
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.paypal.simulator;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.Random;
+
+// fixed:20ms | uniform:10ms..80ms | lognormal:40ms..400ms (median..p99), "0" for no delay
+public final class LatencyDistribution {
+
+    // z-score of the 99th percentile of a standard normal
+    private static final double P99_Z = 2.3263478740;
+
+    private final String spec;
+    private final Kind kind;
+    private final double first;
+    private final double second;
+
+    private LatencyDistribution(String spec, Kind kind, double first, double second) {
+        this.spec = spec;
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+    }
+
+    public static LatencyDistribution none() {
+        return new LatencyDistribution("0", Kind.FIXED, 0, 0);
+    }
+
+    public static LatencyDistribution parse(String spec) {
+        String trimmed = spec.trim();
+        if (trimmed.isEmpty() || "0".equals(trimmed)) {
+            return none();
+        }
+        int colon = trimmed.indexOf(':');
+        String kind = colon < 0 ? "fixed" : trimmed.substring(0, colon).trim().toLowerCase();
+        String arguments = colon < 0 ? trimmed : trimmed.substring(colon + 1).trim();
+        int range = arguments.indexOf("..");
+        switch (kind) {
+            case "fixed":
+                return new LatencyDistribution(trimmed, Kind.FIXED, nanos(arguments), 0);
+            case "uniform":
+                requireRange(trimmed, range);
+                return new LatencyDistribution(trimmed, Kind.UNIFORM,
+                        nanos(arguments.substring(0, range)), nanos(arguments.substring(range + 2)));
+            case "lognormal":
+                requireRange(trimmed, range);
+                double median = nanos(arguments.substring(0, range));
+                double p99 = nanos(arguments.substring(range + 2));
+                if (median <= 0 || p99 < median) {
+                    throw new IllegalArgumentException("lognormal needs 0 < median <= p99: " + trimmed);
+                }
+                double mu = Math.log(median);
+                return new LatencyDistribution(trimmed, Kind.LOGNORMAL, mu, (Math.log(p99) - mu) / P99_Z);
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + trimmed);
+        }
+    }
+
+    public long sampleNanos(Random random) {
+        switch (kind) {
+            case UNIFORM:
+                return (long) (first + random.nextDouble() * (second - first));
+            case LOGNORMAL:
+                return (long) Math.exp(first + second * random.nextGaussian());
+            case FIXED:
+            default:
+                return (long) first;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    private static void requireRange(String spec, int range) {
+        if (range < 0) {
+            throw new IllegalArgumentException("Expected a from..to range: " + spec);
+        }
+    }
+
+    private static double nanos(String value) {
+        Duration duration = DurationStyle.detectAndParse(value.trim());
+        return duration.toNanos();
+    }
+
+    private enum Kind {
+        FIXED,
+        UNIFORM,
+        LOGNORMAL
+    }
+}
@@ -0,0 +1,482 @@
+package com.example.paypal.simulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-process stand-in for the OAuth token and /v2/checkout/orders endpoints PayPalPaymentService calls.
+// Responses are delayed on a scheduler rather than by sleeping, so slow latency profiles do not need a thread each.
+public class PayPalSimulator implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PayPalSimulator.class);
+
+    private static final String ORDERS_PATH = "/v2/checkout/orders";
+
+    private final SimulatorSettings settings;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ScheduledThreadPoolExecutor delays;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, SimulatedOrder> orders = new ConcurrentHashMap<>();
+    private final Queue<String> orderIds = new ConcurrentLinkedQueue<>();
+    // PayPal-Request-Id to order id, so a retried create returns the original order
+    private final Map<String, String> requestIds = new ConcurrentHashMap<>();
+
+    private final LongAdder tokenRequests = new LongAdder();
+    private final LongAdder createRequests = new LongAdder();
+    private final LongAdder captureRequests = new LongAdder();
+    private final LongAdder getRequests = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder declines = new LongAdder();
+    private final LongAdder pending = new LongAdder();
+    private final LongAdder idempotentReplays = new LongAdder();
+
+    public PayPalSimulator(SimulatorSettings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress(settings.getHost(), settings.getPort()), 1024);
+        this.handlers = Executors.newFixedThreadPool(settings.getThreads(), daemonThreads("paypal-simulator-"));
+        this.delays = new ScheduledThreadPoolExecutor(1, daemonThreads("paypal-simulator-delay-"));
+        this.server.setExecutor(handlers);
+        this.server.createContext("/v1/oauth2/token", this::token);
+        this.server.createContext(ORDERS_PATH, this::orders);
+        this.server.start();
+    }
+
+    // The JDK reads these JVM-wide properties once, before its first HttpServer, so only code that starts a simulator
+    // sets them. HttpServer writes headers and body separately; with Nagle on, every response waits out a delayed ACK.
+    // It also closes keep-alive connections past 200 idle ones as each response finishes, which a client that has just
+    // pooled one sees as a failed request; on virtual threads a burst keeps thousands of connections.
+    public static void configureHttpServer() {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "10000");
+    }
+
+    public static void main(String[] args) throws IOException {
+        configureHttpServer();
+        SimulatorSettings settings = new SimulatorSettings();
+        settings.setPort(8089);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            settings.apply(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        PayPalSimulator simulator = new PayPalSimulator(settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::close));
+        log.info("PayPal simulator listening on {}", simulator.baseUrl());
+    }
+
+    public String baseUrl() {
+        return "http://" + settings.getHost() + ":" + port();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public Map<String, Number> stats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("tokenRequests", tokenRequests.sum());
+        stats.put("createRequests", createRequests.sum());
+        stats.put("captureRequests", captureRequests.sum());
+        stats.put("getRequests", getRequests.sum());
+        stats.put("rateLimited", rateLimited.sum());
+        stats.put("errors", errors.sum());
+        stats.put("declines", declines.sum());
+        stats.put("pending", pending.sum());
+        stats.put("idempotentReplays", idempotentReplays.sum());
+        stats.put("orders", orders.size());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        delays.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    private void token(HttpExchange exchange) throws IOException {
+        tokenRequests.increment();
+        drain(exchange);
+        String clientSecret = basicSecret(exchange.getRequestHeaders().getFirst("Authorization"));
+        ObjectNode body = objectMapper.createObjectNode();
+        if (clientSecret == null || clientSecret.startsWith(settings.getInvalidSecretPrefix())) {
+            body.put("error", "invalid_client");
+            body.put("error_description", "Client Authentication failed");
+            respond(exchange, 401, body, settings.getTokenLatency());
+            return;
+        }
+        body.put("scope", "https://uri.paypal.com/services/payments/payment");
+        body.put("access_token", "SIM." + UUID.randomUUID());
+        body.put("token_type", "Bearer");
+        body.put("app_id", "APP-SIMULATOR");
+        body.put("expires_in", settings.getTokenTtl().getSeconds());
+        body.put("nonce", Instant.now() + UUID.randomUUID().toString());
+        respond(exchange, 200, body, settings.getTokenLatency());
+    }
+
+    private void orders(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            drain(exchange);
+            respond(exchange, 401, error("AUTHENTICATION_FAILURE", null,
+                    "Authentication failed due to invalid authentication credentials or a missing Authorization header."),
+                    LatencyDistribution.none());
+            return;
+        }
+        if ("POST".equals(method) && (ORDERS_PATH.equals(path) || (ORDERS_PATH + "/").equals(path))) {
+            createOrder(exchange);
+        } else if ("POST".equals(method) && path.endsWith("/capture")) {
+            captureOrder(exchange, path.substring(ORDERS_PATH.length() + 1, path.length() - "/capture".length()));
+        } else if ("GET".equals(method) && path.length() > ORDERS_PATH.length() + 1) {
+            getOrder(exchange, path.substring(ORDERS_PATH.length() + 1));
+        } else {
+            drain(exchange);
+            respond(exchange, 404, error("RESOURCE_NOT_FOUND", null, "The specified resource does not exist."),
+                    LatencyDistribution.none());
+        }
+    }
+
+    private void createOrder(HttpExchange exchange) throws IOException {
+        createRequests.increment();
+        JsonNode request = objectMapper.readTree(StreamUtils.copyToByteArray(exchange.getRequestBody()));
+        if (injectFault(exchange, settings.getCreateLatency())) {
+            return;
+        }
+        String requestId = exchange.getRequestHeaders().getFirst("PayPal-Request-Id");
+        if (requestId != null) {
+            String existing = requestIds.get(requestId);
+            SimulatedOrder replay = existing != null ? orders.get(existing) : null;
+            if (replay != null) {
+                idempotentReplays.increment();
+                respond(exchange, 201, replay.toJson(objectMapper), settings.getCreateLatency());
+                return;
+            }
+        }
+
+        JsonNode amount = request.path("purchase_units").path(0).path("amount");
+        String number = request.path("payment_source").path("card").path("number").asText("");
+        SimulatedOrder order = new SimulatedOrder(newId(), amount.path("currency_code").asText("USD"),
+                amount.path("value").asText("0.00"), number.length() >= 4 ? number.substring(number.length() - 4) : number);
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < settings.getCompleteOnCreateRate()) {
+            // Cards with ORDER_COMPLETE_ON_PAYMENT_APPROVAL can come back already captured
+            if (declined()) {
+                respond(exchange, 422, declineError(), settings.getCreateLatency());
+                return;
+            }
+            order.capture(capturePending());
+        } else if (roll < settings.getCompleteOnCreateRate() + settings.getApproveOnCreateRate()) {
+            order.status = "APPROVED";
+        }
+        remember(order);
+        if (requestId != null) {
+            requestIds.put(requestId, order.id);
+        }
+        respond(exchange, 201, order.toJson(objectMapper), settings.getCreateLatency());
+    }
+
+    private void captureOrder(HttpExchange exchange, String orderId) throws IOException {
+        captureRequests.increment();
+        drain(exchange);
+        if (injectFault(exchange, settings.getCaptureLatency())) {
+            return;
+        }
+        SimulatedOrder order = orders.get(orderId);
+        if (order == null) {
+            respond(exchange, 404, error("RESOURCE_NOT_FOUND", "INVALID_RESOURCE_ID",
+                    "Specified resource ID does not exist."), settings.getCaptureLatency());
+            return;
+        }
+        String requestId = exchange.getRequestHeaders().getFirst("PayPal-Request-Id");
+        int status;
+        JsonNode body;
+        order.lock.lock();
+        try {
+            if (requestId != null && requestId.equals(order.captureRequestId)) {
+                idempotentReplays.increment();
+                status = 201;
+                body = order.toJson(objectMapper);
+            } else if ("COMPLETED".equals(order.status)) {
+                status = 422;
+                body = error("UNPROCESSABLE_ENTITY", "ORDER_ALREADY_CAPTURED", "Order already captured.");
+            } else if (declined()) {
+                status = 422;
+                body = declineError();
+            } else {
+                order.capture(capturePending());
+                order.captureRequestId = requestId;
+                status = 201;
+                body = order.toJson(objectMapper);
+            }
+        } finally {
+            order.lock.unlock();
+        }
+        respond(exchange, status, body, settings.getCaptureLatency());
+    }
+
+    private void getOrder(HttpExchange exchange, String orderId) throws IOException {
+        getRequests.increment();
+        drain(exchange);
+        SimulatedOrder order = orders.get(orderId);
+        if (order == null) {
+            respond(exchange, 404, error("RESOURCE_NOT_FOUND", "INVALID_RESOURCE_ID",
+                    "Specified resource ID does not exist."), LatencyDistribution.none());
+            return;
+        }
+        order.review(settings.getPendingReviewTime());
+        respond(exchange, 200, order.toJson(objectMapper), LatencyDistribution.none());
+    }
+
+    private boolean injectFault(HttpExchange exchange, LatencyDistribution latency) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < settings.getRateLimitRate()) {
+            rateLimited.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 429, error("RATE_LIMIT_REACHED", null,
+                    "Too many requests. Blocked due to rate limiting."), LatencyDistribution.none());
+            return true;
+        }
+        if (random.nextDouble() < settings.getErrorRate()) {
+            errors.increment();
+            respond(exchange, 500, error("INTERNAL_SERVER_ERROR", null,
+                    "An internal server error occurred."), latency);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean declined() {
+        if (ThreadLocalRandom.current().nextDouble() < settings.getDeclineRate()) {
+            declines.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean capturePending() {
+        if (ThreadLocalRandom.current().nextDouble() < settings.getPendingRate()) {
+            pending.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private ObjectNode declineError() {
+        return error("UNPROCESSABLE_ENTITY", "INSTRUMENT_DECLINED",
+                "The instrument presented was either declined by the processor or bank, or it can't be used for this payment.");
+    }
+
+    private ObjectNode error(String name, String issue, String message) {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("name", name);
+        if (issue != null) {
+            ArrayNode details = body.putArray("details");
+            details.addObject().put("issue", issue).put("description", message);
+        }
+        body.put("message", message);
+        body.put("debug_id", debugId());
+        return body;
+    }
+
+    private void remember(SimulatedOrder order) {
+        orders.put(order.id, order);
+        orderIds.add(order.id);
+        while (orders.size() > settings.getMaxOrders()) {
+            String oldest = orderIds.poll();
+            if (oldest == null) {
+                break;
+            }
+            orders.remove(oldest);
+        }
+        if (requestIds.size() > settings.getMaxOrders()) {
+            requestIds.clear();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body, LatencyDistribution latency) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        long delay = latency.sampleNanos(ThreadLocalRandom.current());
+        if (delay <= 0) {
+            send(exchange, status, bytes);
+            return;
+        }
+        delays.schedule(() -> {
+            try {
+                send(exchange, status, bytes);
+            } catch (IOException e) {
+                log.debug("Simulator response failed: {}", e.getMessage());
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Paypal-Debug-Id", debugId());
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        try (InputStream input = exchange.getRequestBody()) {
+            StreamUtils.drain(input);
+        }
+    }
+
+    private static String basicSecret(String authorization) {
+        if (authorization == null || !authorization.startsWith("Basic ")) {
+            return null;
+        }
+        try {
+            String decoded = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+            int colon = decoded.indexOf(':');
+            return colon < 0 ? null : decoded.substring(colon + 1);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String newId() {
+        return randomToken(17).toUpperCase();
+    }
+
+    private static String debugId() {
+        return randomToken(13);
+    }
+
+    private static String randomToken(int length) {
+        Random random = ThreadLocalRandom.current();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = Character.forDigit(random.nextInt(36), 36);
+        }
+        return new String(chars);
+    }
+
+    private static CustomizableThreadFactory daemonThreads(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    private static final class SimulatedOrder {
+
+        private final String id;
+        private final String currencyCode;
+        private final String value;
+        private final String lastDigits;
+        private final String createTime = Instant.now().toString();
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile String status = "CREATED";
+        private volatile String captureId;
+        private volatile String captureStatus;
+        private volatile String captureRequestId;
+        private volatile String updateTime = createTime;
+        private volatile long capturedAtNanos;
+
+        private SimulatedOrder(String id, String currencyCode, String value, String lastDigits) {
+            this.id = id;
+            this.currencyCode = currencyCode;
+            this.value = value;
+            this.lastDigits = lastDigits;
+        }
+
+        // A pending capture still completes the order, only the capture itself waits on review
+        private void capture(boolean pending) {
+            captureId = newId();
+            captureStatus = pending ? "PENDING" : "COMPLETED";
+            status = "COMPLETED";
+            updateTime = Instant.now().toString();
+            capturedAtNanos = System.nanoTime();
+        }
+
+        // Clears a pending capture once it has been under review long enough
+        private void review(Duration reviewTime) {
+            if (!"PENDING".equals(captureStatus) || reviewTime.isZero()
+                    || System.nanoTime() - capturedAtNanos < reviewTime.toNanos()) {
+                return;
+            }
+            lock.lock();
+            try {
+                if ("PENDING".equals(captureStatus)) {
+                    captureStatus = "COMPLETED";
+                    updateTime = Instant.now().toString();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ObjectNode toJson(ObjectMapper objectMapper) {
+            ObjectNode order = objectMapper.createObjectNode();
+            order.put("id", id);
+            order.put("intent", "CAPTURE");
+            order.put("status", status);
+            ObjectNode card = order.putObject("payment_source").putObject("card");
+            card.put("last_digits", lastDigits);
+            card.put("brand", lastDigits.isEmpty() ? "UNKNOWN" : "VISA");
+            card.put("type", "CREDIT");
+            ObjectNode unit = order.putArray("purchase_units").addObject();
+            unit.put("reference_id", "default");
+            ObjectNode amount = unit.putObject("amount");
+            amount.put("currency_code", currencyCode);
+            amount.put("value", value);
+            String capture = captureId;
+            if (capture != null) {
+                ObjectNode captured = unit.putObject("payments").putArray("captures").addObject();
+                captured.put("id", capture);
+                captured.put("status", captureStatus);
+                if ("PENDING".equals(captureStatus)) {
+                    captured.putObject("status_details").put("reason", "PENDING_REVIEW");
+                }
+                ObjectNode capturedAmount = captured.putObject("amount");
+                capturedAmount.put("currency_code", currencyCode);
+                capturedAmount.put("value", value);
+                captured.put("final_capture", true);
+            }
+            order.put("create_time", createTime);
+            order.put("update_time", updateTime);
+            ArrayNode links = order.putArray("links");
+            links.addObject().put("href", "https://api.sandbox.paypal.com/v2/checkout/orders/" + id)
+                    .put("rel", "self").put("method", "GET");
+            return order;
+        }
+    }
+}
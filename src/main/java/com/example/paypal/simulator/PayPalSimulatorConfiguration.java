@@ -0,0 +1,46 @@
+package com.example.paypal.simulator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.time.Duration;
+
+// Runs the simulator inside the application; point paypal.api.base-url at it to keep PayPal out of the loop
+@Configuration
+@ConditionalOnProperty(name = "paypal.simulator.enabled", havingValue = "true")
+public class PayPalSimulatorConfiguration {
+
+    @Bean
+    public PayPalSimulator payPalSimulator(@Value("${paypal.simulator.port:8089}") int port,
+                                           @Value("${paypal.simulator.token-latency:0}") String tokenLatency,
+                                           @Value("${paypal.simulator.create-latency:0}") String createLatency,
+                                           @Value("${paypal.simulator.capture-latency:0}") String captureLatency,
+                                           @Value("${paypal.simulator.token-ttl:9h}") Duration tokenTtl,
+                                           @Value("${paypal.simulator.rate-limit-rate:0}") double rateLimitRate,
+                                           @Value("${paypal.simulator.error-rate:0}") double errorRate,
+                                           @Value("${paypal.simulator.decline-rate:0}") double declineRate,
+                                           @Value("${paypal.simulator.pending-rate:0}") double pendingRate,
+                                           @Value("${paypal.simulator.pending-review-time:0}") Duration pendingReviewTime,
+                                           @Value("${paypal.simulator.complete-on-create-rate:0}") double completeOnCreateRate,
+                                           @Value("${paypal.simulator.approve-on-create-rate:0}") double approveOnCreateRate)
+            throws IOException {
+        PayPalSimulator.configureHttpServer();
+        SimulatorSettings settings = new SimulatorSettings();
+        settings.setPort(port);
+        settings.setTokenLatency(LatencyDistribution.parse(tokenLatency));
+        settings.setCreateLatency(LatencyDistribution.parse(createLatency));
+        settings.setCaptureLatency(LatencyDistribution.parse(captureLatency));
+        settings.setTokenTtl(tokenTtl);
+        settings.setRateLimitRate(rateLimitRate);
+        settings.setErrorRate(errorRate);
+        settings.setDeclineRate(declineRate);
+        settings.setPendingRate(pendingRate);
+        settings.setPendingReviewTime(pendingReviewTime);
+        settings.setCompleteOnCreateRate(completeOnCreateRate);
+        settings.setApproveOnCreateRate(approveOnCreateRate);
+        return new PayPalSimulator(settings);
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.paypal.simulator;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+
+// Fault rates are independent probabilities in [0, 1], rolled in the order the fields are listed
+public class SimulatorSettings {
+
+    private String host = "127.0.0.1";
+    private int port;
+    private int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private LatencyDistribution tokenLatency = LatencyDistribution.none();
+    private LatencyDistribution createLatency = LatencyDistribution.none();
+    private LatencyDistribution captureLatency = LatencyDistribution.none();
+    private Duration tokenTtl = Duration.ofHours(9);
+    // Client secrets starting with this are refused at the token endpoint
+    private String invalidSecretPrefix = "invalid";
+    private double rateLimitRate;
+    private double errorRate;
+    private double declineRate;
+    private double pendingRate;
+    // How long a PENDING capture stays under review before it reads back as COMPLETED; zero keeps it pending
+    private Duration pendingReviewTime = Duration.ZERO;
+    // Share of creates answered as already COMPLETED or APPROVED instead of CREATED
+    private double completeOnCreateRate;
+    private double approveOnCreateRate;
+    private int maxOrders = 100_000;
+
+    // Accepts the same names as the paypal.simulator.* properties, e.g. "decline-rate", "create-latency"
+    public void apply(String name, String value) {
+        switch (name) {
+            case "host":
+                host = value;
+                break;
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "token-latency":
+                tokenLatency = LatencyDistribution.parse(value);
+                break;
+            case "create-latency":
+                createLatency = LatencyDistribution.parse(value);
+                break;
+            case "capture-latency":
+                captureLatency = LatencyDistribution.parse(value);
+                break;
+            case "token-ttl":
+                tokenTtl = DurationStyle.detectAndParse(value);
+                break;
+            case "invalid-secret-prefix":
+                invalidSecretPrefix = value;
+                break;
+            case "rate-limit-rate":
+                rateLimitRate = Double.parseDouble(value);
+                break;
+            case "error-rate":
+                errorRate = Double.parseDouble(value);
+                break;
+            case "decline-rate":
+                declineRate = Double.parseDouble(value);
+                break;
+            case "pending-rate":
+                pendingRate = Double.parseDouble(value);
+                break;
+            case "pending-review-time":
+                pendingReviewTime = DurationStyle.detectAndParse(value);
+                break;
+            case "complete-on-create-rate":
+                completeOnCreateRate = Double.parseDouble(value);
+                break;
+            case "approve-on-create-rate":
+                approveOnCreateRate = Double.parseDouble(value);
+                break;
+            case "max-orders":
+                maxOrders = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown simulator setting: " + name);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public LatencyDistribution getTokenLatency() {
+        return tokenLatency;
+    }
+
+    public void setTokenLatency(LatencyDistribution tokenLatency) {
+        this.tokenLatency = tokenLatency;
+    }
+
+    public LatencyDistribution getCreateLatency() {
+        return createLatency;
+    }
+
+    public void setCreateLatency(LatencyDistribution createLatency) {
+        this.createLatency = createLatency;
+    }
+
+    public LatencyDistribution getCaptureLatency() {
+        return captureLatency;
+    }
+
+    public void setCaptureLatency(LatencyDistribution captureLatency) {
+        this.captureLatency = captureLatency;
+    }
+
+    public Duration getTokenTtl() {
+        return tokenTtl;
+    }
+
+    public void setTokenTtl(Duration tokenTtl) {
+        this.tokenTtl = tokenTtl;
+    }
+
+    public String getInvalidSecretPrefix() {
+        return invalidSecretPrefix;
+    }
+
+    public void setInvalidSecretPrefix(String invalidSecretPrefix) {
+        this.invalidSecretPrefix = invalidSecretPrefix;
+    }
+
+    public double getRateLimitRate() {
+        return rateLimitRate;
+    }
+
+    public void setRateLimitRate(double rateLimitRate) {
+        this.rateLimitRate = rateLimitRate;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public double getDeclineRate() {
+        return declineRate;
+    }
+
+    public void setDeclineRate(double declineRate) {
+        this.declineRate = declineRate;
+    }
+
+    public double getPendingRate() {
+        return pendingRate;
+    }
+
+    public void setPendingRate(double pendingRate) {
+        this.pendingRate = pendingRate;
+    }
+
+    public Duration getPendingReviewTime() {
+        return pendingReviewTime;
+    }
+
+    public void setPendingReviewTime(Duration pendingReviewTime) {
+        this.pendingReviewTime = pendingReviewTime;
+    }
+
+    public double getCompleteOnCreateRate() {
+        return completeOnCreateRate;
+    }
+
+    public void setCompleteOnCreateRate(double completeOnCreateRate) {
+        this.completeOnCreateRate = completeOnCreateRate;
+    }
+
+    public double getApproveOnCreateRate() {
+        return approveOnCreateRate;
+    }
+
+    public void setApproveOnCreateRate(double approveOnCreateRate) {
+        this.approveOnCreateRate = approveOnCreateRate;
+    }
+
+    public int getMaxOrders() {
+        return maxOrders;
+    }
+
+    public void setMaxOrders(int maxOrders) {
+        this.maxOrders = maxOrders;
+    }
+}
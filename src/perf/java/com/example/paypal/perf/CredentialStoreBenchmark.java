@@ -0,0 +1,100 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.config.CredentialStore;
+import com.example.paypal.config.CredentialTokenCodec;
+import com.example.paypal.config.InMemoryCredentialStore;
+import com.example.paypal.config.MappedFileCredentialStore;
+import com.example.paypal.config.NearCachedCredentialStore;
+import com.example.paypal.config.StatelessCredentialStore;
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PayPalCredential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Contention is swept with PerfMain's --threads option (or JMH's -t), each store is shared by all benchmark threads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CredentialStoreBenchmark {
+
+    private static final int TOKENS = 10_000;
+
+    @Param({"MEMORY", "STATELESS", "FILE"})
+    public String store;
+
+    private CredentialStore credentialStore;
+    private String[] tokens;
+    private PayPalCredential credential;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        CredentialTokenCodec codec = new CredentialTokenCodec("bench:" + Base64.getEncoder().encodeToString(key));
+        Duration ttl = Duration.ofHours(1);
+        switch (store) {
+            case "STATELESS":
+                credentialStore = new StatelessCredentialStore(codec, ttl, 1024);
+                break;
+            case "FILE":
+                file = Files.createTempFile("credential-bench", ".db");
+                Files.delete(file);
+                credentialStore = new NearCachedCredentialStore(
+                        new MappedFileCredentialStore(codec, file, 65536, 1024, ttl, Duration.ofMinutes(1), Duration.ofSeconds(1)),
+                        Duration.ofSeconds(30), ttl, 10_000);
+                break;
+            default:
+                credentialStore = new InMemoryCredentialStore(ttl, 100_000, 16, Duration.ofMinutes(1));
+        }
+        credential = new PayPalCredential("AbCdEfGhIjKlMnOpQrStUvWxYz0123456789", "EFgHiJkLmNoPqRsTuVwXyZ0123456789", EnvironmentMode.SANDBOX);
+        tokens = new String[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            tokens[i] = credentialStore.save(credential);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (credentialStore instanceof DisposableBean) {
+            ((DisposableBean) credentialStore).destroy();
+        }
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public Optional<PayPalCredential> find() {
+        return credentialStore.find(tokens[ThreadLocalRandom.current().nextInt(TOKENS)]);
+    }
+
+    @Benchmark
+    public String save() {
+        return credentialStore.save(credential);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.config.CredentialStore;
+import com.example.paypal.config.CredentialTokenCodec;
+import com.example.paypal.config.InMemoryCredentialStore;
+import com.example.paypal.config.PayPalClientCache;
+import com.example.paypal.config.PayPalClientFactory;
+import com.example.paypal.config.PaymentMetrics;
+import com.example.paypal.config.PayPalTransport;
+import com.example.paypal.config.PooledPayPalTransport;
+import com.example.paypal.config.UrlConnectionTransport;
+import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.model.ThreadingMode;
+import com.example.paypal.model.VerificationMode;
+import com.example.paypal.service.AdaptiveConcurrencyLimiter;
+import com.example.paypal.service.CardPreValidator;
+import com.example.paypal.service.CredentialVerificationCache;
+import com.example.paypal.service.DeferredCaptureQueue;
+import com.example.paypal.service.IdempotencyCache;
+import com.example.paypal.service.OrderStatusReconciler;
+import com.example.paypal.service.PayPalCallGuard;
+import com.example.paypal.service.PayPalPaymentService;
+import com.example.paypal.service.PaymentAttemptJournal;
+import com.example.paypal.service.PaymentBulkheads;
+import com.example.paypal.simulator.PayPalSimulator;
+import com.example.paypal.simulator.SimulatorSettings;
+import com.paypal.orders.Order;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// processDirectCardPayment wired by hand the way Spring wires it, against a zero-latency PayPalSimulator
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndPaymentBenchmark {
+
+    @Param({"JDK", "POOLED"})
+    public String transport;
+
+    private PayPalSimulator simulator;
+    private PayPalTransport payPalTransport;
+    private PayPalClientCache clientCache;
+    private PaymentBulkheads bulkheads;
+    private PayPalPaymentService paymentService;
+    private CardPaymentRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        PayPalSimulator.configureHttpServer();
+        simulator = new PayPalSimulator(new SimulatorSettings());
+        Duration timeout = Duration.ofSeconds(10);
+        PaymentMetrics metrics = new PaymentMetrics(new SimpleMeterRegistry());
+        payPalTransport = "POOLED".equals(transport)
+                ? new PooledPayPalTransport(64, Duration.ofMinutes(5), 256, Duration.ofSeconds(5), timeout, timeout, true)
+                : new UrlConnectionTransport();
+        PayPalClientFactory clientFactory = new PayPalClientFactory(payPalTransport, timeout, timeout, simulator.baseUrl(),
+                Fixtures.sdkVersion(), metrics);
+        clientCache = new PayPalClientCache(clientFactory, 1000, Duration.ofMinutes(30), Duration.ofMinutes(5), Duration.ofSeconds(60));
+        CredentialStore credentialStore = new InMemoryCredentialStore(Duration.ofHours(1), 1000, 16, Duration.ofMinutes(1));
+        CredentialVerificationCache verificationCache = new CredentialVerificationCache(Duration.ofMinutes(10), Duration.ofSeconds(30), 1000);
+        bulkheads = new PaymentBulkheads(64, 256, 64, 256, ThreadingMode.PLATFORM);
+        PayPalCallGuard callGuard = new PayPalCallGuard(3, Duration.ofMillis(100), Duration.ofSeconds(2), 5, Duration.ofSeconds(30));
+        paymentService = new PayPalPaymentService(clientCache, credentialStore, verificationCache, VerificationMode.TOKEN,
+                new CardPreValidator(), bulkheads, new IdempotencyCache(Duration.ofHours(24), 100000),
+                callGuard,
+                // Limiter off, these measure the payment path rather than load shedding
+                new AdaptiveConcurrencyLimiter(false, 64, 512, 16, 128, 2, 0.9, 2.0, Duration.ofSeconds(1)), metrics,
+                new DeferredCaptureQueue(false, credentialStore, new CredentialTokenCodec(""), clientCache, callGuard,
+                        "unused", 1, 1, 1, Duration.ofSeconds(5), timeout, Duration.ofHours(24), 0),
+                new OrderStatusReconciler(false, clientCache, callGuard, Duration.ofMillis(500), Duration.ofSeconds(2),
+                        Duration.ofMinutes(5), 1, 1, 1, Duration.ofHours(72), Duration.ofHours(1), timeout),
+                new PaymentAttemptJournal(false, "unused", 67108864, 1, 2, Duration.ofMillis(10), 1),
+                Duration.ofSeconds(2));
+        String token = paymentService.validateAndStoreCredential("bench-client", "bench-secret", "sandbox");
+        request = Fixtures.cardPayment(token);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        bulkheads.destroy();
+        clientCache.destroy();
+        if (payPalTransport instanceof DisposableBean) {
+            ((DisposableBean) payPalTransport).destroy();
+        }
+        simulator.close();
+    }
+
+    @Benchmark
+    public Order processDirectCardPayment() {
+        return paymentService.processDirectCardPayment(request);
+    }
+
+    // The same work handed to the SANDBOX bulkhead, so the difference is the cost of the hand-off
+    @Benchmark
+    public Order processDirectCardPaymentAsync() {
+        return paymentService.processDirectCardPaymentAsync(request).join();
+    }
+}
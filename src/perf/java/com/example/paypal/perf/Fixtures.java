@@ -0,0 +1,46 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.dto.BillingAddress;
+import com.example.paypal.dto.CardPaymentRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.Properties;
+
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    // The SDK version the build filtered into application.properties, as the application would get it
+    static String sdkVersion() {
+        Properties properties = new Properties();
+        try (InputStream in = Fixtures.class.getResourceAsStream("/application.properties")) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties.getProperty("paypal.sdk.version");
+    }
+
+    static CardPaymentRequest cardPayment(String credentialToken) {
+        CardPaymentRequest request = new CardPaymentRequest();
+        request.setCredentialToken(credentialToken);
+        request.setAmount(new BigDecimal("10.00"));
+        request.setCurrencyCode("usd");
+        request.setCardNumber("4111 1111 1111 1111");
+        request.setExpiry("2030-12");
+        request.setSecurityCode("123");
+        request.setCardholderName("Jane Doe");
+        BillingAddress address = new BillingAddress();
+        address.setAddressLine1("2211 N First St");
+        address.setAdminArea2("San Jose");
+        address.setAdminArea1("CA");
+        address.setPostalCode("95131");
+        address.setCountryCode("us");
+        request.setBillingAddress(address);
+        return request;
+    }
+}
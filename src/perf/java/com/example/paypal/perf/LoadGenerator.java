@@ -0,0 +1,314 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.PaypalJavaV6Application;
+import com.example.paypal.simulator.PayPalSimulator;
+import com.example.paypal.simulator.SimulatorSettings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-loop load against /api/credentials/validate and /api/payment/process (or payment-path).
+// Requests are started on a fixed schedule and latency is measured from the scheduled start, so a stalled
+// server shows up in the percentiles instead of silently lowering the offered rate (coordinated omission).
+//
+// Arguments are name=value pairs:
+//   url=http://host:8080    target an already running service; omitted, the app boots in-process against a PayPalSimulator
+//   rps=100 duration=30s warmup=5s max-in-flight=512 timeout=30s validate-ratio=0.0
+//   client-id=... client-secret=... hgrm=target/load-latency.hgrm payment-path=/api/payment/process-async
+//   sim.<setting>=value     simulator settings, e.g. sim.create-latency=lognormal:40ms..400ms sim.decline-rate=0.02
+//   app.<property>=value    application properties for the in-process app, e.g. app.paypal.http.transport=POOLED
+public final class LoadGenerator {
+
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Recorder recorder = new Recorder(MAX_LATENCY_MICROS, 3);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private String url;
+    private int rps = 100;
+    private Duration duration = Duration.ofSeconds(30);
+    private Duration warmup = Duration.ofSeconds(5);
+    private int maxInFlight = 512;
+    private Duration timeout = Duration.ofSeconds(30);
+    private double validateRatio;
+    private String clientId = "load-client";
+    private String clientSecret = "load-secret";
+    private String hgrm;
+    private String paymentPath = "/api/payment/process";
+    private final SimulatorSettings simulatorSettings = new SimulatorSettings();
+    private final List<String> appArgs = new ArrayList<>();
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            generator.apply(arg);
+        }
+        generator.run();
+    }
+
+    private void apply(String arg) {
+        int equals = arg.indexOf('=');
+        if (equals < 0) {
+            throw new IllegalArgumentException("Expected name=value, got " + arg);
+        }
+        String name = arg.substring(0, equals);
+        String value = arg.substring(equals + 1);
+        if (name.startsWith("sim.")) {
+            simulatorSettings.apply(name.substring(4), value);
+            return;
+        }
+        if (name.startsWith("app.")) {
+            appArgs.add("--" + name.substring(4) + "=" + value);
+            return;
+        }
+        switch (name) {
+            case "url":
+                url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                break;
+            case "rps":
+                rps = Integer.parseInt(value);
+                break;
+            case "duration":
+                duration = DurationStyle.detectAndParse(value);
+                break;
+            case "warmup":
+                warmup = DurationStyle.detectAndParse(value);
+                break;
+            case "max-in-flight":
+                maxInFlight = Integer.parseInt(value);
+                break;
+            case "timeout":
+                timeout = DurationStyle.detectAndParse(value);
+                break;
+            case "validate-ratio":
+                validateRatio = Double.parseDouble(value);
+                break;
+            case "client-id":
+                clientId = value;
+                break;
+            case "client-secret":
+                clientSecret = value;
+                break;
+            case "hgrm":
+                hgrm = value;
+                break;
+            case "payment-path":
+                paymentPath = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + name);
+        }
+    }
+
+    private void run() throws Exception {
+        PayPalSimulator simulator = null;
+        ConfigurableApplicationContext application = null;
+        if (url == null) {
+            PayPalSimulator.configureHttpServer();
+            simulator = new PayPalSimulator(simulatorSettings);
+            List<String> args = new ArrayList<>();
+            args.add("--server.port=0");
+            args.add("--paypal.api.base-url=" + simulator.baseUrl());
+            args.addAll(appArgs);
+            application = SpringApplication.run(PaypalJavaV6Application.class, args.toArray(new String[0]));
+            url = "http://127.0.0.1:" + application.getEnvironment().getProperty("local.server.port");
+            System.out.println("In-process app at " + url + " using simulator at " + simulator.baseUrl());
+        }
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxInFlight);
+        dispatcher.setMaxRequestsPerHost(maxInFlight);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxInFlight, 5, TimeUnit.MINUTES))
+                .callTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(false)
+                .build();
+        try {
+            String credentialToken = validate(client);
+            byte[] validateBody = validateBody();
+            byte[] paymentBody = paymentBody(credentialToken);
+            drive(client, validateBody, paymentBody);
+        } finally {
+            client.dispatcher().executorService().shutdownNow();
+            client.connectionPool().evictAll();
+            if (application != null) {
+                application.close();
+            }
+            if (simulator != null) {
+                System.out.println("Simulator: " + simulator.stats());
+                simulator.close();
+            }
+        }
+    }
+
+    private void drive(OkHttpClient client, byte[] validateBody, byte[] paymentBody) throws IOException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rps;
+        long startedAt = System.nanoTime();
+        long measureFrom = startedAt + warmup.toNanos();
+        long endAt = measureFrom + duration.toNanos();
+        long nextReport = startedAt + TimeUnit.SECONDS.toNanos(1);
+        Histogram total = new Histogram(MAX_LATENCY_MICROS, 3);
+        Histogram interval = null;
+        long measuredStart = 0;
+        long sent = 0;
+
+        System.out.printf("Offering %d rps for %s after %s warmup against %s%n", rps, duration, warmup, url);
+        while (true) {
+            long intended = startedAt + sent * intervalNanos;
+            if (intended >= endAt) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (now >= nextReport) {
+                interval = recorder.getIntervalHistogram(interval);
+                boolean measuring = nextReport > measureFrom;
+                if (measuring) {
+                    total.add(interval);
+                }
+                report(measuring ? "measure" : "warmup", interval);
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+                if (!measuring && nextReport > measureFrom) {
+                    // Outcomes cover the same completions as the measured histogram intervals
+                    outcomes.clear();
+                }
+                continue;
+            }
+            if (intended > now) {
+                LockSupport.parkNanos(Math.min(intended, nextReport) - now);
+                continue;
+            }
+            if (measuredStart == 0 && intended >= measureFrom) {
+                measuredStart = intended;
+            }
+            boolean validate = validateRatio > 0 && ThreadLocalRandom.current().nextDouble() < validateRatio;
+            send(client, validate ? "/api/credentials/validate" : paymentPath,
+                    validate ? validateBody : paymentBody, intended);
+            sent++;
+        }
+
+        long drainUntil = System.nanoTime() + timeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        total.add(recorder.getIntervalHistogram());
+        summarize(total, System.nanoTime() - (measuredStart == 0 ? measureFrom : measuredStart));
+    }
+
+    private void send(OkHttpClient client, String path, byte[] body, long intendedNanos) {
+        Request request = new Request.Builder().url(url + path).post(RequestBody.create(body, JSON)).build();
+        inFlight.incrementAndGet();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    response.body().source().skip(Long.MAX_VALUE);
+                } catch (IOException ignored) {
+                    // The status is what gets counted
+                } finally {
+                    response.close();
+                    record(path + " " + response.code(), intendedNanos);
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                record(path + " " + e.getClass().getSimpleName(), intendedNanos);
+            }
+        });
+    }
+
+    private void record(String outcome, long intendedNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos);
+        recorder.recordValue(Math.min(Math.max(micros, 1), MAX_LATENCY_MICROS));
+        outcomes.computeIfAbsent(outcome, ignored -> new LongAdder()).increment();
+        inFlight.decrementAndGet();
+    }
+
+    private void report(String phase, Histogram interval) {
+        System.out.printf("[%s] %6d req/s  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms  in-flight %d%n", phase,
+                interval.getTotalCount(), millis(interval.getValueAtPercentile(50)),
+                millis(interval.getValueAtPercentile(99)), millis(interval.getMaxValue()), inFlight.get());
+    }
+
+    private void summarize(Histogram total, long elapsedNanos) throws IOException {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("Completed %d requests in %.1f s: %.1f req/s (offered %d)%n", total.getTotalCount(), seconds,
+                total.getTotalCount() / seconds, rps);
+        new TreeMap<>(outcomes).forEach((outcome, count) -> System.out.printf("  %-45s %d%n", outcome, count.sum()));
+        for (double percentile : new double[]{50, 90, 99, 99.9, 99.99}) {
+            System.out.printf("  p%-6s %10.2f ms%n", percentile, millis(total.getValueAtPercentile(percentile)));
+        }
+        System.out.printf("  max     %10.2f ms%n", millis(total.getMaxValue()));
+        if (hgrm != null) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(hgrm))) {
+                total.outputPercentileDistribution(out, 1000.0);
+            }
+            System.out.println("Percentile distribution written to " + hgrm);
+        }
+    }
+
+    private String validate(OkHttpClient client) throws IOException {
+        Request request = new Request.Builder().url(url + "/api/credentials/validate")
+                .post(RequestBody.create(validateBody(), JSON)).build();
+        try (Response response = client.newCall(request).execute()) {
+            String body = response.body().string();
+            if (!response.isSuccessful()) {
+                throw new IOException("Credential validation failed with " + response.code() + ": " + body);
+            }
+            return objectMapper.readTree(body).path("credentialToken").asText();
+        }
+    }
+
+    private byte[] validateBody() throws IOException {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("clientId", clientId);
+        body.put("clientSecret", clientSecret);
+        body.put("environment", "sandbox");
+        return objectMapper.writeValueAsBytes(body);
+    }
+
+    private byte[] paymentBody(String credentialToken) throws IOException {
+        return objectMapper.writeValueAsBytes(Fixtures.cardPayment(credentialToken));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.service.CardPreValidator;
+import com.example.paypal.service.OrderRequestWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Payload building and the local card checks that run before every payment
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderPayloadBenchmark {
+
+    private final OrderRequestWriter writer = new OrderRequestWriter();
+    private final CardPreValidator validator = new CardPreValidator();
+    private final CardPaymentRequest request = Fixtures.cardPayment("token");
+    private final long now = System.currentTimeMillis();
+
+    @Benchmark
+    public byte[] writeOrderPayload() {
+        return writer.write(request);
+    }
+
+    @Benchmark
+    public int preValidateCard() {
+        return validator.check(request, now);
+    }
+}
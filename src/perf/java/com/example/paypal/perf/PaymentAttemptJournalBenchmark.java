@@ -0,0 +1,78 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PaymentAttempt;
+import com.example.paypal.service.PaymentAttemptJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// What journaling costs the payment thread: building the attempt and handing it to the ring. Each iteration is a
+// burst of BURST attempts into an empty ring, so the score divided by BURST is the per-payment cost without the
+// cheaper dropped path skewing it; the writer catches up between iterations.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = PaymentAttemptJournalBenchmark.BURST)
+@Measurement(iterations = 20, batchSize = PaymentAttemptJournalBenchmark.BURST)
+@Fork(1)
+public class PaymentAttemptJournalBenchmark {
+
+    static final int BURST = 50_000;
+
+    private final CardPaymentRequest request = Fixtures.cardPayment("token");
+    private PaymentAttemptJournal journal;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("attempt-journal-bench");
+        journal = new PaymentAttemptJournal(true, directory.toString(), 64L * 1024 * 1024, 4, 65536,
+                Duration.ofMillis(10), 512);
+    }
+
+    @Setup(Level.Iteration)
+    public void awaitWriter() throws InterruptedException {
+        while (((Number) journal.stats().get("backlog")).longValue() > 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        journal.destroy();
+        System.out.println("\n" + journal.stats());
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void record() {
+        long startedAt = System.nanoTime();
+        journal.record(new PaymentAttempt(System.currentTimeMillis(), EnvironmentMode.SANDBOX, "bench-client",
+                request.getAmount(), request.getCurrencyCode(), PaymentAttempt.last4(request.getCardNumber()), null,
+                "5O190127TN364715T", "COMPLETED", "COMPLETED", null, null, 0, System.nanoTime() - startedAt,
+                120_000_000L, 240_000_000L));
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.paypal.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// run [--threads 1,2,4] [--gc] [--out file] [JMH options and benchmark patterns]
+//   Runs the benchmarks once per thread count and writes every result into one JMH JSON file.
+// compare <baseline.json> <current.json> [--threshold percent]
+//   Matches runs by benchmark, mode, threads and params and exits 1 when any score, or the normalized
+//   allocation rate, got worse by more than the threshold and the score error.
+// load [name=value ...]
+//   Open-loop HTTP load test, see LoadGenerator.
+public final class PerfMain {
+
+    private static final String DEFAULT_OUT = "target/jmh-result.json";
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+    // Allocation jitter from TLAB refills and JIT, below this a change in bytes/op is not a regression
+    private static final double ALLOCATION_NOISE_BYTES = 16;
+
+    private PerfMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "compare".equals(args[0])) {
+            System.exit(compare(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && "load".equals(args[0])) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(0);
+        }
+        int from = args.length > 0 && "run".equals(args[0]) ? 1 : 0;
+        run(Arrays.copyOfRange(args, from, args.length));
+    }
+
+    private static void run(String[] args) throws Exception {
+        List<Integer> threadCounts = new ArrayList<>();
+        boolean gc = false;
+        String out = DEFAULT_OUT;
+        List<String> jmhArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                for (String count : args[++i].split(",")) {
+                    threadCounts.add(Integer.parseInt(count.trim()));
+                }
+            } else if ("--gc".equals(args[i])) {
+                gc = true;
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+                out = args[++i];
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        if (threadCounts.isEmpty()) {
+            threadCounts.add(-1);
+        }
+
+        List<RunResult> results = new ArrayList<>();
+        for (int threads : threadCounts) {
+            ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+            if (threads > 0) {
+                options.threads(threads);
+            }
+            if (gc) {
+                options.addProfiler(GCProfiler.class);
+            }
+            results.addAll(new Runner(options.build()).run());
+        }
+        File file = new File(out);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        System.out.println("Results written to " + file.getAbsolutePath());
+    }
+
+    private static int compare(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: compare <baseline.json> <current.json> [--threshold percent]");
+            return 2;
+        }
+        double threshold = DEFAULT_THRESHOLD_PERCENT;
+        for (int i = 2; i < args.length; i++) {
+            if ("--threshold".equals(args[i]) && i + 1 < args.length) {
+                threshold = Double.parseDouble(args[++i]);
+            }
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = index(mapper.readTree(new File(args[0])));
+        Map<String, JsonNode> current = index(mapper.readTree(new File(args[1])));
+
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s  %s%n", "Benchmark", "Baseline", "Current", "Change", "");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-90s %14s %14s %9s  new%n", entry.getKey(), "-",
+                        score(entry.getValue().path("primaryMetric")), "");
+                continue;
+            }
+            JsonNode after = entry.getValue();
+            boolean higherIsBetter = "thrpt".equals(after.path("mode").asText());
+            if (report(entry.getKey(), before.path("primaryMetric"), after.path("primaryMetric"), higherIsBetter, threshold, 0)) {
+                regressions++;
+            }
+            JsonNode beforeAllocation = allocation(before);
+            JsonNode afterAllocation = allocation(after);
+            if (beforeAllocation != null && afterAllocation != null
+                    && report(entry.getKey() + " [B/op]", beforeAllocation, afterAllocation, false, threshold, ALLOCATION_NOISE_BYTES)) {
+                regressions++;
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf("%-90s missing from current run%n", key);
+            }
+        }
+        System.out.println(regressions == 0 ? "No regressions beyond " + threshold + "%"
+                : regressions + " regression(s) beyond " + threshold + "%");
+        return regressions == 0 ? 0 : 1;
+    }
+
+    private static boolean report(String name, JsonNode before, JsonNode after, boolean higherIsBetter,
+                                  double thresholdPercent, double absoluteNoise) {
+        double baseline = before.path("score").asDouble();
+        double current = after.path("score").asDouble();
+        double change = baseline == 0 ? 0 : (current - baseline) / baseline * 100;
+        double worse = higherIsBetter ? baseline - current : current - baseline;
+        // Overlapping error bars are not a regression however large the relative change looks
+        double noise = Math.max(absoluteNoise, errorOf(before) + errorOf(after));
+        boolean regression = worse > noise && Math.abs(change) > thresholdPercent;
+        System.out.printf("%-90s %14s %14s %+8.1f%%  %s%n", name, score(before), score(after), change,
+                regression ? "REGRESSION" : "");
+        return regression;
+    }
+
+    private static double errorOf(JsonNode metric) {
+        double error = metric.path("scoreError").asDouble(0);
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    private static String score(JsonNode metric) {
+        return String.format("%.3f %s", metric.path("score").asDouble(), metric.path("scoreUnit").asText());
+    }
+
+    // JMH 1.37 reports gc.alloc.rate.norm, older versions prefix secondary metric names with a dot
+    private static JsonNode allocation(JsonNode run) {
+        Iterator<Map.Entry<String, JsonNode>> metrics = run.path("secondaryMetrics").fields();
+        while (metrics.hasNext()) {
+            Map.Entry<String, JsonNode> metric = metrics.next();
+            if (metric.getKey().endsWith("gc.alloc.rate.norm")) {
+                return metric.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, JsonNode> index(JsonNode runs) {
+        Map<String, JsonNode> indexed = new LinkedHashMap<>();
+        for (JsonNode run : runs) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText())
+                    .append(' ').append(run.path("mode").asText())
+                    .append(" t=").append(run.path("threads").asInt());
+            Map<String, String> params = new TreeMap<>();
+            run.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+            params.forEach((name, value) -> key.append(' ').append(name).append('=').append(value));
+            indexed.put(key.toString(), run);
+        }
+        return indexed;
+    }
+}
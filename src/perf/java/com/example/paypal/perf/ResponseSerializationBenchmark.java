@@ -0,0 +1,64 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.dto.CardPaymentResponse;
+import com.example.paypal.dto.PaymentResponseField;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paypal.http.serializer.Json;
+import com.paypal.orders.Order;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// Response rendering with the same Jackson defaults Spring MVC uses
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseSerializationBenchmark {
+
+    private static final String ORDER_JSON = "{\"id\":\"5O190127TN364715T\",\"intent\":\"CAPTURE\",\"status\":\"COMPLETED\","
+            + "\"payment_source\":{\"card\":{\"last_digits\":\"1111\",\"brand\":\"VISA\",\"type\":\"CREDIT\"}},"
+            + "\"purchase_units\":[{\"reference_id\":\"default\",\"amount\":{\"currency_code\":\"USD\",\"value\":\"10.00\"},"
+            + "\"payments\":{\"captures\":[{\"id\":\"3C679366HH908993F\",\"status\":\"COMPLETED\","
+            + "\"amount\":{\"currency_code\":\"USD\",\"value\":\"10.00\"},\"final_capture\":true}]}}],"
+            + "\"links\":[{\"href\":\"https://api.sandbox.paypal.com/v2/checkout/orders/5O190127TN364715T\","
+            + "\"rel\":\"self\",\"method\":\"GET\"}]}";
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private CardPaymentResponse compactResponse;
+    private CardPaymentResponse fullResponse;
+
+    @Setup
+    public void setUp() throws Exception {
+        Order order = new Json().decode(ORDER_JSON, Order.class);
+        compactResponse = new CardPaymentResponse(order, PaymentResponseField.COMPACT);
+        fullResponse = new CardPaymentResponse(order, PaymentResponseField.FULL);
+    }
+
+    @Benchmark
+    public byte[] serializeCompactResponse() throws Exception {
+        return objectMapper.writeValueAsBytes(compactResponse);
+    }
+
+    @Benchmark
+    public byte[] serializeFullResponse() throws Exception {
+        return objectMapper.writeValueAsBytes(fullResponse);
+    }
+
+    @Benchmark
+    public Order decodeOrder() throws Exception {
+        return new Json().decode(ORDER_JSON, Order.class);
+    }
+}
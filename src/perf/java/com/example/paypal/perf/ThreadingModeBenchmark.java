@@ -0,0 +1,152 @@
+package com.example.paypal.perf;
+
+import com.example.paypal.config.CredentialStore;
+import com.example.paypal.config.CredentialTokenCodec;
+import com.example.paypal.config.InMemoryCredentialStore;
+import com.example.paypal.config.PayPalClientCache;
+import com.example.paypal.config.PayPalClientFactory;
+import com.example.paypal.config.PaymentMetrics;
+import com.example.paypal.config.PooledPayPalTransport;
+import com.example.paypal.config.VirtualThreads;
+import com.example.paypal.dto.CardPaymentRequest;
+import com.example.paypal.model.ThreadingMode;
+import com.example.paypal.model.VerificationMode;
+import com.example.paypal.service.AdaptiveConcurrencyLimiter;
+import com.example.paypal.service.CardPreValidator;
+import com.example.paypal.service.CredentialVerificationCache;
+import com.example.paypal.service.DeferredCaptureQueue;
+import com.example.paypal.service.IdempotencyCache;
+import com.example.paypal.service.OrderStatusReconciler;
+import com.example.paypal.service.PayPalCallGuard;
+import com.example.paypal.service.PayPalPaymentService;
+import com.example.paypal.service.PaymentAttemptJournal;
+import com.example.paypal.service.PaymentBulkheads;
+import com.example.paypal.simulator.LatencyDistribution;
+import com.example.paypal.simulator.PayPalSimulator;
+import com.example.paypal.simulator.SimulatorSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// A burst of blocking processDirectCardPayment calls against a simulator with 20 ms create and capture latency,
+// run on Tomcat's default 200 worker threads or on a virtual thread each. The score is the time for the whole
+// burst. VIRTUAL needs a Java 21 JVM and fails its setup on anything older.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadingModeBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public String threading;
+
+    @Param({"200", "2000"})
+    public int concurrency;
+
+    private PayPalSimulator simulator;
+    private PooledPayPalTransport transport;
+    private PayPalClientCache clientCache;
+    private PaymentBulkheads bulkheads;
+    private PayPalPaymentService paymentService;
+    private ExecutorService platformThreads;
+    private Executor executor;
+    private CardPaymentRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (ThreadingMode.valueOf(threading) == ThreadingMode.VIRTUAL) {
+            executor = VirtualThreads.perTaskExecutor("bench-virtual-");
+        } else {
+            platformThreads = Executors.newFixedThreadPool(PLATFORM_THREADS, new CustomizableThreadFactory("bench-platform-"));
+            executor = platformThreads;
+        }
+        PayPalSimulator.configureHttpServer();
+        SimulatorSettings settings = new SimulatorSettings();
+        settings.setCreateLatency(LatencyDistribution.parse("fixed:20ms"));
+        settings.setCaptureLatency(LatencyDistribution.parse("fixed:20ms"));
+        simulator = new PayPalSimulator(settings);
+        Duration timeout = Duration.ofSeconds(30);
+        PaymentMetrics metrics = new PaymentMetrics(new SimpleMeterRegistry());
+        // HTTP/1.1 with a connection per concurrent call, the way the pooled transport runs in VIRTUAL mode
+        transport = new PooledPayPalTransport(concurrency, Duration.ofMinutes(5), concurrency, timeout, timeout, timeout, false);
+        clientCache = new PayPalClientCache(new PayPalClientFactory(transport, timeout, timeout, simulator.baseUrl(),
+                Fixtures.sdkVersion(), metrics),
+                1000, Duration.ofMinutes(30), Duration.ofMinutes(5), Duration.ofSeconds(60));
+        CredentialStore credentialStore = new InMemoryCredentialStore(Duration.ofHours(1), 1000, 16, Duration.ofMinutes(1));
+        CredentialVerificationCache verificationCache = new CredentialVerificationCache(Duration.ofMinutes(10), Duration.ofSeconds(30), 1000);
+        bulkheads = new PaymentBulkheads(16, 64, 16, 64, ThreadingMode.PLATFORM);
+        PayPalCallGuard callGuard = new PayPalCallGuard(3, Duration.ofMillis(100), Duration.ofSeconds(2), 5, Duration.ofSeconds(30));
+        paymentService = new PayPalPaymentService(clientCache, credentialStore, verificationCache, VerificationMode.TOKEN,
+                new CardPreValidator(), bulkheads, new IdempotencyCache(Duration.ofHours(24), 100000),
+                callGuard,
+                // Limiter off, these measure the payment path rather than load shedding
+                new AdaptiveConcurrencyLimiter(false, 64, 512, 16, 128, 2, 0.9, 2.0, Duration.ofSeconds(1)), metrics,
+                new DeferredCaptureQueue(false, credentialStore, new CredentialTokenCodec(""), clientCache, callGuard,
+                        "unused", 1, 1, 1, Duration.ofSeconds(5), timeout, Duration.ofHours(24), 0),
+                new OrderStatusReconciler(false, clientCache, callGuard, Duration.ofMillis(500), Duration.ofSeconds(2),
+                        Duration.ofMinutes(5), 1, 1, 1, Duration.ofHours(72), Duration.ofHours(1), timeout),
+                new PaymentAttemptJournal(false, "unused", 67108864, 1, 2, Duration.ofMillis(10), 1),
+                Duration.ofSeconds(2));
+        request = Fixtures.cardPayment(paymentService.validateAndStoreCredential("bench-client", "bench-secret", "sandbox"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (platformThreads != null) {
+            platformThreads.shutdownNow();
+        }
+        bulkheads.destroy();
+        clientCache.destroy();
+        transport.destroy();
+        simulator.close();
+    }
+
+    @Benchmark
+    public int burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(concurrency);
+        AtomicInteger failures = new AtomicInteger();
+        AtomicReference<RuntimeException> firstFailure = new AtomicReference<>();
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(() -> {
+                try {
+                    paymentService.processDirectCardPayment(request);
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    firstFailure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " of " + concurrency + " payments failed", firstFailure.get());
+        }
+        return concurrency;
+    }
+}
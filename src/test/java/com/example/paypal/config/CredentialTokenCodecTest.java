@@ -0,0 +1,151 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PayPalCredential;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CredentialTokenCodecTest {
+
+    private static final String KEY_A = "a:" + key(1, 32);
+    private static final String KEY_B = "b:" + key(2, 16);
+    private static final String BASE64_URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private final PayPalCredential credential = new PayPalCredential("client-ünïcødé-😀", "s3cr:et,.",
+            EnvironmentMode.LIVE, Instant.ofEpochMilli(1_700_000_000_123L));
+
+    @Test
+    void roundTripsCredentialAndExpiry() {
+        CredentialTokenCodec codec = new CredentialTokenCodec(KEY_A);
+        String token = codec.encode(credential, 1_800_000_000_000L);
+
+        assertTrue(CredentialTokenCodec.isStateless(token));
+        CredentialTokenCodec.Decoded decoded = codec.decode(token);
+        assertNotNull(decoded);
+        assertEquals(1_800_000_000_000L, decoded.getExpiresAtMillis());
+        assertEquals(credential.getClientId(), decoded.getCredential().getClientId());
+        assertEquals(credential.getClientSecret(), decoded.getCredential().getClientSecret());
+        assertEquals(EnvironmentMode.LIVE, decoded.getCredential().getMode());
+        assertEquals(credential.getCreatedAt(), decoded.getCredential().getCreatedAt());
+    }
+
+    @Test
+    void sealsEachTokenWithAFreshNonce() {
+        CredentialTokenCodec codec = new CredentialTokenCodec(KEY_A);
+        assertNotEquals(codec.encode(credential, 1L), codec.encode(credential, 1L));
+    }
+
+    @Test
+    void rejectsEveryTamperedCharacter() {
+        CredentialTokenCodec codec = new CredentialTokenCodec(KEY_A);
+        String token = codec.encode(credential, 1_800_000_000_000L);
+        for (int i = 0; i < token.length(); i++) {
+            // Flip the high bit of the sextet, the low bits of the last character may be padding
+            int sextet = BASE64_URL.indexOf(token.charAt(i));
+            char replacement = sextet < 0 ? 'A' : BASE64_URL.charAt(sextet ^ 0x20);
+            String tampered = token.substring(0, i) + replacement + token.substring(i + 1);
+            assertNull(codec.decode(tampered), "accepted a token changed at index " + i);
+        }
+    }
+
+    @Test
+    void rejectsTruncatedAndMalformedTokens() {
+        CredentialTokenCodec codec = new CredentialTokenCodec(KEY_A);
+        String token = codec.encode(credential, 1_800_000_000_000L);
+
+        assertNull(codec.decode(token.substring(0, token.length() - 1)));
+        assertNull(codec.decode(token.substring(0, token.indexOf('.', 3) + 5)));
+        assertNull(codec.decode(token + "AA"));
+        assertNull(codec.decode("s1.a.!!not-base64!!"));
+        assertNull(codec.decode("s1.a"));
+        assertNull(codec.decode("s1."));
+        assertNull(codec.decode(null));
+        assertNull(codec.decode("3f2a9c1e-uuid-token"));
+    }
+
+    @Test
+    void rejectsTokensUnderAnotherKeyIdOrFromAnotherDeployment() {
+        String token = new CredentialTokenCodec(KEY_A).encode(credential, 1_800_000_000_000L);
+
+        // Same key bytes under a different id: the id is authenticated, so relabelling fails
+        CredentialTokenCodec relabelled = new CredentialTokenCodec("c:" + key(1, 32));
+        assertNull(relabelled.decode(token.replaceFirst("^s1\\.a\\.", "s1.c.")));
+        assertNull(new CredentialTokenCodec("a:" + key(3, 32)).decode(token));
+        assertNull(new CredentialTokenCodec(KEY_B).decode(token));
+    }
+
+    @Test
+    void decodesWithRetiredKeysButSealsWithTheFirst() {
+        String oldToken = new CredentialTokenCodec(KEY_A).encode(credential, 1_800_000_000_000L);
+        CredentialTokenCodec rotated = new CredentialTokenCodec(KEY_B + "," + KEY_A);
+
+        assertNotNull(rotated.decode(oldToken));
+        String newToken = rotated.encode(credential, 1_800_000_000_000L);
+        assertTrue(newToken.startsWith("s1.b."));
+        assertNull(new CredentialTokenCodec(KEY_A).decode(newToken));
+    }
+
+    @Test
+    void keepsSealedValuesAndTokensApart() {
+        CredentialTokenCodec codec = new CredentialTokenCodec(KEY_A);
+        String token = codec.encode(credential, 1_800_000_000_000L);
+        String sealed = codec.sealValue(token);
+
+        assertEquals(token, codec.openValue(sealed));
+        assertFalse(CredentialTokenCodec.isStateless(sealed));
+        assertNull(codec.decode(sealed));
+        assertNull(codec.decode("s1." + sealed.substring(3)));
+        assertNull(codec.openValue(token));
+        assertNull(codec.openValue("v1." + token.substring(3)));
+    }
+
+    @Test
+    void refusesToSealWithoutKeys() {
+        CredentialTokenCodec codec = new CredentialTokenCodec("");
+        assertFalse(codec.isConfigured());
+        assertThrows(IllegalStateException.class, () -> codec.encode(credential, 1L));
+        assertThrows(IllegalStateException.class, () -> codec.sealValue("x"));
+        assertNull(codec.decode(new CredentialTokenCodec(KEY_A).encode(credential, 1L)));
+    }
+
+    @Test
+    void rejectsBadKeySpecs() {
+        assertThrows(IllegalStateException.class, () -> new CredentialTokenCodec(key(1, 32)));
+        assertThrows(IllegalStateException.class, () -> new CredentialTokenCodec("a.b:" + key(1, 32)));
+        assertThrows(IllegalStateException.class, () -> new CredentialTokenCodec("a:" + key(1, 20)));
+    }
+
+    @Test
+    void statelessStoreReportsExpiredTokens() {
+        CredentialTokenCodec codec = new CredentialTokenCodec(KEY_A);
+        StatelessCredentialStore store = new StatelessCredentialStore(codec, Duration.ofMinutes(5), 16);
+
+        CredentialLookup lookup = store.lookup(store.save(credential));
+        assertEquals(CredentialLookup.Outcome.HIT, lookup.getOutcome());
+        assertEquals(credential.getClientSecret(), lookup.getCredential().getClientSecret());
+
+        String expired = codec.encode(credential, System.currentTimeMillis() - 1);
+        assertEquals(CredentialLookup.Outcome.EXPIRED, store.lookup(expired).getOutcome());
+        assertEquals(1, store.expirations());
+        assertEquals(CredentialLookup.Outcome.MISS, store.lookup("s1.a.AAAA").getOutcome());
+    }
+
+    private static String key(int seed, int length) {
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = (byte) (seed * 31 + i);
+        }
+        return Base64.getEncoder().encodeToString(key);
+    }
+}
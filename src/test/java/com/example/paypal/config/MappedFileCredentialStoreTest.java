@@ -0,0 +1,169 @@
+package com.example.paypal.config;
+
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PayPalCredential;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedFileCredentialStoreTest {
+
+    private static final CredentialTokenCodec CODEC = new CredentialTokenCodec("a:AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8=");
+
+    @TempDir
+    Path directory;
+
+    private final List<MappedFileCredentialStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeStores() throws Exception {
+        for (MappedFileCredentialStore store : opened) {
+            store.destroy();
+        }
+    }
+
+    @Test
+    void resolvesSavedCredentials() {
+        MappedFileCredentialStore store = open(1024, Duration.ofMinutes(5));
+        String token = store.save(credential("client-1"));
+
+        CredentialLookup lookup = store.lookup(token);
+        assertEquals(CredentialLookup.Outcome.HIT, lookup.getOutcome());
+        assertEquals("client-1", lookup.getCredential().getClientId());
+        assertEquals("secret-client-1", lookup.getCredential().getClientSecret());
+        assertEquals(EnvironmentMode.SANDBOX, lookup.getCredential().getMode());
+        assertEquals(CredentialLookup.Outcome.MISS, store.lookup("00000000-0000-0000-0000-000000000000").getOutcome());
+        assertEquals(CredentialLookup.Outcome.MISS, store.lookup("short").getOutcome());
+        assertEquals(CredentialLookup.Outcome.MISS, store.lookup(null).getOutcome());
+    }
+
+    @Test
+    void keepsCredentialsAcrossRestart() throws Exception {
+        MappedFileCredentialStore first = open(1024, Duration.ofMinutes(5));
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tokens.add(first.save(credential("client-" + i)));
+        }
+        close(first);
+
+        MappedFileCredentialStore reopened = open(1024, Duration.ofMinutes(5));
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals("client-" + i, reopened.lookup(tokens.get(i)).getCredential().getClientId());
+        }
+    }
+
+    @Test
+    void reportsExpiredTokensAndSweepsThem() throws InterruptedException {
+        MappedFileCredentialStore store = open(1024, Duration.ofMillis(1));
+        // Let the sweep that starts with the store pass, so this lookup is the first to see the expiry
+        Thread.sleep(100);
+        String token = store.save(credential("short-lived"));
+        Thread.sleep(5);
+
+        assertEquals(CredentialLookup.Outcome.EXPIRED, store.lookup(token).getOutcome());
+        store.sweep();
+        assertEquals(1, store.expirations());
+        assertEquals(0, store.size());
+        // The tombstone is no longer a live record
+        assertEquals(CredentialLookup.Outcome.MISS, store.lookup(token).getOutcome());
+    }
+
+    @Test
+    void evictsTheRecordClosestToExpiryWhenABucketIsFull() throws InterruptedException {
+        // Sixteen slots make a single bucket
+        MappedFileCredentialStore store = open(16, Duration.ofMinutes(5));
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 17; i++) {
+            tokens.add(store.save(credential("client-" + i)));
+            Thread.sleep(2);
+        }
+
+        assertEquals(1, store.evictions());
+        assertEquals(CredentialLookup.Outcome.MISS, store.lookup(tokens.get(0)).getOutcome());
+        for (int i = 1; i < tokens.size(); i++) {
+            assertEquals(CredentialLookup.Outcome.HIT, store.lookup(tokens.get(i)).getOutcome());
+        }
+    }
+
+    @Test
+    void reusesExpiredSlotsBeforeEvicting() throws Exception {
+        MappedFileCredentialStore shortLived = open(16, Duration.ofMillis(1));
+        for (int i = 0; i < 16; i++) {
+            shortLived.save(credential("expired-" + i));
+        }
+        close(shortLived);
+        Thread.sleep(5);
+
+        MappedFileCredentialStore store = open(16, Duration.ofMinutes(5));
+        String token = store.save(credential("fresh"));
+        assertEquals(0, store.evictions());
+        assertEquals("fresh", store.lookup(token).getCredential().getClientId());
+    }
+
+    @Test
+    void refusesAFileWithAnotherLayout() {
+        open(1024, Duration.ofMinutes(5));
+        assertThrows(IllegalStateException.class, () -> open(2048, Duration.ofMinutes(5)));
+    }
+
+    @Test
+    void refusesToStoreWithoutTokenKeys() {
+        assertThrows(IllegalStateException.class, () -> new MappedFileCredentialStore(new CredentialTokenCodec(""),
+                directory.resolve("credentials.dat"), 1024, 256, Duration.ofMinutes(5), Duration.ofHours(1),
+                Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void handlesConcurrentSavesAndLookups() throws Exception {
+        MappedFileCredentialStore store = open(16384, Duration.ofMinutes(5));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int id = thread;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        String clientId = "client-" + id + "-" + i;
+                        String token = store.save(credential(clientId));
+                        assertEquals(clientId, store.lookup(token).getCredential().getClientId());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0, store.evictions());
+    }
+
+    private MappedFileCredentialStore open(int slots, Duration ttl) {
+        MappedFileCredentialStore store = new MappedFileCredentialStore(CODEC, directory.resolve("credentials.dat"),
+                slots, 256, ttl, Duration.ofHours(1), Duration.ofSeconds(1));
+        opened.add(store);
+        return store;
+    }
+
+    // Stores in one JVM must not overlap, the JDK refuses a second lock on a region this process already holds
+    private void close(MappedFileCredentialStore store) throws Exception {
+        store.destroy();
+        opened.remove(store);
+    }
+
+    private static PayPalCredential credential(String clientId) {
+        return new PayPalCredential(clientId, "secret-" + clientId, EnvironmentMode.SANDBOX);
+    }
+}
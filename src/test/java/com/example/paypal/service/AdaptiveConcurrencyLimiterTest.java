@@ -0,0 +1,176 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.CredentialKey;
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.service.AdaptiveConcurrencyLimiter.Operation;
+import com.example.paypal.service.AdaptiveConcurrencyLimiter.Outcome;
+import com.example.paypal.service.AdaptiveConcurrencyLimiter.Permit;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Latency is measured with the real clock, so slow calls here are calls that sleep
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final CredentialKey MERCHANT = new CredentialKey("merchant", "secret", EnvironmentMode.SANDBOX);
+    private static final CredentialKey OTHER_MERCHANT = new CredentialKey("other", "secret", EnvironmentMode.SANDBOX);
+
+    @Test
+    void turnsAwayCallsOverTheCredentialLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(64, 2);
+        Permit first = limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE);
+        limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE);
+
+        RetryLaterException rejected = assertThrows(RetryLaterException.class,
+                () -> limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatus());
+        assertEquals(2, rejected.getRetryAfterSeconds());
+        // Another merchant has a limit of its own
+        limiter.acquire(OTHER_MERCHANT, Operation.CREATE_AND_CAPTURE).release(Outcome.IGNORED);
+
+        first.release(Outcome.IGNORED);
+        limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE);
+        assertEquals(1L, credentials(limiter).get("rejected"));
+    }
+
+    @Test
+    void turnsAwayCallsOverTheEnvironmentLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 16);
+        limiter.acquire(MERCHANT, Operation.VERIFY);
+        limiter.acquire(OTHER_MERCHANT, Operation.VERIFY);
+
+        assertThrows(RetryLaterException.class,
+                () -> limiter.acquire(new CredentialKey("third", "secret", EnvironmentMode.SANDBOX), Operation.VERIFY));
+        // The live environment is limited separately
+        limiter.acquire(new CredentialKey("merchant", "secret", EnvironmentMode.LIVE), Operation.VERIFY);
+        assertEquals(1L, environment(limiter).get("rejected"));
+    }
+
+    @Test
+    void forgetsIdleCredentialsThatAreNotThrottled() {
+        AdaptiveConcurrencyLimiter limiter = limiter(64, 16);
+        Permit permit = limiter.acquire(MERCHANT, Operation.CREATE);
+        assertEquals(1, credentials(limiter).get("tracked"));
+
+        permit.release(Outcome.SUCCESS);
+        assertEquals(0, credentials(limiter).get("tracked"));
+    }
+
+    @Test
+    void backsOffOncePerBurstOfDropsAndGrowsBackUnderLoad() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 16);
+        // A baseline well above scheduling noise, so the quick calls below never count as slow
+        call(limiter, Operation.CREATE_AND_CAPTURE, 20);
+        Permit first = limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE);
+        Permit second = limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE);
+        first.release(Outcome.DROPPED);
+        second.release(Outcome.DROPPED);
+        assertEquals(3, environment(limiter).get("limit"));
+        assertEquals(1L, environment(limiter).get("decreases"));
+
+        // Two in flight against a limit of 3.6 counts as using it
+        for (int i = 0; i < 4; i++) {
+            Permit held = limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE);
+            Permit busy = limiter.acquire(MERCHANT, Operation.CREATE_AND_CAPTURE);
+            busy.release(Outcome.SUCCESS);
+            held.release(Outcome.IGNORED);
+        }
+        assertEquals(4, environment(limiter).get("limit"));
+    }
+
+    @Test
+    void judgesLatencyAgainstTheSameOperation() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(64, 16);
+        for (int i = 0; i < 5; i++) {
+            call(limiter, Operation.VERIFY, 10);
+        }
+        // Several times slower than a verification, but the first and usual time for a capture
+        call(limiter, Operation.CREATE_AND_CAPTURE, 60);
+        call(limiter, Operation.CREATE_AND_CAPTURE, 60);
+        assertEquals(0L, environment(limiter).get("decreases"));
+
+        call(limiter, Operation.VERIFY, 60);
+        assertEquals(1L, environment(limiter).get("decreases"));
+        assertTrue(baselineMillis(limiter, "verify") < 20);
+        assertTrue(baselineMillis(limiter, "create_and_capture") >= 50);
+    }
+
+    @Test
+    void adoptsALastingShiftInLatency() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(64, 16);
+        for (int i = 0; i < 10; i++) {
+            call(limiter, Operation.CREATE, 10);
+        }
+        int slowCalls = 0;
+        while (baselineMillis(limiter, "create") < 25 && slowCalls < 200) {
+            call(limiter, Operation.CREATE, 45);
+            slowCalls++;
+        }
+        assertTrue(slowCalls < 200, "baseline stuck at " + baselineMillis(limiter, "create") + "ms");
+        long decreases = (Long) environment(limiter).get("decreases");
+        assertTrue(decreases > 0);
+
+        for (int i = 0; i < 10; i++) {
+            call(limiter, Operation.CREATE, 45);
+        }
+        assertEquals(decreases, environment(limiter).get("decreases"));
+    }
+
+    @Test
+    void measuresFromStartedForQueuedWork() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(64, 16);
+        for (int i = 0; i < 5; i++) {
+            call(limiter, Operation.CREATE, 10);
+        }
+        Permit permit = limiter.acquire(MERCHANT, Operation.CREATE);
+        Thread.sleep(60);
+        permit.started();
+        Thread.sleep(10);
+        permit.release(Outcome.SUCCESS);
+        assertEquals(0L, environment(limiter).get("decreases"));
+    }
+
+    @Test
+    void admitsEverythingWhenDisabled() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(false, 1, 1, 1, 1, 1, 0.9, 2.0,
+                Duration.ofSeconds(1));
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(MERCHANT, Operation.CREATE);
+        }
+        assertFalse((Boolean) limiter.stats().get("enabled"));
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int environmentLimit, int credentialLimit) {
+        return new AdaptiveConcurrencyLimiter(true, environmentLimit, 512, credentialLimit, 128, 2, 0.9, 2.0,
+                Duration.ofMillis(1500));
+    }
+
+    private static void call(AdaptiveConcurrencyLimiter limiter, Operation operation, long millis)
+            throws InterruptedException {
+        Permit permit = limiter.acquire(MERCHANT, operation);
+        Thread.sleep(millis);
+        permit.release(Outcome.SUCCESS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> environment(AdaptiveConcurrencyLimiter limiter) {
+        return (Map<String, Object>) limiter.stats().get(EnvironmentMode.SANDBOX.name());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> credentials(AdaptiveConcurrencyLimiter limiter) {
+        return (Map<String, Object>) limiter.stats().get("credentials");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long baselineMillis(AdaptiveConcurrencyLimiter limiter, String operation) {
+        return ((Map<String, Long>) environment(limiter).get("baselineMillis")).get(operation);
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.paypal.service;
+
+import com.example.paypal.config.CredentialStore;
+import com.example.paypal.config.CredentialTokenCodec;
+import com.example.paypal.config.InMemoryCredentialStore;
+import com.example.paypal.config.StatelessCredentialStore;
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PayPalCredential;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Nothing here reaches PayPal: captures are never resumed, and the ones enqueued fail on their expired token before
+// the client cache or call guard would be used, so neither is provided
+class DeferredCaptureQueueTest {
+
+    private static final CredentialTokenCodec CODEC = new CredentialTokenCodec("a:AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8=");
+    private static final PayPalCredential CREDENTIAL = new PayPalCredential("merchant", "secret", EnvironmentMode.SANDBOX);
+
+    @TempDir
+    Path directory;
+
+    private final CredentialStore store = new StatelessCredentialStore(CODEC, Duration.ofHours(1), 16);
+    private final List<DeferredCaptureQueue> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeQueues() throws InterruptedException {
+        for (DeferredCaptureQueue queue : opened) {
+            queue.destroy();
+        }
+    }
+
+    @Test
+    void replaysPendingAndFinishedCaptures() throws Exception {
+        String token = store.save(CREDENTIAL);
+        Path journal = journal(
+                enqueued("ORDER-1", token, 1000),
+                enqueued("ORDER-2", token, 1001),
+                "COMPLETED\tORDER-2\tCAPTURE-2\tCOMPLETED\t\t1\t2000\t1001",
+                enqueued("ORDER-3", token, 1002),
+                "FAILED\tORDER-3\t\t\tPayment declined: DECLINED\t2\t3000\t1002",
+                // Torn by a crash mid-append
+                "ENQUEUED\tORDER-4\tREQ-ORDER-4");
+
+        DeferredCaptureQueue queue = open(journal, Duration.ofHours(24), 1 << 20);
+        assertTrue(queue.isEnabled());
+        assertEquals("PENDING", queue.status("ORDER-1").get("state"));
+        Map<String, Object> completed = queue.status("ORDER-2");
+        assertEquals("COMPLETED", completed.get("state"));
+        assertEquals("CAPTURE-2", completed.get("captureId"));
+        Map<String, Object> failed = queue.status("ORDER-3");
+        assertEquals("FAILED", failed.get("state"));
+        assertEquals("Payment declined: DECLINED", failed.get("error"));
+        assertEquals(2, failed.get("attempts"));
+        assertNull(queue.status("ORDER-4"));
+    }
+
+    @Test
+    void compactsTheJournalWhenOpened() throws Exception {
+        String token = store.save(CREDENTIAL);
+        String pending = enqueued("ORDER-1", token, 1000);
+        Path journal = journal(
+                pending,
+                enqueued("ORDER-2", token, 1001),
+                "COMPLETED\tORDER-2\tCAPTURE-2\tCOMPLETED\t\t1\t2000\t1001",
+                "not a journal record");
+
+        open(journal, Duration.ofHours(24), 1 << 20);
+        List<String> lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.contains(pending));
+        assertTrue(lines.contains("COMPLETED\tORDER-2\tCAPTURE-2\tCOMPLETED\t\t1\t2000\t1001"));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(journal)));
+    }
+
+    @Test
+    void dropsFinishedCapturesPastRetentionAndCompacts() throws Exception {
+        String pending = enqueued("ORDER-1", store.save(CREDENTIAL), 1000);
+        Path journal = journal(
+                pending,
+                "COMPLETED\tORDER-2\tCAPTURE-2\tCOMPLETED\t\t1\t2000\t1001");
+
+        // The sweep runs once a second at the soonest
+        DeferredCaptureQueue queue = open(journal, Duration.ofMillis(1), 0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queue.status("ORDER-2") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertNull(queue.status("ORDER-2"));
+        assertEquals("PENDING", queue.status("ORDER-1").get("state"));
+        while (Files.readAllLines(journal).size() != 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(Arrays.asList(pending), Files.readAllLines(journal));
+    }
+
+    @Test
+    void journalsOnlySealedTokensAndReplaysTheResult() throws Exception {
+        Path journal = directory.resolve("captures.log");
+        String expired = CODEC.encode(CREDENTIAL, System.currentTimeMillis() - 1);
+        DeferredCaptureQueue queue = open(journal, Duration.ofHours(24), 1 << 20);
+
+        queue.enqueue(expired, CREDENTIAL, "ORDER-1", "REQ-1");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"FAILED".equals(queue.status("ORDER-1").get("state")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("FAILED", queue.status("ORDER-1").get("state"));
+        String written = new String(Files.readAllBytes(journal), StandardCharsets.UTF_8);
+        assertFalse(written.contains(expired));
+        assertTrue(written.startsWith("ENQUEUED\tORDER-1\tREQ-1\tv1.a."));
+
+        queue.destroy();
+        opened.remove(queue);
+        DeferredCaptureQueue restarted = open(journal, Duration.ofHours(24), 1 << 20);
+        assertEquals("FAILED", restarted.status("ORDER-1").get("state"));
+        assertEquals("Credential token is no longer valid, the order was not captured",
+                restarted.status("ORDER-1").get("error"));
+    }
+
+    @Test
+    void keepsTokensSealedWithARetiredKey() throws Exception {
+        CredentialTokenCodec retired = new CredentialTokenCodec("old:AAECAwQFBgcICQoLDA0ODw==");
+        String pending = "ENQUEUED\tORDER-1\tREQ-ORDER-1\t" + retired.sealValue("s1.old.token") + "\t1000";
+        Path journal = journal(pending);
+
+        DeferredCaptureQueue queue = open(journal, Duration.ofHours(24), 1 << 20);
+        assertEquals("PENDING", queue.status("ORDER-1").get("state"));
+        // Kept as sealed, so restoring the key would still let it be captured
+        assertEquals(Arrays.asList(pending), Files.readAllLines(journal));
+    }
+
+    @Test
+    void staysOffWithoutADurableCredentialStore() {
+        InMemoryCredentialStore memory = new InMemoryCredentialStore(Duration.ofHours(1), 16, 1, Duration.ofHours(1));
+        try {
+            DeferredCaptureQueue queue = new DeferredCaptureQueue(true, memory, CODEC, null, null,
+                    directory.resolve("captures.log").toString(), 1, 2, 5, Duration.ofSeconds(5),
+                    Duration.ofSeconds(45), Duration.ofHours(24), 1 << 20);
+            assertFalse(queue.isEnabled());
+            assertNotNull(queue.unavailableReason());
+            ResponseStatusException refused = assertThrows(ResponseStatusException.class,
+                    () -> queue.enqueue("token", CREDENTIAL, "ORDER-1", "REQ-1"));
+            assertEquals(queue.unavailableReason(), refused.getReason());
+            assertFalse(Files.exists(directory.resolve("captures.log")));
+        } finally {
+            memory.destroy();
+        }
+    }
+
+    @Test
+    void staysOffWithoutTokenKeys() {
+        DeferredCaptureQueue queue = new DeferredCaptureQueue(true, store, new CredentialTokenCodec(""), null, null,
+                directory.resolve("captures.log").toString(), 1, 2, 5, Duration.ofSeconds(5), Duration.ofSeconds(45),
+                Duration.ofHours(24), 1 << 20);
+        assertFalse(queue.isEnabled());
+        assertEquals(false, queue.stats().get("enabled"));
+        assertEquals(queue.unavailableReason(), queue.stats().get("unavailableReason"));
+    }
+
+    @Test
+    void staysOffWhenTheJournalCannotBeOpened() throws Exception {
+        // A directory where the journal file should be
+        Path journal = Files.createDirectory(directory.resolve("captures.log"));
+        DeferredCaptureQueue queue = open(journal, Duration.ofHours(24), 1 << 20);
+        assertFalse(queue.isEnabled());
+        assertEquals("Deferred capture is unavailable, its journal could not be opened", queue.unavailableReason());
+    }
+
+    private DeferredCaptureQueue open(Path journal, Duration retention, long compactAfterBytes) {
+        DeferredCaptureQueue queue = new DeferredCaptureQueue(true, store, CODEC, null, null, journal.toString(), 1, 2, 5,
+                Duration.ofSeconds(5), Duration.ofSeconds(45), retention, compactAfterBytes);
+        opened.add(queue);
+        return queue;
+    }
+
+    private Path journal(String... lines) throws Exception {
+        Path journal = directory.resolve("captures.log");
+        Files.write(journal, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        return journal;
+    }
+
+    private static String enqueued(String orderId, String token, long enqueuedAtMillis) {
+        return "ENQUEUED\t" + orderId + "\tREQ-" + orderId + "\t" + CODEC.sealValue(token) + "\t" + enqueuedAtMillis;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.paypal.service;
+
+import com.example.paypal.dto.BillingAddress;
+import com.example.paypal.dto.CardPaymentRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paypal.http.Encoder;
+import com.paypal.orders.OrdersCreateRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The writer has to produce the bytes the SDK produced from the HashMaps it replaced, which are rebuilt here the
+// way PayPalPaymentService built them and encoded by the SDK's own Encoder
+class OrderRequestWriterTest {
+
+    private static final String[] NAMES = {
+            "Jane Doe", "José Álvarez", "Zoë Ægir", "Łukasz Żółć", "Иван Петров", "山田 太郎", "김민준",
+            "محمد", "Ωmega 😀", "𝔘𝔫𝔦𝔠𝔬𝔡𝔢", "x🎉y", "", "   "
+    };
+    private static final String[] SEPARATORS = {"", " ", "-", "\t", "\n", "\r", "\f", "\u000B", " - ", "  "};
+    private static final String[] EXPIRIES = {
+            "2030-12", "12/30", "01/49", "06/50", "11/99", "1230", "0149", "0650", "1299", "2030/12", "12-30",
+            "123", "12/3", "ab/cd", "", "2030-1"
+    };
+
+    private final OrderRequestWriter writer = new OrderRequestWriter();
+
+    @Test
+    void matchesSdkForDefaults() throws IOException {
+        assertMatchesSdk(request("4111111111111111", "2030-12", null, null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2030-12", "12/30", "01/49", "06/50", "11/99", "1230", "0149", "0650", "1299",
+            "2030/12", "12-30", "123", "ab/cd", "", "2030-1"})
+    void matchesSdkForEveryExpiryForm(String expiry) throws IOException {
+        assertMatchesSdk(request("4111111111111111", expiry, "Jane Doe", null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"4111 1111 1111 1111", "4111-1111-1111-1111", "4111\t1111\n1111\r1111",
+            "4111\f1111\u000B1111 - 1111", " 4111111111111111 "})
+    void matchesSdkForSeparators(String cardNumber) throws IOException {
+        assertMatchesSdk(request(cardNumber, "12/30", "Jane Doe", null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"José Álvarez", "山田 太郎", "Ωmega 😀", "𝔘𝔫𝔦𝔠𝔬𝔡𝔢", "x🎉y", "   "})
+    void matchesSdkForNonAsciiNames(String name) throws IOException {
+        BillingAddress address = address("Straße 1", null, "Bayern", "München", "80331", "de");
+        assertMatchesSdk(request("4111111111111111", "2030-12", name, address));
+    }
+
+    @Test
+    void matchesSdkForPartialAndEmptyAddresses() throws IOException {
+        assertMatchesSdk(request("4111111111111111", "2030-12", "Jane Doe", address(null, null, null, null, null, "gb")));
+        assertMatchesSdk(request("4111111111111111", "2030-12", "Jane Doe", address("1 High St", "Flat 2", null, null,
+                "SW1A 1AA", null)));
+        assertMatchesSdk(request("4111111111111111", "2030-12", "Jane Doe", address(" ", "", null, null, null, null)));
+    }
+
+    @Test
+    void matchesSdkForRandomRequests() throws IOException {
+        Random random = new Random(20261018);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder number = new StringBuilder();
+            for (int digit = 0; digit < 16; digit++) {
+                number.append((char) ('0' + random.nextInt(10)));
+                if (digit % 4 == 3) {
+                    number.append(pick(random, SEPARATORS));
+                }
+            }
+            BillingAddress address = random.nextInt(4) == 0 ? null : address(maybe(random), maybe(random),
+                    maybe(random), maybe(random), maybe(random), random.nextBoolean() ? "us" : null);
+            CardPaymentRequest request = request(number.toString(), pick(random, EXPIRIES),
+                    random.nextInt(5) == 0 ? null : pick(random, NAMES), address);
+            request.setAmount(BigDecimal.valueOf(random.nextInt(1_000_000), random.nextInt(4)));
+            request.setCurrencyCode(random.nextBoolean() ? "usd" : "EUR");
+            assertMatchesSdk(request);
+        }
+    }
+
+    // The SDK wrote strings unescaped, which PayPal could not parse; the writer escapes them into valid JSON
+    @Test
+    void escapesWhatTheSdkLeftRaw() throws IOException {
+        String name = "O\"Brien \\ \u0001";
+        JsonNode order = new ObjectMapper().readTree(writer.write(request("4111111111111111", "2030-12", name, null)));
+        assertEquals(name, order.path("payment_source").path("card").path("name").asText());
+    }
+
+    @Test
+    void writesZeroDecimalCurrenciesWithoutFraction() throws IOException {
+        CardPaymentRequest request = request("4111111111111111", "2030-12", "Jane Doe", null);
+        request.setAmount(new BigDecimal("1234.5"));
+        request.setCurrencyCode("jpy");
+        JsonNode amount = new ObjectMapper().readTree(writer.write(request)).path("purchase_units").path(0).path("amount");
+        assertEquals("1235", amount.path("value").asText());
+        assertEquals("JPY", amount.path("currency_code").asText());
+    }
+
+    private void assertMatchesSdk(CardPaymentRequest request) throws IOException {
+        OrdersCreateRequest createRequest = new OrdersCreateRequest();
+        createRequest.requestBody(sdkOrderBody(request));
+        String expected = new String(new Encoder().serializeRequest(createRequest), StandardCharsets.UTF_8);
+        assertEquals(expected, new String(writer.write(request), StandardCharsets.UTF_8));
+    }
+
+    private static CardPaymentRequest request(String cardNumber, String expiry, String name, BillingAddress address) {
+        CardPaymentRequest request = new CardPaymentRequest();
+        request.setAmount(new BigDecimal("10.5"));
+        request.setCurrencyCode("usd");
+        request.setCardNumber(cardNumber);
+        request.setExpiry(expiry);
+        request.setSecurityCode("123");
+        request.setCardholderName(name);
+        request.setBillingAddress(address);
+        return request;
+    }
+
+    private static BillingAddress address(String line1, String line2, String adminArea1, String adminArea2,
+                                          String postalCode, String countryCode) {
+        BillingAddress address = new BillingAddress();
+        address.setAddressLine1(line1);
+        address.setAddressLine2(line2);
+        address.setAdminArea1(adminArea1);
+        address.setAdminArea2(adminArea2);
+        address.setPostalCode(postalCode);
+        address.setCountryCode(countryCode);
+        return address;
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String maybe(Random random) {
+        return random.nextInt(3) == 0 ? null : pick(random, NAMES);
+    }
+
+    private static Map<String, Object> sdkOrderBody(CardPaymentRequest request) {
+        Map<String, Object> amount = new HashMap<>();
+        amount.put("currency_code", request.getCurrencyCode().toUpperCase());
+        amount.put("value", request.getAmount().setScale(2, RoundingMode.HALF_UP).toPlainString());
+
+        Map<String, Object> purchaseUnit = new HashMap<>();
+        purchaseUnit.put("amount", amount);
+        purchaseUnit.put("description", "Direct card payment");
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("intent", "CAPTURE");
+        payload.put("purchase_units", Collections.singletonList(purchaseUnit));
+        payload.put("payment_source", Collections.singletonMap("card", sdkCardSource(request)));
+        payload.put("processing_instruction", "ORDER_COMPLETE_ON_PAYMENT_APPROVAL");
+
+        Map<String, Object> applicationContext = new HashMap<>();
+        applicationContext.put("brand_name", "Payment Service");
+        applicationContext.put("landing_page", "NO_PREFERENCE");
+        applicationContext.put("user_action", "PAY_NOW");
+        applicationContext.put("return_url", "https://example.com/return");
+        applicationContext.put("cancel_url", "https://example.com/cancel");
+        payload.put("application_context", applicationContext);
+        return payload;
+    }
+
+    private static Map<String, Object> sdkCardSource(CardPaymentRequest request) {
+        Map<String, Object> card = new HashMap<>();
+        card.put("number", request.getCardNumber().replaceAll("[\\s-]", ""));
+        card.put("expiry", sdkExpiry(request.getExpiry()));
+        card.put("security_code", request.getSecurityCode());
+        card.put("name", StringUtils.hasText(request.getCardholderName()) ? request.getCardholderName() : "Cardholder");
+        Map<String, Object> billingAddress = sdkAddress(request.getBillingAddress());
+        if (billingAddress.isEmpty()) {
+            billingAddress.put("address_line_1", "123 Main St");
+            billingAddress.put("admin_area_2", "San Jose");
+            billingAddress.put("admin_area_1", "CA");
+            billingAddress.put("postal_code", "95131");
+            billingAddress.put("country_code", "US");
+        }
+        card.put("billing_address", billingAddress);
+        return card;
+    }
+
+    private static String sdkExpiry(String expiry) {
+        if (expiry == null || expiry.matches("^\\d{4}-\\d{2}$")) {
+            return expiry;
+        }
+        if (expiry.matches("^\\d{2}/\\d{2}$")) {
+            String[] parts = expiry.split("/");
+            int year = Integer.parseInt(parts[1]);
+            return String.format("%d-%s", year < 50 ? 2000 + year : 1900 + year, parts[0]);
+        }
+        if (expiry.matches("^\\d{4}$")) {
+            int year = Integer.parseInt(expiry.substring(2, 4));
+            return String.format("%d-%s", year < 50 ? 2000 + year : 1900 + year, expiry.substring(0, 2));
+        }
+        return expiry;
+    }
+
+    private static Map<String, Object> sdkAddress(BillingAddress address) {
+        Map<String, Object> map = new HashMap<>();
+        if (address == null) {
+            return map;
+        }
+        if (StringUtils.hasText(address.getAddressLine1())) {
+            map.put("address_line_1", address.getAddressLine1());
+        }
+        if (StringUtils.hasText(address.getAddressLine2())) {
+            map.put("address_line_2", address.getAddressLine2());
+        }
+        if (StringUtils.hasText(address.getAdminArea1())) {
+            map.put("admin_area_1", address.getAdminArea1());
+        }
+        if (StringUtils.hasText(address.getAdminArea2())) {
+            map.put("admin_area_2", address.getAdminArea2());
+        }
+        if (StringUtils.hasText(address.getPostalCode())) {
+            map.put("postal_code", address.getPostalCode());
+        }
+        if (StringUtils.hasText(address.getCountryCode())) {
+            map.put("country_code", address.getCountryCode().toUpperCase());
+        }
+        return map;
+    }
+}
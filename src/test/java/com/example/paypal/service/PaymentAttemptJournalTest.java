@@ -0,0 +1,253 @@
+package com.example.paypal.service;
+
+import com.example.paypal.model.EnvironmentMode;
+import com.example.paypal.model.PayPalErrorCategory;
+import com.example.paypal.model.PaymentAttempt;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentAttemptJournalTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private final List<PaymentAttemptJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() throws InterruptedException {
+        for (PaymentAttemptJournal journal : opened) {
+            journal.destroy();
+        }
+    }
+
+    @Test
+    void readsBackEveryFieldInOrder() throws Exception {
+        PaymentAttemptJournal journal = open(16);
+        String longKey = new String(new char[300]).replace('\0', 'k');
+        journal.record(new PaymentAttempt(1_700_000_000_000L, EnvironmentMode.LIVE, "client-😀", new BigDecimal("12.50"),
+                "EUR", "4242", longKey, "ORDER-1", "COMPLETED", "COMPLETED", null, null, 0, 3_000_000L, 1_000_000L,
+                2_000_000L));
+        journal.record(new PaymentAttempt(1_700_000_000_001L, null, null, null, null, null, null, null, null, null,
+                "PayPalException", PayPalErrorCategory.DECLINED, 422, 1L, 0L, 0L));
+        close(journal);
+
+        List<PaymentAttempt> attempts = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        PaymentAttemptReader.read(directory, 0, 10, (sequence, attempt) -> {
+            sequences.add(sequence);
+            return attempts.add(attempt);
+        });
+        assertEquals(Arrays.asList(0L, 1L), sequences);
+
+        PaymentAttempt first = attempts.get(0);
+        assertEquals(1_700_000_000_000L, first.getStartedAtMillis());
+        assertEquals(EnvironmentMode.LIVE, first.getEnvironment());
+        assertEquals("client-😀", first.getClientId());
+        assertEquals(new BigDecimal("12.50"), first.getAmount());
+        assertEquals("EUR", first.getCurrencyCode());
+        assertEquals("4242", first.getCardLast4());
+        // Strings are capped at MAX_STRING_BYTES
+        assertEquals(longKey.substring(0, PaymentAttemptJournal.MAX_STRING_BYTES), first.getIdempotencyKey());
+        assertEquals("ORDER-1", first.getOrderId());
+        assertEquals("COMPLETED", first.getCaptureStatus());
+        assertEquals(3_000_000L, first.getTotalNanos());
+        assertEquals(1_000_000L, first.getCreateNanos());
+        assertEquals(2_000_000L, first.getCaptureNanos());
+
+        PaymentAttempt second = attempts.get(1);
+        assertNull(second.getEnvironment());
+        assertNull(second.getClientId());
+        assertNull(second.getAmount());
+        assertEquals("PayPalException", second.getErrorClass());
+        assertEquals(PayPalErrorCategory.DECLINED, second.getErrorCategory());
+        assertEquals(422, second.getErrorStatus());
+    }
+
+    @Test
+    void startsReadingAtTheRequestedSequenceInAnySegment() throws Exception {
+        PaymentAttemptJournal journal = open(64);
+        record(journal, 2000);
+        close(journal);
+
+        List<Path> segments = PaymentAttemptReader.segments(directory);
+        assertTrue(segments.size() > 2, "expected several segments, got " + segments.size());
+        long boundary = firstSequence(segments.get(1));
+
+        assertEquals(2000, sequencesFrom(0, Integer.MAX_VALUE).size());
+        for (long from : new long[] {0, 1, boundary - 1, boundary, boundary + 1, firstSequence(segments.get(2)), 1999}) {
+            List<Long> read = sequencesFrom(from, 5);
+            assertEquals(Math.min(5, 2000 - from), read.size(), "from " + from);
+            for (int i = 0; i < read.size(); i++) {
+                assertEquals(from + i, read.get(i), "from " + from);
+            }
+        }
+        assertTrue(sequencesFrom(2000, 5).isEmpty());
+        assertTrue(sequencesFrom(Long.MAX_VALUE, 5).isEmpty());
+    }
+
+    @Test
+    void stopsWhenTheVisitorAsks() throws Exception {
+        PaymentAttemptJournal journal = open(16);
+        record(journal, 10);
+        close(journal);
+
+        List<Long> seen = new ArrayList<>();
+        int visited = PaymentAttemptReader.read(directory, 3, 10, (sequence, attempt) -> seen.add(sequence) && seen.size() < 2);
+        assertEquals(2, visited);
+        assertEquals(Arrays.asList(3L, 4L), seen);
+    }
+
+    @Test
+    void readsFromTheOldestSegmentLeftAfterRotation() throws Exception {
+        PaymentAttemptJournal journal = open(2);
+        record(journal, 2000);
+        close(journal);
+
+        List<Path> segments = PaymentAttemptReader.segments(directory);
+        assertEquals(2, segments.size());
+        long oldest = firstSequence(segments.get(0));
+        assertTrue(oldest > 0);
+        List<Long> read = sequencesFrom(0, 3);
+        assertEquals(Arrays.asList(oldest, oldest + 1, oldest + 2), read);
+        assertEquals(1999L, sequencesFrom(0, Integer.MAX_VALUE).get((int) (1999 - oldest)));
+    }
+
+    @Test
+    void continuesTheSequenceAfterARestart() throws Exception {
+        PaymentAttemptJournal first = open(16);
+        record(first, 10);
+        close(first);
+
+        PaymentAttemptJournal second = open(16);
+        assertEquals(10, second.nextSequence());
+        record(second, 5);
+        close(second);
+
+        assertEquals(contiguous(0, 15), sequencesFrom(0, Integer.MAX_VALUE));
+        assertEquals(1, PaymentAttemptReader.segments(directory).size());
+    }
+
+    @Test
+    void recoversPastATornRecord() throws Exception {
+        PaymentAttemptJournal first = open(16);
+        record(first, 10);
+        close(first);
+
+        // A crash persisted the length of the next record but not the rest of it
+        Path segment = PaymentAttemptReader.segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int end = endOfRecords(mapped);
+            mapped.putInt(end, 120);
+            mapped.putLong(end + PaymentAttemptJournal.RECORD_HEADER_BYTES, 999_999L);
+            mapped.force();
+        }
+        assertEquals(contiguous(0, 10), sequencesFrom(0, Integer.MAX_VALUE));
+
+        PaymentAttemptJournal second = open(16);
+        assertEquals(10, second.nextSequence());
+        record(second, 5);
+        close(second);
+
+        assertEquals(contiguous(0, 15), sequencesFrom(0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void dropsASegmentWhoseHeaderNeverReachedTheDisk() throws Exception {
+        PaymentAttemptJournal first = open(16);
+        record(first, 10);
+        close(first);
+        Files.write(directory.resolve(PaymentAttemptJournal.segmentName(10)), new byte[SEGMENT_BYTES]);
+
+        PaymentAttemptJournal second = open(16);
+        assertEquals(10, second.nextSequence());
+        record(second, 1);
+        close(second);
+
+        assertEquals(contiguous(0, 11), sequencesFrom(0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void turnsItselfOffRatherThanFailStartup() throws Exception {
+        Files.write(directory.resolve(PaymentAttemptJournal.segmentName(0)), ByteBuffer.allocate(64).putInt(42).array());
+        PaymentAttemptJournal journal = open(16);
+        assertFalse(journal.isEnabled());
+        journal.record(attempt(0));
+        assertEquals(0L, journal.stats().get("recorded"));
+    }
+
+    private PaymentAttemptJournal open(int maxSegments) {
+        PaymentAttemptJournal journal = new PaymentAttemptJournal(true, directory.toString(), SEGMENT_BYTES, maxSegments,
+                4096, Duration.ofMillis(10), 512);
+        opened.add(journal);
+        return journal;
+    }
+
+    // Drains what was recorded and forces it, as at shutdown
+    private void close(PaymentAttemptJournal journal) throws InterruptedException {
+        journal.destroy();
+        opened.remove(journal);
+    }
+
+    private static void record(PaymentAttemptJournal journal, int count) {
+        for (int i = 0; i < count; i++) {
+            journal.record(attempt(i));
+        }
+    }
+
+    private static PaymentAttempt attempt(int index) {
+        return new PaymentAttempt(1_700_000_000_000L + index, EnvironmentMode.SANDBOX, "client", new BigDecimal("10.00"),
+                "USD", "1111", "key-" + index, "ORDER-" + index, "COMPLETED", "COMPLETED", null, null, 0, 1_000_000L,
+                400_000L, 600_000L);
+    }
+
+    private List<Long> sequencesFrom(long from, int limit) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        PaymentAttemptReader.read(directory, from, limit, (sequence, attempt) -> sequences.add(sequence));
+        return sequences;
+    }
+
+    private static List<Long> contiguous(long from, long to) {
+        List<Long> sequences = new ArrayList<>();
+        for (long sequence = from; sequence < to; sequence++) {
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PaymentAttemptJournal.SEGMENT_PREFIX.length(),
+                name.length() - PaymentAttemptJournal.SEGMENT_SUFFIX.length()));
+    }
+
+    private static int endOfRecords(ByteBuffer segment) {
+        int position = PaymentAttemptJournal.HEADER_BYTES;
+        int length;
+        while ((length = PaymentAttemptReader.validLength(segment, position)) > 0) {
+            position += PaymentAttemptJournal.RECORD_HEADER_BYTES + length;
+        }
+        return position;
+    }
+}